@@ -0,0 +1,142 @@
+package org.ligboy.android.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Timing harness of the instrumented benchmarks.
+ * <p>Runs a body in timed batches after untimed warm-up batches and logs the median time per
+ * operation to logcat under the tag {@value #TAG}. The numbers of one run are only comparable
+ * with each other, so every benchmark measures its baseline in the same test.</p>
+ * <pre>
+ * adb shell am instrument -w -e class org.ligboy.android.utils.CoarseClockBenchmark \
+ *         org.ligboy.android.utils.test/android.test.InstrumentationTestRunner
+ * adb logcat -s Benchmark
+ * </pre>
+ */
+final class Benchmark {
+
+    static final String TAG = "Benchmark";
+
+    private static final int WARM_UP_BATCHES = 5;
+    private static final int BATCHES = 15;
+
+    /**
+     * Consumes the results of the bodies, so the runtime can't drop the work producing them.
+     */
+    private static volatile long sSink;
+
+    private Benchmark() {
+        throw new IllegalAccessError();
+    }
+
+    /**
+     * The measured code.
+     */
+    interface Body {
+
+        /**
+         * Run the operations once.
+         * @param operations The number of operations of the batch.
+         * @return A value depending on the results of the operations.
+         */
+        long run(int operations) throws Exception;
+    }
+
+    /**
+     * Measure a body on the calling thread.
+     * @return The median time of one operation, in nanoseconds.
+     */
+    static double measure(@NonNull String name, int operations, @NonNull Body body)
+            throws Exception {
+        return measure(name, 1, operations, body, null);
+    }
+
+    /**
+     * Measure a body running on several threads at once.
+     * @param name The name logged with the result.
+     * @param threads The number of threads running the body concurrently.
+     * @param operations The number of operations per thread and batch.
+     * @param body The measured code.
+     * @param afterBatch Run untimed after every batch, e.g. to drain a queue, may be null.
+     * @return The median of the mean time of one operation on one thread, in nanoseconds.
+     */
+    static double measure(@NonNull String name, int threads, int operations,
+                          @NonNull Body body, @Nullable Runnable afterBatch) throws Exception {
+        for (int i = 0; i < WARM_UP_BATCHES; i++) {
+            runBatch(threads, operations, body);
+            if (afterBatch != null) {
+                afterBatch.run();
+            }
+        }
+        final double[] samples = new double[BATCHES];
+        for (int i = 0; i < BATCHES; i++) {
+            samples[i] = (double) runBatch(threads, operations, body) / threads / operations;
+            if (afterBatch != null) {
+                afterBatch.run();
+            }
+        }
+        Arrays.sort(samples);
+        final double median = samples[BATCHES / 2];
+        Log.i(TAG, String.format(Locale.US, "%s: %.1f ns/op (min %.1f, max %.1f)",
+                name, median, samples[0], samples[BATCHES - 1]));
+        return median;
+    }
+
+    /**
+     * Log how many times faster the candidate is than the baseline.
+     */
+    static void compare(@NonNull String name, double baselineNanos, double candidateNanos) {
+        Log.i(TAG, String.format(Locale.US, "%s: %.2fx", name, baselineNanos / candidateNanos));
+    }
+
+    /**
+     * @return The nanoseconds the threads spent in the body, summed.
+     */
+    private static long runBatch(int threads, final int operations, @NonNull final Body body)
+            throws Exception {
+        if (threads == 1) {
+            final long start = System.nanoTime();
+            final long result = body.run(operations);
+            final long elapsed = System.nanoTime() - start;
+            sSink += result;
+            return elapsed;
+        }
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final long[] elapsed = new long[threads];
+        final Exception[] errors = new Exception[threads];
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                        final long start = System.nanoTime();
+                        final long result = body.run(operations);
+                        elapsed[index] = System.nanoTime() - start;
+                        sSink += result;
+                    } catch (Exception e) {
+                        errors[index] = e;
+                    }
+                }
+            }, TAG + "-" + t);
+            workers[t].start();
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            if (errors[t] != null) {
+                throw errors[t];
+            }
+            total += elapsed[t];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,90 @@
+package org.ligboy.android.utils;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Reads of the {@link CoarseClock} against direct system clock calls, on one thread and with
+ * several threads reading at once.
+ */
+public class CoarseClockBenchmark extends AndroidTestCase {
+
+    private static final int OPERATIONS = 100000;
+    private static final int THREADS = 4;
+    private static final long RESOLUTION_MILLIS = 1;
+
+    private static final Benchmark.Body SYSTEM_WALL = new Benchmark.Body() {
+        @Override
+        public long run(int operations) {
+            long sum = 0;
+            for (int i = 0; i < operations; i++) {
+                sum += System.currentTimeMillis();
+            }
+            return sum;
+        }
+    };
+
+    private static final Benchmark.Body COARSE_WALL = new Benchmark.Body() {
+        @Override
+        public long run(int operations) {
+            long sum = 0;
+            for (int i = 0; i < operations; i++) {
+                sum += CoarseClock.currentTimeMillis();
+            }
+            return sum;
+        }
+    };
+
+    private static final Benchmark.Body SYSTEM_MONOTONIC = new Benchmark.Body() {
+        @Override
+        public long run(int operations) {
+            long sum = 0;
+            for (int i = 0; i < operations; i++) {
+                sum += System.nanoTime();
+            }
+            return sum;
+        }
+    };
+
+    private static final Benchmark.Body COARSE_MONOTONIC = new Benchmark.Body() {
+        @Override
+        public long run(int operations) {
+            long sum = 0;
+            for (int i = 0; i < operations; i++) {
+                sum += CoarseClock.nanoTime();
+            }
+            return sum;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CoarseClock.start(RESOLUTION_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CoarseClock.stop();
+        super.tearDown();
+    }
+
+    public void testWallClock() throws Exception {
+        compare("currentTimeMillis", 1, SYSTEM_WALL, COARSE_WALL);
+        compare("currentTimeMillis", THREADS, SYSTEM_WALL, COARSE_WALL);
+    }
+
+    public void testMonotonicClock() throws Exception {
+        compare("nanoTime", 1, SYSTEM_MONOTONIC, COARSE_MONOTONIC);
+        compare("nanoTime", THREADS, SYSTEM_MONOTONIC, COARSE_MONOTONIC);
+    }
+
+    private static void compare(String name, int threads, Benchmark.Body system,
+                                Benchmark.Body coarse) throws Exception {
+        final String suffix = ", " + threads + (threads == 1 ? " thread" : " threads");
+        final double direct = Benchmark.measure("System." + name + suffix,
+                threads, OPERATIONS, system, null);
+        final double cached = Benchmark.measure("CoarseClock." + name + suffix,
+                threads, OPERATIONS, coarse, null);
+        Benchmark.compare("CoarseClock." + name + " over System" + suffix, direct, cached);
+    }
+}
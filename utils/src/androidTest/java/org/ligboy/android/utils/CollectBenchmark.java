@@ -0,0 +1,244 @@
+package org.ligboy.android.utils;
+
+import android.test.AndroidTestCase;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import org.ligboy.android.utils.collect.IntIntMap;
+import org.ligboy.android.utils.collect.IntObjectMap;
+import org.ligboy.android.utils.collect.LongObjectMap;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Lookups in the maps of {@link org.ligboy.android.utils.collect} against {@link HashMap} and
+ * {@link SparseArray}, from 10<sup>2</sup> to 10<sup>6</sup> entries.
+ * <p>Every table is built in its own method and dropped after it is measured, so the largest
+ * size fits the default heap.</p>
+ */
+public class CollectBenchmark extends AndroidTestCase {
+
+    private static final int[] SIZES = {100, 1000, 10000, 100000, 1000000};
+    private static final int LOOKUPS = 100000;
+    /**
+     * Spreads the keys, which are added in ascending order so a sparse array appends.
+     */
+    private static final int KEY_STRIDE = 1021;
+    private static final Object VALUE = new Object();
+
+    public void testIntToInt() throws Exception {
+        for (int size : SIZES) {
+            final int[] probes = probes(size);
+            final String suffix = " get, " + size + " entries";
+            final double primitive = measureIntIntMap("IntIntMap" + suffix, size, probes);
+            final double sparse = measureSparseIntArray("SparseIntArray" + suffix, size, probes);
+            final double boxed = measureIntegerHashMap("HashMap<Integer, Integer>" + suffix,
+                    size, probes);
+            Benchmark.compare("IntIntMap over SparseIntArray, " + size, sparse, primitive);
+            Benchmark.compare("IntIntMap over HashMap, " + size, boxed, primitive);
+        }
+    }
+
+    public void testIntToObject() throws Exception {
+        for (int size : SIZES) {
+            final int[] probes = probes(size);
+            final String suffix = " get, " + size + " entries";
+            final double primitive = measureIntObjectMap("IntObjectMap" + suffix, size, probes);
+            final double sparse = measureSparseArray("SparseArray" + suffix, size, probes);
+            final double boxed = measureObjectHashMap("HashMap<Integer, Object>" + suffix,
+                    size, probes);
+            Benchmark.compare("IntObjectMap over SparseArray, " + size, sparse, primitive);
+            Benchmark.compare("IntObjectMap over HashMap, " + size, boxed, primitive);
+        }
+    }
+
+    public void testLongToObject() throws Exception {
+        for (int size : SIZES) {
+            final int[] probes = probes(size);
+            final String suffix = " get, " + size + " entries";
+            final double primitive = measureLongObjectMap("LongObjectMap" + suffix, size,
+                    probes);
+            final double boxed = measureLongHashMap("HashMap<Long, Object>" + suffix,
+                    size, probes);
+            Benchmark.compare("LongObjectMap over HashMap, " + size, boxed, primitive);
+        }
+    }
+
+    private static double measureIntIntMap(String name, int size, final int[] probes)
+            throws Exception {
+        final IntIntMap map = new IntIntMap(size);
+        for (int i = 0; i < size; i++) {
+            map.put(key(i), i);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long sum = 0;
+                for (int i = 0; i < operations; i++) {
+                    sum += map.get(probes[i], -1);
+                }
+                return sum;
+            }
+        });
+    }
+
+    private static double measureSparseIntArray(String name, int size, final int[] probes)
+            throws Exception {
+        final SparseIntArray array = new SparseIntArray(size);
+        for (int i = 0; i < size; i++) {
+            array.put(key(i), i);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long sum = 0;
+                for (int i = 0; i < operations; i++) {
+                    sum += array.get(probes[i], -1);
+                }
+                return sum;
+            }
+        });
+    }
+
+    private static double measureIntegerHashMap(String name, int size, final int[] probes)
+            throws Exception {
+        final HashMap<Integer, Integer> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(key(i), i);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long sum = 0;
+                for (int i = 0; i < operations; i++) {
+                    sum += map.get(probes[i]);
+                }
+                return sum;
+            }
+        });
+    }
+
+    private static double measureIntObjectMap(String name, int size, final int[] probes)
+            throws Exception {
+        final IntObjectMap<Object> map = new IntObjectMap<>(size);
+        for (int i = 0; i < size; i++) {
+            map.put(key(i), VALUE);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long found = 0;
+                for (int i = 0; i < operations; i++) {
+                    if (map.get(probes[i]) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
+    private static double measureSparseArray(String name, int size, final int[] probes)
+            throws Exception {
+        final SparseArray<Object> array = new SparseArray<>(size);
+        for (int i = 0; i < size; i++) {
+            array.put(key(i), VALUE);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long found = 0;
+                for (int i = 0; i < operations; i++) {
+                    if (array.get(probes[i]) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
+    private static double measureObjectHashMap(String name, int size, final int[] probes)
+            throws Exception {
+        final HashMap<Integer, Object> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(key(i), VALUE);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long found = 0;
+                for (int i = 0; i < operations; i++) {
+                    if (map.get(probes[i]) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
+    private static double measureLongObjectMap(String name, int size, final int[] probes)
+            throws Exception {
+        final LongObjectMap<Object> map = new LongObjectMap<>(size);
+        for (int i = 0; i < size; i++) {
+            map.put(longKey(key(i)), VALUE);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long found = 0;
+                for (int i = 0; i < operations; i++) {
+                    if (map.get(longKey(probes[i])) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
+    private static double measureLongHashMap(String name, int size, final int[] probes)
+            throws Exception {
+        final HashMap<Long, Object> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(longKey(key(i)), VALUE);
+        }
+        return Benchmark.measure(name, LOOKUPS, new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                long found = 0;
+                for (int i = 0; i < operations; i++) {
+                    if (map.get(longKey(probes[i])) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
+    private static int key(int index) {
+        return index * KEY_STRIDE;
+    }
+
+    /**
+     * @return The long key of an entry, using the high word as well.
+     */
+    private static long longKey(int intKey) {
+        return ((long) intKey << 20) ^ intKey;
+    }
+
+    /**
+     * @return The keys of random entries, to look up in that order.
+     */
+    private static int[] probes(int size) {
+        final Random random = new Random(size);
+        final int[] probes = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            probes[i] = key(random.nextInt(size));
+        }
+        return probes;
+    }
+}
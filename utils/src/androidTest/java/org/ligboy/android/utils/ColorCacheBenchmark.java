@@ -0,0 +1,85 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.test.AndroidTestCase;
+
+/**
+ * The cached color lookups of {@link ResourcesUtil} against calling {@link Resources} directly.
+ */
+@SuppressWarnings("deprecation")
+public class ColorCacheBenchmark extends AndroidTestCase {
+
+    private static final int OPERATIONS = 10000;
+    private static final int[] COLORS = {
+            android.R.color.black,
+            android.R.color.white,
+            android.R.color.darker_gray,
+            android.R.color.background_dark,
+            android.R.color.background_light,
+    };
+    private static final int[] COLOR_STATE_LISTS = {
+            android.R.color.primary_text_dark,
+            android.R.color.secondary_text_dark,
+            android.R.color.primary_text_light,
+            android.R.color.tab_indicator_text,
+    };
+
+    public void testColor() throws Exception {
+        final Resources res = getContext().getResources();
+        final double direct = Benchmark.measure("Resources.getColor", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long sum = 0;
+                        for (int i = 0; i < operations; i++) {
+                            sum += res.getColor(COLORS[i % COLORS.length]);
+                        }
+                        return sum;
+                    }
+                });
+        final double cached = Benchmark.measure("ResourcesUtil.getColor", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long sum = 0;
+                        for (int i = 0; i < operations; i++) {
+                            sum += ResourcesUtil.getColor(res, COLORS[i % COLORS.length], null);
+                        }
+                        return sum;
+                    }
+                });
+        Benchmark.compare("ResourcesUtil.getColor over Resources", direct, cached);
+    }
+
+    public void testColorStateList() throws Exception {
+        final Context context = getContext();
+        final Resources res = context.getResources();
+        final int count = COLOR_STATE_LISTS.length;
+        final double direct = Benchmark.measure("Resources.getColorStateList", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long sum = 0;
+                        for (int i = 0; i < operations; i++) {
+                            sum += res.getColorStateList(COLOR_STATE_LISTS[i % count])
+                                    .getDefaultColor();
+                        }
+                        return sum;
+                    }
+                });
+        final double cached = Benchmark.measure("ResourcesUtil.getColorStateList", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long sum = 0;
+                        for (int i = 0; i < operations; i++) {
+                            sum += ResourcesUtil.getColorStateList(context,
+                                    COLOR_STATE_LISTS[i % count], null).getDefaultColor();
+                        }
+                        return sum;
+                    }
+                });
+        Benchmark.compare("ResourcesUtil.getColorStateList over Resources", direct, cached);
+    }
+}
@@ -0,0 +1,159 @@
+package org.ligboy.android.utils;
+
+import android.test.AndroidTestCase;
+import android.util.DisplayMetrics;
+
+/**
+ * Per-element conversions of {@link DisplayMetricsUtil} against the bulk overloads and the
+ * {@link DisplayMetricsUtil.DipTable}.
+ */
+public class DisplayMetricsBenchmark extends AndroidTestCase {
+
+    /**
+     * The points of one frame of a chart.
+     */
+    private static final int POINTS = 4096;
+    private static final int OPERATIONS = 100;
+    private static final int MAX_DIP = 512;
+    private static final String SUFFIX = ", " + POINTS + " points";
+
+    private DisplayMetrics mDisplayMetrics;
+    private float[] mDips;
+    private int[] mIntDips;
+    private int[] mPixels;
+    private float[] mFloatDips;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDisplayMetrics = getContext().getResources().getDisplayMetrics();
+        mDips = new float[POINTS];
+        mIntDips = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            mDips[i] = i * 0.37f;
+            mIntDips[i] = i % (MAX_DIP + 1);
+        }
+        mPixels = new int[POINTS];
+        mFloatDips = new float[POINTS];
+    }
+
+    public void testDip2Pixel() throws Exception {
+        final DisplayMetrics metrics = mDisplayMetrics;
+        final float[] dips = mDips;
+        final int[] pixels = mPixels;
+        final double single = Benchmark.measure("dip2Pixel per element" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            for (int i = 0; i < POINTS; i++) {
+                                pixels[i] = DisplayMetricsUtil.dip2Pixel(metrics, dips[i]);
+                            }
+                        }
+                        return pixels[operations % POINTS];
+                    }
+                });
+        final double bulk = Benchmark.measure("dip2Pixel bulk" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            DisplayMetricsUtil.dip2Pixel(metrics, dips, 0, pixels, 0, POINTS);
+                        }
+                        return pixels[operations % POINTS];
+                    }
+                });
+        Benchmark.compare("dip2Pixel bulk over per element", single, bulk);
+    }
+
+    public void testDip2PixelOffset() throws Exception {
+        final DisplayMetrics metrics = mDisplayMetrics;
+        final float[] dips = mDips;
+        final int[] pixels = mPixels;
+        final double single = Benchmark.measure("dip2PixelOffset per element" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            for (int i = 0; i < POINTS; i++) {
+                                pixels[i] = DisplayMetricsUtil.dip2PixelOffset(metrics, dips[i]);
+                            }
+                        }
+                        return pixels[operations % POINTS];
+                    }
+                });
+        final double bulk = Benchmark.measure("dip2PixelOffset bulk" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            DisplayMetricsUtil.dip2PixelOffset(metrics, dips, 0, pixels, 0,
+                                    POINTS);
+                        }
+                        return pixels[operations % POINTS];
+                    }
+                });
+        Benchmark.compare("dip2PixelOffset bulk over per element", single, bulk);
+    }
+
+    public void testPixel2Dip() throws Exception {
+        final DisplayMetrics metrics = mDisplayMetrics;
+        final int[] pixels = mIntDips;
+        final float[] dips = mFloatDips;
+        final double single = Benchmark.measure("pixel2Dip per element" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            for (int i = 0; i < POINTS; i++) {
+                                dips[i] = DisplayMetricsUtil.pixel2Dip(metrics, pixels[i]);
+                            }
+                        }
+                        return (long) dips[operations % POINTS];
+                    }
+                });
+        final double bulk = Benchmark.measure("pixel2Dip bulk" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            DisplayMetricsUtil.pixel2Dip(metrics, pixels, 0, dips, 0, POINTS);
+                        }
+                        return (long) dips[operations % POINTS];
+                    }
+                });
+        Benchmark.compare("pixel2Dip bulk over per element", single, bulk);
+    }
+
+    public void testDipTable() throws Exception {
+        final DisplayMetrics metrics = mDisplayMetrics;
+        final int[] intDips = mIntDips;
+        final int[] pixels = mPixels;
+        final DisplayMetricsUtil.DipTable table = DisplayMetricsUtil.getDipTable(metrics, MAX_DIP);
+        final double single = Benchmark.measure("dip2Pixel of int dips" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            for (int i = 0; i < POINTS; i++) {
+                                pixels[i] = DisplayMetricsUtil.dip2Pixel(metrics, intDips[i]);
+                            }
+                        }
+                        return pixels[operations % POINTS];
+                    }
+                });
+        final double lookup = Benchmark.measure("DipTable.dip2Pixel" + SUFFIX,
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int op = 0; op < operations; op++) {
+                            for (int i = 0; i < POINTS; i++) {
+                                pixels[i] = table.dip2Pixel(intDips[i]);
+                            }
+                        }
+                        return pixels[operations % POINTS];
+                    }
+                });
+        Benchmark.compare("DipTable over dip2Pixel", single, lookup);
+    }
+}
@@ -0,0 +1,96 @@
+package org.ligboy.android.utils;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * CPU cost of one record: formatting it and writing it to logcat, as {@link LogUtil} did before
+ * the file sink, against the text and the binary encoding of {@link LogFileSink}.
+ */
+public class LogFileSinkBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "LogFileSinkBenchmark";
+    private static final LogTemplate TEMPLATE = LogTemplate.compile("Loaded {} items in {} ms");
+    private static final int OPERATIONS = 10000;
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_SEGMENTS = 4;
+
+    private File mDirectory;
+    private LogFileSink mTextSink;
+    private LogFileSink mBinarySink;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), TAG);
+        mTextSink = LogFileSink.open(new File(mDirectory, "text"), SEGMENT_SIZE, MAX_SEGMENTS);
+        mBinarySink = LogFileSink.open(new File(mDirectory, "binary"), SEGMENT_SIZE,
+                MAX_SEGMENTS, LogFileSink.ENCODING_BINARY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTextSink.close();
+        mBinarySink.close();
+        deleteRecursively(mDirectory);
+        super.tearDown();
+    }
+
+    public void testRecord() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        final double logcat = Benchmark.measure("format and Log.d", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int i = 0; i < operations; i++) {
+                            builder.setLength(0);
+                            TEMPLATE.appendTo(builder, 2, i, i & 0xFF, 0, 0);
+                            Log.d(TAG, builder.toString());
+                        }
+                        return builder.length();
+                    }
+                });
+        final LogFileSink textSink = mTextSink;
+        final double text = Benchmark.measure("format and text sink", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int i = 0; i < operations; i++) {
+                            builder.setLength(0);
+                            TEMPLATE.appendTo(builder, 2, i, i & 0xFF, 0, 0);
+                            textSink.append(System.currentTimeMillis(), Log.DEBUG, TAG,
+                                    builder.toString());
+                        }
+                        return builder.length();
+                    }
+                });
+        final LogFileSink binarySink = mBinarySink;
+        final double binary = Benchmark.measure("binary sink", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        for (int i = 0; i < operations; i++) {
+                            binarySink.append(System.currentTimeMillis(), Log.DEBUG, TAG,
+                                    TEMPLATE, 2, i, i & 0xFF, 0, 0);
+                        }
+                        return operations;
+                    }
+                });
+        Benchmark.compare("text sink over Log.d", logcat, text);
+        Benchmark.compare("binary sink over Log.d", logcat, binary);
+        Benchmark.compare("binary sink over text sink", text, binary);
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,54 @@
+package org.ligboy.android.utils;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Caller-side latency of {@link LogUtil} in asynchronous and synchronous mode, with several
+ * threads logging at once.
+ * <p>Initializes {@link LogUtil} for the process, so run it on its own.</p>
+ */
+public class LogUtilBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "LogUtilBenchmark";
+    private static final LogTemplate TEMPLATE = LogTemplate.compile("Record {} of thread {}");
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 1000;
+    /**
+     * Holds every record of a batch, so the callers never wait for the background thread.
+     */
+    private static final int CAPACITY = 8192;
+
+    public void testCallerLatencyUnderLoad() throws Exception {
+        LogUtil.initialize(true, null, CAPACITY, LogUtil.OVERFLOW_BLOCK);
+        LogUtil.setLevel(Log.VERBOSE);
+        final Benchmark.Body body = new Benchmark.Body() {
+            @Override
+            public long run(int operations) {
+                final long thread = Thread.currentThread().getId();
+                for (int i = 0; i < operations; i++) {
+                    LogUtil.d(TAG, TEMPLATE, i, thread);
+                }
+                return operations;
+            }
+        };
+        final Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                LogUtil.flush();
+            }
+        };
+        try {
+            final double async = Benchmark.measure("LogUtil.d async, " + THREADS + " threads",
+                    THREADS, OPERATIONS, body, flush);
+            // Records logged after shutdown are written on the calling thread
+            LogUtil.shutdown();
+            final double sync = Benchmark.measure("LogUtil.d sync, " + THREADS + " threads",
+                    THREADS, OPERATIONS, body, null);
+            Benchmark.compare("LogUtil.d async over sync", sync, async);
+        } finally {
+            LogUtil.shutdown();
+            LogUtil.setLevel(LogUtil.OFF);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.view.ContextThemeWrapper;
+
+/**
+ * Warmed-up attributes are hits for the lookups of an activity, which has its own theme.
+ */
+public class ResourceWarmUpTest extends AndroidTestCase {
+
+    private static final int ATTRIBUTE = android.R.attr.colorBackground;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final Metrics.Counter MISSES = Metrics.counter("resources.attribute.misses");
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Metrics.setEnabled(true);
+        ResourcesUtil.clearAttributeCache();
+        ResourceWarmUp.clearRecorded(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ResourceWarmUp.clearRecorded(getContext());
+        ResourcesUtil.clearAttributeCache();
+        Metrics.setEnabled(false);
+        super.tearDown();
+    }
+
+    public void testWarmedAttributeHitsFromTheActivityTheme() throws Exception {
+        final Context activity = newActivity();
+        ResourceWarmUp.warmUp(activity, null, new int[]{ResourceWarmUp.TYPE_ATTRIBUTE_COLOR},
+                new int[]{ATTRIBUTE});
+        assertTrue(ResourceWarmUp.awaitIdle(TIMEOUT_MILLIS));
+        final long misses = MISSES.get();
+        ResourcesUtil.getAttributeColor(activity, ATTRIBUTE, 0, null);
+        assertEquals(misses, MISSES.get());
+        // The application's theme is another key, a warm-up from the application misses
+        ResourcesUtil.getAttributeColor(getContext(), ATTRIBUTE, 0, null);
+        assertEquals(misses + 1, MISSES.get());
+    }
+
+    public void testRecordedAttributeHitsFromTheNextActivity() throws Exception {
+        ResourceWarmUp.startRecording();
+        final Context recorded = newActivity();
+        ResourcesUtil.getAttributeColor(recorded, ATTRIBUTE, 0, null);
+        // Looked up from the application's theme, a warm-up of the activity can't fill it
+        ResourcesUtil.getAttributeColor(getContext(), android.R.attr.colorForeground, 0, null);
+        assertEquals(1, ResourceWarmUp.stopRecording(recorded));
+        assertTrue(ResourceWarmUp.awaitIdle(TIMEOUT_MILLIS));
+        ResourcesUtil.clearAttributeCache();
+
+        // A new instance of the same activity class has a new theme
+        final Context activity = newActivity();
+        ResourceWarmUp.warmUpRecorded(activity);
+        assertTrue(ResourceWarmUp.awaitIdle(TIMEOUT_MILLIS));
+        final long misses = MISSES.get();
+        ResourcesUtil.getAttributeColor(activity, ATTRIBUTE, 0, null);
+        assertEquals(misses, MISSES.get());
+    }
+
+    /**
+     * @return A stand-in for an activity: a context with its own theme, unlike the application's.
+     */
+    private Context newActivity() {
+        return new ContextThemeWrapper(getContext(), android.R.style.Theme_Black);
+    }
+}
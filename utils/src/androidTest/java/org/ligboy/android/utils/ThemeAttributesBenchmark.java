@@ -0,0 +1,85 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.content.res.Resources.Theme;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+/**
+ * Resolving several theme attributes with one {@link TypedArray} per attribute against one
+ * {@link TypedArray} for the batch.
+ */
+public class ThemeAttributesBenchmark extends AndroidTestCase {
+
+    private static final int OPERATIONS = 1000;
+    private static final int[] COLOR_ATTRS = {
+            android.R.attr.colorForeground,
+            android.R.attr.colorBackground,
+            android.R.attr.textColorPrimary,
+            android.R.attr.textColorSecondary,
+            android.R.attr.textColorTertiary,
+            android.R.attr.textColorHint,
+            android.R.attr.textColorHighlight,
+            android.R.attr.textColorLink,
+    };
+
+    public void testColors() throws Exception {
+        final Context context = getContext();
+        final Theme theme = context.getTheme();
+        final int count = COLOR_ATTRS.length;
+        final int[][] singleAttrs = new int[count][];
+        for (int i = 0; i < count; i++) {
+            singleAttrs[i] = new int[]{COLOR_ATTRS[i]};
+        }
+        final double single = Benchmark.measure(count + " colors, one TypedArray each",
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long sum = 0;
+                        for (int op = 0; op < operations; op++) {
+                            for (int[] attrs : singleAttrs) {
+                                final TypedArray ta = theme.obtainStyledAttributes(attrs);
+                                sum += ta.getColor(0, Color.BLACK);
+                                ta.recycle();
+                            }
+                        }
+                        return sum;
+                    }
+                });
+        final int[] defaultColors = new int[count];
+        final int[] colors = new int[count];
+        final double batch = Benchmark.measure(count + " colors, getAttributeColors",
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long sum = 0;
+                        for (int op = 0; op < operations; op++) {
+                            ResourcesUtil.getAttributeColors(context, COLOR_ATTRS, defaultColors,
+                                    colors, theme);
+                            sum += colors[op % count];
+                        }
+                        return sum;
+                    }
+                });
+        final int[] types = new int[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = ThemeAttributes.TYPE_COLOR;
+        }
+        final ThemeAttributes attributes = new ThemeAttributes(COLOR_ATTRS, types);
+        final double reused = Benchmark.measure(count + " colors, ThemeAttributes",
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long sum = 0;
+                        for (int op = 0; op < operations; op++) {
+                            attributes.resolve(context, theme);
+                            sum += attributes.getColor(op % count, Color.BLACK);
+                        }
+                        return sum;
+                    }
+                });
+        Benchmark.compare("getAttributeColors over single passes", single, batch);
+        Benchmark.compare("ThemeAttributes over single passes", single, reused);
+    }
+}
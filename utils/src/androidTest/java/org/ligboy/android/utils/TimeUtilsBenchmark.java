@@ -0,0 +1,114 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+/**
+ * {@link TimeUtils#formatDuration} with cached plural templates against the previous
+ * implementation, which looked up every plural string on every call.
+ */
+public class TimeUtilsBenchmark extends AndroidTestCase {
+
+    private static final int OPERATIONS = 2000;
+    /**
+     * Has days, hours, minutes and seconds, so every plural is used.
+     */
+    private static final long BASE_DURATION = 3 * DateUtils.DAY_IN_MILLIS
+            + 4 * DateUtils.HOUR_IN_MILLIS + 5 * DateUtils.MINUTE_IN_MILLIS;
+
+    public void testFormatDuration() throws Exception {
+        final Context context = getContext();
+        final double lookup = Benchmark.measure("formatDuration, resource lookups", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long length = 0;
+                        for (int i = 0; i < operations; i++) {
+                            length += formatDurationUncached(context, duration(i)).length();
+                        }
+                        return length;
+                    }
+                });
+        final double cached = Benchmark.measure("formatDuration, cached", OPERATIONS,
+                new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long length = 0;
+                        for (int i = 0; i < operations; i++) {
+                            length += TimeUtils.formatDuration(context, duration(i)).length();
+                        }
+                        return length;
+                    }
+                });
+        final StringBuilder text = new StringBuilder();
+        final double reused = Benchmark.measure("formatDuration, cached into a builder",
+                OPERATIONS, new Benchmark.Body() {
+                    @Override
+                    public long run(int operations) {
+                        long length = 0;
+                        for (int i = 0; i < operations; i++) {
+                            text.setLength(0);
+                            length += TimeUtils.formatDuration(context, duration(i), text)
+                                    .length();
+                        }
+                        return length;
+                    }
+                });
+        Benchmark.compare("formatDuration cached over lookups", lookup, cached);
+        Benchmark.compare("formatDuration into a builder over lookups", lookup, reused);
+    }
+
+    private static long duration(int i) {
+        return BASE_DURATION + i * DateUtils.SECOND_IN_MILLIS;
+    }
+
+    /**
+     * The implementation before the plural templates were cached.
+     */
+    private static String formatDurationUncached(Context context, long durationMills) {
+        final Resources res = context.getResources();
+        final StringBuilder text = new StringBuilder();
+        if (durationMills < 0) {
+            durationMills = -durationMills;
+        }
+        int day = 0;
+        int hour = 0;
+        int minute = 0;
+        int second;
+        if (durationMills >= DateUtils.DAY_IN_MILLIS) {
+            day = (int) (durationMills / DateUtils.DAY_IN_MILLIS);
+            durationMills -= day * DateUtils.DAY_IN_MILLIS;
+        }
+        if (durationMills >= DateUtils.HOUR_IN_MILLIS) {
+            hour = (int) (durationMills / DateUtils.HOUR_IN_MILLIS);
+            durationMills -= hour * DateUtils.HOUR_IN_MILLIS;
+        }
+        if (durationMills >= DateUtils.MINUTE_IN_MILLIS) {
+            minute = (int) (durationMills / DateUtils.MINUTE_IN_MILLIS);
+            durationMills -= minute * DateUtils.MINUTE_IN_MILLIS;
+        }
+        second = (int) (durationMills / DateUtils.SECOND_IN_MILLIS);
+        if (day > 0) {
+            text.append(res.getQuantityString(R.plurals.duration_days, day, day));
+        }
+        if (hour > 0) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(res.getQuantityString(R.plurals.duration_hours, hour, hour));
+        }
+        if (minute > 0) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(res.getQuantityString(R.plurals.duration_minutes, minute, minute));
+        }
+        if (text.length() > 0) {
+            text.append(' ');
+        }
+        text.append(res.getQuantityString(R.plurals.duration_seconds, second, second));
+        return text.toString();
+    }
+}
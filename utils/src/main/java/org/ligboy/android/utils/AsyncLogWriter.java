@@ -0,0 +1,360 @@
+package org.ligboy.android.utils;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous backend of {@link LogUtil}.
+ * <p>Records are pushed into a preallocated lock-free multi-producer ring buffer and drained,
+ * formatted and written in batches by a single background thread.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+final class AsyncLogWriter implements Runnable {
+
+    private static final String THREAD_NAME = "LogUtil-async";
+    private static final int BATCH_SIZE = 64;
+    private static final long IDLE_PARK_NANOS = 100000000L;
+    private static final long BLOCK_PARK_NANOS = 50000L;
+    private static final long FLUSH_PARK_NANOS = 100000L;
+
+    private static final long CLAIM_DROPPED = -1;
+    private static final long CLAIM_CLOSED = -2;
+    /**
+     * Set in {@link #mTail} by {@link #shutdown()}, so no slot can be claimed afterwards.
+     */
+    private static final long TAIL_CLOSED = 1L << 62;
+
+    private static final Metrics.Counter DROPPED = Metrics.counter("log.dropped");
+
+    private static final int KIND_MESSAGES = 0;
+    private static final int KIND_LONG_ARGS = 1;
+    private static final int KIND_OBJECT_ARGS = 2;
+
+    /**
+     * The maximum number of template arguments per record.
+     */
+    static final int MAX_ARGS = 4;
+
+    private final int mMask;
+    private final int mOverflowPolicy;
+
+    /**
+     * Slot sequence numbers. A slot at position {@code pos} is free for producers when its
+     * sequence equals {@code pos} and readable by the writer when it equals {@code pos + 1}.
+     */
+    private final AtomicLongArray mSequences;
+    private final long[] mTimes;
+    private final int[] mPriorities;
+    private final String[] mTags;
+    private final Throwable[] mThrowables;
+    private final Object[][] mMessages;
+    private final int[] mKinds;
+    private final LogTemplate[] mTemplates;
+    private final int[] mArgCounts;
+    private final long[] mLongArgs;
+    private final Object[] mObjectArgs;
+
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile long mHead;
+    private volatile boolean mRunning = true;
+    private volatile boolean mParked;
+
+    private final Thread mThread;
+
+    /**
+     * @param capacity The capacity of the ring buffer, rounded up to a power of two.
+     * @param overflowPolicy What to do when the ring buffer is full.
+     */
+    AsyncLogWriter(int capacity, @LogUtil.OverflowPolicy int overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mOverflowPolicy = overflowPolicy;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mTimes = new long[size];
+        mPriorities = new int[size];
+        mTags = new String[size];
+        mThrowables = new Throwable[size];
+        mMessages = new Object[size][];
+        mKinds = new int[size];
+        mTemplates = new LogTemplate[size];
+        mArgCounts = new int[size];
+        mLongArgs = new long[size * MAX_ARGS];
+        mObjectArgs = new Object[size * MAX_ARGS];
+        mThread = new Thread(this, THREAD_NAME);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Push a multi-part record into the ring buffer.
+     * <p>Under the {@link LogUtil#OVERFLOW_DROP} policy a record that does not fit is counted
+     * and discarded.</p>
+     * @return false if the writer has been shut down and the caller should write the record
+     * itself.
+     */
+    boolean offer(int priority, @Nullable String tag, @Nullable Throwable throwable,
+                  @Nullable Object[] messages) {
+        final long position = claim();
+        if (position < 0) {
+            return position == CLAIM_DROPPED;
+        }
+        final int index = (int) position & mMask;
+        fill(index, priority, tag, throwable, KIND_MESSAGES);
+        mMessages[index] = messages;
+        publish(index, position);
+        return true;
+    }
+
+    /**
+     * Push a template record with primitive arguments into the ring buffer without allocating.
+     * @see #offer(int, String, Throwable, Object[])
+     */
+    boolean offer(int priority, @Nullable String tag, @Nullable Throwable throwable,
+                  @NonNull LogTemplate template, int argCount,
+                  long arg0, long arg1, long arg2, long arg3) {
+        final long position = claim();
+        if (position < 0) {
+            return position == CLAIM_DROPPED;
+        }
+        final int index = (int) position & mMask;
+        fill(index, priority, tag, throwable, KIND_LONG_ARGS);
+        mTemplates[index] = template;
+        mArgCounts[index] = argCount;
+        final int argIndex = index * MAX_ARGS;
+        mLongArgs[argIndex] = arg0;
+        mLongArgs[argIndex + 1] = arg1;
+        mLongArgs[argIndex + 2] = arg2;
+        mLongArgs[argIndex + 3] = arg3;
+        publish(index, position);
+        return true;
+    }
+
+    /**
+     * Push a template record into the ring buffer without allocating.
+     * @see #offer(int, String, Throwable, Object[])
+     */
+    boolean offer(int priority, @Nullable String tag, @Nullable Throwable throwable,
+                  @NonNull LogTemplate template, int argCount,
+                  Object arg0, Object arg1, Object arg2, Object arg3) {
+        final long position = claim();
+        if (position < 0) {
+            return position == CLAIM_DROPPED;
+        }
+        final int index = (int) position & mMask;
+        fill(index, priority, tag, throwable, KIND_OBJECT_ARGS);
+        mTemplates[index] = template;
+        mArgCounts[index] = argCount;
+        final int argIndex = index * MAX_ARGS;
+        mObjectArgs[argIndex] = arg0;
+        mObjectArgs[argIndex + 1] = arg1;
+        mObjectArgs[argIndex + 2] = arg2;
+        mObjectArgs[argIndex + 3] = arg3;
+        publish(index, position);
+        return true;
+    }
+
+    /**
+     * Claim the next free slot.
+     * @return The position of the claimed slot, {@link #CLAIM_DROPPED} or {@link #CLAIM_CLOSED}.
+     */
+    private long claim() {
+        for (; ; ) {
+            final long position = mTail.get();
+            if ((position & TAIL_CLOSED) != 0) {
+                return CLAIM_CLOSED;
+            }
+            final long delta = mSequences.get((int) position & mMask) - position;
+            if (delta == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (delta < 0) {
+                // The buffer is full. The writer thread must never wait on itself.
+                if (mOverflowPolicy == LogUtil.OVERFLOW_BLOCK
+                        && Thread.currentThread() != mThread) {
+                    LockSupport.unpark(mThread);
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                } else {
+                    mDropped.incrementAndGet();
+                    DROPPED.increment();
+                    return CLAIM_DROPPED;
+                }
+            }
+        }
+    }
+
+    private void fill(int index, int priority, @Nullable String tag,
+                      @Nullable Throwable throwable, int kind) {
+        mTimes[index] = CoarseClock.currentTimeMillis();
+        mPriorities[index] = priority;
+        mTags[index] = tag;
+        mThrowables[index] = throwable;
+        mKinds[index] = kind;
+    }
+
+    private void publish(int index, long position) {
+        mSequences.set(index, position + 1);
+        if (mParked) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Block until every record accepted before this call has been written.
+     */
+    void flush() {
+        if (Thread.currentThread() == mThread) {
+            return;
+        }
+        final long target = mTail.get() & ~TAIL_CLOSED;
+        while (mHead < target && mThread.isAlive()) {
+            LockSupport.unpark(mThread);
+            LockSupport.parkNanos(FLUSH_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Stop accepting records, write the pending ones and stop the background thread.
+     */
+    void shutdown() {
+        for (; ; ) {
+            final long tail = mTail.get();
+            if ((tail & TAIL_CLOSED) != 0 || mTail.compareAndSet(tail, tail | TAIL_CLOSED)) {
+                break;
+            }
+        }
+        // Set after closing the tail, so the writer sees the final tail once it sees this
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        if (Thread.currentThread() == mThread) {
+            return;
+        }
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of records dropped because the buffer was full.
+     */
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        for (; ; ) {
+            if (drain() > 0) {
+                continue;
+            }
+            if (!mRunning) {
+                // Slots claimed before the tail was closed may still be being published
+                final long tail = mTail.get() & ~TAIL_CLOSED;
+                while (mHead < tail) {
+                    if (drain() == 0) {
+                        Thread.yield();
+                    }
+                }
+                break;
+            }
+            mParked = true;
+            if (isEmpty() && mRunning) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            mParked = false;
+        }
+    }
+
+    private boolean isEmpty() {
+        final long head = mHead;
+        return mSequences.get((int) head & mMask) != head + 1;
+    }
+
+    /**
+     * Write one batch of records.
+     * @return The number of records written.
+     */
+    private int drain() {
+        long head = mHead;
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            final int index = (int) head & mMask;
+            if (mSequences.get(index) != head + 1) {
+                break;
+            }
+            try {
+                write(index);
+            } catch (RuntimeException ignored) {
+                // A broken toString() must not kill the writer thread.
+            }
+            clear(index);
+            mSequences.set(index, head + mMask + 1);
+            head++;
+            count++;
+        }
+        if (count > 0) {
+            mHead = head;
+        }
+        return count;
+    }
+
+    private void write(int index) {
+        final int argIndex = index * MAX_ARGS;
+        switch (mKinds[index]) {
+            case KIND_LONG_ARGS:
+                LogUtil.write(mTimes[index], mPriorities[index], mTags[index],
+                        mTemplates[index], mArgCounts[index],
+                        mLongArgs[argIndex], mLongArgs[argIndex + 1],
+                        mLongArgs[argIndex + 2], mLongArgs[argIndex + 3]);
+                break;
+            case KIND_OBJECT_ARGS:
+                LogUtil.write(mTimes[index], mPriorities[index], mTags[index],
+                        mTemplates[index], mArgCounts[index],
+                        mObjectArgs[argIndex], mObjectArgs[argIndex + 1],
+                        mObjectArgs[argIndex + 2], mObjectArgs[argIndex + 3]);
+                break;
+            default:
+                LogUtil.write(mTimes[index], mPriorities[index], mTags[index],
+                        mThrowables[index], mMessages[index]);
+                break;
+        }
+    }
+
+    /**
+     * Drop the references held by a slot so they can be collected.
+     */
+    private void clear(int index) {
+        mTags[index] = null;
+        mThrowables[index] = null;
+        mMessages[index] = null;
+        mTemplates[index] = null;
+        final int argIndex = index * MAX_ARGS;
+        for (int i = 0; i < MAX_ARGS; i++) {
+            mObjectArgs[argIndex + i] = null;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.ligboy.android.utils;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build.VERSION_CODES;
+import android.os.Bundle;
+import android.os.Process;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Coarse cached clock for hot-path timestamps.
+ * <p>While started, a single daemon thread publishes the wall clock and the monotonic clock into
+ * volatile fields every tick, so reading the time is a field read instead of a clock call. The
+ * ticker runs at background priority, so the values usually lag behind the real clocks by up to
+ * one tick, but by more while the scheduler starves it, e.g. under load or in the background. Use
+ * the system clocks for anything that needs a bound on the error. While stopped, reads fall
+ * through to {@link System#currentTimeMillis()} and {@link System#nanoTime()}.</p>
+ * <p>The ticker wakes up every tick, so don't keep it running in the background: either let
+ * {@link #startWhileForeground(Application, long)} tie it to the started activities, or call
+ * {@link #start(long)} and {@link #stop()} yourself.</p>
+ * <pre>
+ * public void onCreate() {
+ *     super.onCreate();
+ *     CoarseClock.startWhileForeground(this, 10);
+ * }
+ * </pre>
+ * <p>{@link LogUtil} stamps its records with this clock.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class CoarseClock {
+
+    private static final String THREAD_NAME = "CoarseClock";
+
+    /**
+     * 0 while stopped.
+     */
+    private static volatile long sWallMillis;
+    /**
+     * 0 while stopped.
+     */
+    private static volatile long sMonotonicNanos;
+    /**
+     * Changed whenever a ticker starts or stops. A ticker only keeps its values published while
+     * it is the current generation.
+     */
+    private static volatile int sGeneration;
+    private static Ticker sTicker;
+    private static ForegroundTracker sTracker;
+
+    private CoarseClock() {
+        throw new IllegalAccessError();
+    }
+
+    /**
+     * Start ticking until {@link #stop()}, or change the resolution when already started.
+     * Stops tracking the foreground.
+     * @param resolutionMillis The tick interval in milliseconds, e.g. 1 or 10.
+     */
+    public static synchronized void start(@IntRange(from = 1) long resolutionMillis) {
+        checkResolution(resolutionMillis);
+        stopTracking();
+        startTicker(resolutionMillis);
+    }
+
+    /**
+     * Tick only while an activity of the application is started, from API 14. Call this in
+     * {@link Application#onCreate()}, before the first activity starts. Below API 14 the clock
+     * ticks until {@link #stop()}.
+     * @param application The application.
+     * @param resolutionMillis The tick interval in milliseconds, e.g. 1 or 10.
+     */
+    public static synchronized void startWhileForeground(
+            @NonNull Application application, @IntRange(from = 1) long resolutionMillis) {
+        checkResolution(resolutionMillis);
+        stopTracking();
+        if (SDK_INT < VERSION_CODES.ICE_CREAM_SANDWICH) {
+            startTicker(resolutionMillis);
+            return;
+        }
+        stopTicker();
+        sTracker = new ForegroundTracker(application, resolutionMillis);
+        application.registerActivityLifecycleCallbacks(sTracker);
+    }
+
+    /**
+     * Stop ticking and tracking the foreground, reads go to the system clocks again.
+     */
+    public static synchronized void stop() {
+        stopTracking();
+        stopTicker();
+    }
+
+    private static void checkResolution(long resolutionMillis) {
+        if (resolutionMillis < 1) {
+            throw new IllegalArgumentException("resolutionMillis must be positive");
+        }
+    }
+
+    private static void stopTracking() {
+        if (sTracker != null) {
+            sTracker.mApplication.unregisterActivityLifecycleCallbacks(sTracker);
+            sTracker = null;
+        }
+    }
+
+    private static void startTicker(long resolutionMillis) {
+        if (sTicker != null) {
+            if (sTicker.mIntervalNanos == TimeUnit.MILLISECONDS.toNanos(resolutionMillis)) {
+                return;
+            }
+            stopTicker();
+        }
+        Ticker ticker = new Ticker(TimeUnit.MILLISECONDS.toNanos(resolutionMillis),
+                ++sGeneration);
+        ticker.tick();
+        sTicker = ticker;
+        ticker.mThread.start();
+    }
+
+    private static void stopTicker() {
+        Ticker ticker = sTicker;
+        if (ticker == null) {
+            return;
+        }
+        sTicker = null;
+        // Don't wait for the thread, it may be starved for long and this runs on the main
+        // thread. A tick racing with this call clears the values itself.
+        sGeneration++;
+        LockSupport.unpark(ticker.mThread);
+        sWallMillis = 0;
+        sMonotonicNanos = 0;
+    }
+
+    /**
+     * @return Whether the clock is ticking.
+     */
+    public static synchronized boolean isStarted() {
+        return sTicker != null;
+    }
+
+    /**
+     * @return The wall clock time in milliseconds, like {@link System#currentTimeMillis()}.
+     */
+    public static long currentTimeMillis() {
+        final long millis = sWallMillis;
+        return millis != 0 ? millis : System.currentTimeMillis();
+    }
+
+    /**
+     * @return The monotonic time in nanoseconds, like {@link System#nanoTime()}. Only the
+     * difference between two values is meaningful.
+     */
+    public static long nanoTime() {
+        final long nanos = sMonotonicNanos;
+        return nanos != 0 ? nanos : System.nanoTime();
+    }
+
+    private static final class Ticker implements Runnable {
+
+        final long mIntervalNanos;
+        final int mGeneration;
+        final Thread mThread;
+
+        Ticker(long intervalNanos, int generation) {
+            mIntervalNanos = intervalNanos;
+            mGeneration = generation;
+            mThread = new Thread(this, THREAD_NAME);
+            mThread.setDaemon(true);
+        }
+
+        boolean isCurrent() {
+            return sGeneration == mGeneration;
+        }
+
+        void tick() {
+            sWallMillis = System.currentTimeMillis();
+            sMonotonicNanos = System.nanoTime();
+            if (!isCurrent()) {
+                // Stopped or replaced while publishing. Zero only makes reads fall through to the
+                // system clocks until the current ticker, if any, ticks again.
+                sWallMillis = 0;
+                sMonotonicNanos = 0;
+            }
+        }
+
+        @Override
+        public void run() {
+            // A late tick only makes the values staler, it must not compete with the UI
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (isCurrent()) {
+                LockSupport.parkNanos(mIntervalNanos);
+                if (isCurrent()) {
+                    tick();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the ticker with the first started activity and stops it with the last.
+     */
+    private static final class ForegroundTracker implements Application.ActivityLifecycleCallbacks {
+
+        final Application mApplication;
+        final long mResolutionMillis;
+        /**
+         * Guarded by {@link CoarseClock}.
+         */
+        private int mStartedCount;
+
+        ForegroundTracker(@NonNull Application application, long resolutionMillis) {
+            mApplication = application;
+            mResolutionMillis = resolutionMillis;
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            synchronized (CoarseClock.class) {
+                if (sTracker == this && mStartedCount++ == 0) {
+                    startTicker(mResolutionMillis);
+                }
+            }
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            synchronized (CoarseClock.class) {
+                if (sTracker == this && mStartedCount > 0 && --mStartedCount == 0) {
+                    stopTicker();
+                }
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.ligboy.android.utils;
+
+import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.Resources.Theme;
+import android.os.Build.VERSION_CODES;
+import android.support.annotation.ColorInt;
+import android.support.annotation.ColorRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.ligboy.android.utils.collect.IntIntMap;
+import org.ligboy.android.utils.collect.IntObjectMap;
+
+import java.util.WeakHashMap;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Colors and color state lists of {@link ResourcesUtil}, by resources, theme identity and
+ * resource ID.
+ * <p>Colors are stored in an {@link IntIntMap}, color state lists in an {@link IntObjectMap}.
+ * Resources and themes are weakly referenced. Themes are ignored before API 23, where colors are
+ * not themed. The values of a resources are dropped when its configuration changes.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+final class ColorCache {
+
+    /**
+     * Marks a missing color. A cached color equal to it is confirmed with a second probe.
+     */
+    private static final int MISSING = 0x00FEEDED;
+    private static final int INITIAL_SIZE = 32;
+
+    private final WeakHashMap<Resources, Entry> mResources = new WeakHashMap<>();
+
+    private static final class Maps {
+        IntIntMap mColors;
+        IntObjectMap<ColorStateList> mColorStateLists;
+    }
+
+    /**
+     * The values of one resources, valid for one configuration.
+     */
+    private static final class Entry {
+        final WeakHashMap<Theme, Maps> mThemes = new WeakHashMap<>();
+        Maps mUnthemed = new Maps();
+        Configuration mConfiguration;
+    }
+
+    @SuppressWarnings("deprecation")
+    @ColorInt
+    int getColor(@NonNull Resources res, @ColorRes int id, @Nullable Theme theme)
+            throws Resources.NotFoundException {
+        synchronized (this) {
+            final Maps maps = maps(res, theme, false);
+            if (maps != null && maps.mColors != null) {
+                final int color = maps.mColors.get(id, MISSING);
+                if (color != MISSING || maps.mColors.containsKey(id)) {
+                    return color;
+                }
+            }
+        }
+        final int color = SDK_INT >= VERSION_CODES.M ? res.getColor(id, theme) : res.getColor(id);
+        synchronized (this) {
+            final Maps maps = maps(res, theme, true);
+            if (maps.mColors == null) {
+                maps.mColors = new IntIntMap(INITIAL_SIZE);
+            }
+            maps.mColors.put(id, color);
+        }
+        return color;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Nullable
+    ColorStateList getColorStateList(@NonNull Resources res, @ColorRes int id,
+                                     @Nullable Theme theme) throws Resources.NotFoundException {
+        synchronized (this) {
+            final Maps maps = maps(res, theme, false);
+            if (maps != null && maps.mColorStateLists != null) {
+                final ColorStateList colors = maps.mColorStateLists.get(id);
+                if (colors != null) {
+                    return colors;
+                }
+            }
+        }
+        final ColorStateList colors = SDK_INT >= VERSION_CODES.M
+                ? res.getColorStateList(id, theme) : res.getColorStateList(id);
+        if (colors != null) {
+            synchronized (this) {
+                final Maps maps = maps(res, theme, true);
+                if (maps.mColorStateLists == null) {
+                    maps.mColorStateLists = new IntObjectMap<>(INITIAL_SIZE);
+                }
+                maps.mColorStateLists.put(id, colors);
+            }
+        }
+        return colors;
+    }
+
+    synchronized void clear() {
+        mResources.clear();
+    }
+
+    @Nullable
+    private Maps maps(@NonNull Resources res, @Nullable Theme theme, boolean create) {
+        final Configuration configuration = res.getConfiguration();
+        Entry entry = mResources.get(res);
+        if (entry == null) {
+            if (!create) {
+                return null;
+            }
+            entry = new Entry();
+            entry.mConfiguration = new Configuration(configuration);
+            mResources.put(res, entry);
+        } else if (entry.mConfiguration.diff(configuration) != 0) {
+            entry.mThemes.clear();
+            entry.mUnthemed = new Maps();
+            entry.mConfiguration = new Configuration(configuration);
+        }
+        if (theme == null || SDK_INT < VERSION_CODES.M) {
+            return entry.mUnthemed;
+        }
+        Maps maps = entry.mThemes.get(theme);
+        if (maps == null && create) {
+            maps = new Maps();
+            entry.mThemes.put(theme, maps);
+        }
+        return maps;
+    }
+}
@@ -0,0 +1,306 @@
+package org.ligboy.android.utils;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresPermission;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Cached connectivity state.
+ * <p>While started, the monitor queries {@link ConnectivityManager} once per connectivity
+ * broadcast and publishes the result as an immutable {@link State} in a volatile field, so
+ * reading the state, and {@link NetworkUtil#isConnected(Context)}, doesn't call into the
+ * system.</p>
+ * <pre>
+ * public void onCreate() {
+ *     super.onCreate();
+ *     ConnectivityMonitor.start(this);
+ * }
+ * </pre>
+ * <p>Listeners are notified on the main thread. Changes arriving in a burst are coalesced into
+ * one notification of the latest state.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class ConnectivityMonitor {
+
+    /**
+     * The type of a disconnected state.
+     */
+    public static final int TYPE_NONE = -1;
+
+    /**
+     * The state before the monitor is started.
+     */
+    public static final State DISCONNECTED = new State(false, TYPE_NONE, 0, false, false);
+
+    private static final CopyOnWriteArrayList<Listener> sListeners = new CopyOnWriteArrayList<>();
+    /**
+     * The current state, null while the monitor is stopped.
+     */
+    private static volatile State sState;
+    private static Context sContext;
+    private static BroadcastReceiver sReceiver;
+    private static Handler sHandler;
+    /**
+     * The state listeners were last notified of, only accessed on the main thread.
+     */
+    private static State sNotifiedState = DISCONNECTED;
+    private static boolean sNotifyPending;
+
+    private static final Runnable sNotifier = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ConnectivityMonitor.class) {
+                sNotifyPending = false;
+            }
+            final State state = getState();
+            if (state.equals(sNotifiedState)) {
+                return;
+            }
+            sNotifiedState = state;
+            for (Listener listener : sListeners) {
+                listener.onConnectivityChanged(state);
+            }
+        }
+    };
+
+    private ConnectivityMonitor() {
+        throw new IllegalAccessError();
+    }
+
+    /**
+     * Start monitoring. Does nothing if already started.
+     * <p>This method requires the caller to hold the permission
+     * {@link android.Manifest.permission#ACCESS_NETWORK_STATE}.
+     * @param context Context used for receiving connectivity changes.
+     */
+    @RequiresPermission(Manifest.permission.ACCESS_NETWORK_STATE)
+    public static synchronized void start(@NonNull Context context) {
+        if (sState != null) {
+            return;
+        }
+        sContext = context.getApplicationContext();
+        if (sHandler == null) {
+            sHandler = new Handler(Looper.getMainLooper());
+        }
+        sReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                update();
+                NetworkUtil.onConnectivityBroadcast();
+            }
+        };
+        sContext.registerReceiver(sReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        // One write publishes both the state and that the monitor is started
+        sState = query(sContext);
+        postNotify();
+    }
+
+    /**
+     * Stop monitoring. The state reads as {@link #DISCONNECTED} until started again, and
+     * listeners are notified of it.
+     */
+    public static synchronized void stop() {
+        if (sState == null) {
+            return;
+        }
+        sContext.unregisterReceiver(sReceiver);
+        sReceiver = null;
+        sContext = null;
+        sState = null;
+        postNotify();
+    }
+
+    /**
+     * @return Whether the monitor is started.
+     */
+    public static boolean isStarted() {
+        return sState != null;
+    }
+
+    /**
+     * @return The current state, {@link #DISCONNECTED} if the monitor isn't started. Doesn't
+     * call into the system.
+     */
+    @NonNull
+    public static State getState() {
+        final State state = sState;
+        return state != null ? state : DISCONNECTED;
+    }
+
+    /**
+     * Read the state once, for callers that fall back to querying the system when the monitor
+     * isn't started. Checking {@link #isStarted()} before {@link #getState()} races with
+     * {@link #stop()}.
+     * @return The current state, or null if the monitor isn't started.
+     */
+    @Nullable
+    static State peekState() {
+        return sState;
+    }
+
+    /**
+     * Query the system for the state now, e.g. when a request failed while the state was
+     * connected.
+     * @return The new state.
+     */
+    @NonNull
+    public static synchronized State update() {
+        if (sState == null) {
+            return DISCONNECTED;
+        }
+        final State state = query(sContext);
+        if (!state.equals(sState)) {
+            sState = state;
+            postNotify();
+        }
+        return state;
+    }
+
+    /**
+     * Post one notification of the latest state, unless one is pending. Called with the class
+     * lock held.
+     */
+    private static void postNotify() {
+        if (!sNotifyPending && !sListeners.isEmpty()) {
+            sNotifyPending = true;
+            sHandler.post(sNotifier);
+        }
+    }
+
+    /**
+     * @param listener Notified on the main thread when the state changes.
+     */
+    public static void addListener(@NonNull Listener listener) {
+        sListeners.addIfAbsent(listener);
+    }
+
+    public static void removeListener(@NonNull Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    @NonNull
+    private static State query(@NonNull Context context) {
+        final ConnectivityManager connectivityManager
+                = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return DISCONNECTED;
+        }
+        final int type = networkInfo.getType();
+        final boolean metered = SDK_INT >= VERSION_CODES.JELLY_BEAN
+                ? connectivityManager.isActiveNetworkMetered()
+                : type != ConnectivityManager.TYPE_WIFI
+                        && type != ConnectivityManager.TYPE_ETHERNET;
+        return new State(true, type, networkInfo.getSubtype(), metered, networkInfo.isRoaming());
+    }
+
+    /**
+     * Receives connectivity changes.
+     */
+    public interface Listener {
+
+        /**
+         * @param state The new state, {@link #DISCONNECTED} when the monitor is stopped.
+         */
+        @MainThread
+        void onConnectivityChanged(@NonNull State state);
+    }
+
+    /**
+     * Immutable connectivity state.
+     */
+    public static final class State {
+
+        private final boolean mConnected;
+        private final int mType;
+        private final int mSubtype;
+        private final boolean mMetered;
+        private final boolean mRoaming;
+
+        State(boolean connected, int type, int subtype, boolean metered, boolean roaming) {
+            mConnected = connected;
+            mType = type;
+            mSubtype = subtype;
+            mMetered = metered;
+            mRoaming = roaming;
+        }
+
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        /**
+         * @return The {@code ConnectivityManager.TYPE_*} of the active network, or
+         * {@link #TYPE_NONE} if disconnected.
+         */
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return The network subtype, e.g. the {@code TelephonyManager.NETWORK_TYPE_*} of a
+         * mobile network.
+         */
+        public int getSubtype() {
+            return mSubtype;
+        }
+
+        public boolean isMetered() {
+            return mMetered;
+        }
+
+        public boolean isRoaming() {
+            return mRoaming;
+        }
+
+        public boolean isWifi() {
+            return mType == ConnectivityManager.TYPE_WIFI;
+        }
+
+        public boolean isMobile() {
+            return mType == ConnectivityManager.TYPE_MOBILE;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (!(o instanceof State)) {
+                return false;
+            }
+            final State state = (State) o;
+            return mConnected == state.mConnected && mType == state.mType
+                    && mSubtype == state.mSubtype && mMetered == state.mMetered
+                    && mRoaming == state.mRoaming;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mConnected ? 1 : 0;
+            result = 31 * result + mType;
+            result = 31 * result + mSubtype;
+            result = 31 * result + (mMetered ? 1 : 0);
+            return 31 * result + (mRoaming ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return "State[connected=" + mConnected + ",type=" + mType + ",subtype=" + mSubtype
+                    + ",metered=" + mMetered + ",roaming=" + mRoaming + "]";
+        }
+    }
+}
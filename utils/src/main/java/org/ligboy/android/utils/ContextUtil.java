@@ -21,25 +21,46 @@ import java.lang.annotation.RetentionPolicy;
  */
 public final class ContextUtil {
 
+    private static final Metrics.Timer TEMP_FILE_CREATE = Metrics.timer("context.tempfile.create");
+    private static final Metrics.Counter TEMP_FILE_FAILURES
+            = Metrics.counter("context.tempfile.failures");
+
     private ContextUtil() {
         throw new IllegalAccessError();
     }
 
     /**
-     * Return the handle to a system-level service by class.
+     * Return the handle to a system-level service by class, on every API level.
+     * <p>Handles are cached per application context, so repeated lookups don't call into the
+     * context. Services bound to the calling context, like {@link android.view.LayoutInflater}
+     * and {@link android.view.WindowManager}, are fetched from it every time.</p>
      * @param context Context
      * @param serviceClass The class of the desired service.
      * @return The service or null if the class is not a supported system service.
      */
-    @SuppressWarnings({"unchecked", "ResourceType"})
     @Nullable
     public static <T> T getSystemService(@NonNull Context context, @NonNull Class<T> serviceClass) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-            String serviceName = serviceClass.getName();
-            return (T) context.getSystemService(serviceName);
-        } else {
-            return context.getSystemService(serviceClass);
-        }
+        return SystemServices.get(context, serviceClass);
+    }
+
+    /**
+     * Return the name of the system-level service of a class, on every API level.
+     * @param context Context
+     * @param serviceClass The class of the desired service.
+     * @return The service name, one of {@link ServiceName}, or null if the class is not a
+     * supported system service.
+     */
+    @Nullable
+    public static String getSystemServiceName(@NonNull Context context,
+                                              @NonNull Class<?> serviceClass) {
+        return SystemServices.getName(context, serviceClass);
+    }
+
+    /**
+     * Drop the cached system service handles.
+     */
+    public static void clearSystemServiceCache() {
+        SystemServices.clear();
     }
 
     /**
@@ -140,6 +161,7 @@ public final class ContextUtil {
      */
     @Nullable
     public static File creatTempFile(@NonNull final Context context, @NonNull String prefix, @Nullable String suffix, @Nullable String subDirectory) {
+        long start = TEMP_FILE_CREATE.start();
         File tempFile = null;
         //当输出文件不存在时，创建
         File cacheDerectory = null;
@@ -164,7 +186,10 @@ public final class ContextUtil {
             } catch (IOException ignored) {
             }
         }
-
+        if (tempFile == null) {
+            TEMP_FILE_FAILURES.increment();
+        }
+        TEMP_FILE_CREATE.stop(start);
         return tempFile;
     }
 
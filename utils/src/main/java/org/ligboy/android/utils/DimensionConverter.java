@@ -0,0 +1,310 @@
+package org.ligboy.android.utils;
+
+import android.content.ComponentCallbacks;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.support.annotation.NonNull;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+/**
+ * Reusable converter between pixels and the dimension units of {@link TypedValue}.
+ * <p>The scale factors are computed once from a snapshot of the {@link DisplayMetrics}, so a
+ * conversion is a field read and a multiplication, without the unit branch of
+ * {@link TypedValue#applyDimension(int, float, DisplayMetrics)}. From API 14, register the
+ * converter for configuration changes to refresh the snapshot:</p>
+ * <pre>
+ * DimensionConverter converter = new DimensionConverter(getResources());
+ * getApplicationContext().registerComponentCallbacks(converter);
+ * </pre>
+ * <p>{@code registerComponentCallbacks} doesn't exist below API 14, so there nothing refreshes
+ * the snapshot on its own: forward {@code onConfigurationChanged} of the application or of the
+ * activities that handle configuration changes to {@link #refresh()}.</p>
+ * <p>The {@code *Fixed} methods work on 16.16 fixed-point integers, for layout math without
+ * floats. A 16.16 value holds -32768 to 32767.99998, so the arguments and the results of these
+ * methods must stay within {@link #MIN_FIXED_INT} and {@link #MAX_FIXED_INT}: the conversions
+ * don't check it, and a result out of range wraps around. Thread-safe.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class DimensionConverter implements ComponentCallbacks {
+
+    /**
+     * 1.0 in 16.16 fixed point.
+     */
+    public static final int FIXED_ONE = 1 << 16;
+    /**
+     * The largest integer that has a 16.16 fixed-point value.
+     */
+    public static final int MAX_FIXED_INT = Short.MAX_VALUE;
+    /**
+     * The smallest integer that has a 16.16 fixed-point value.
+     */
+    public static final int MIN_FIXED_INT = Short.MIN_VALUE;
+    private static final int FIXED_HALF = FIXED_ONE >> 1;
+
+    private static final float POINTS_PER_INCH = 72f;
+    private static final float MILLIMETERS_PER_INCH = 25.4f;
+
+    private final Resources mResources;
+    private volatile Scales mScales;
+
+    /**
+     * @param resources The resources whose display metrics are converted with.
+     */
+    public DimensionConverter(@NonNull Resources resources) {
+        mResources = resources;
+        mScales = new Scales(resources.getDisplayMetrics());
+    }
+
+    /**
+     * Snapshot the display metrics of the resources again.
+     * @return Whether the scale factors changed.
+     */
+    public boolean refresh() {
+        final Scales scales = new Scales(mResources.getDisplayMetrics());
+        if (scales.equals(mScales)) {
+            return false;
+        }
+        mScales = scales;
+        return true;
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        refresh();
+    }
+
+    @Override
+    public void onLowMemory() {
+    }
+
+    public float getDensity() {
+        return mScales.mDensity;
+    }
+
+    public float getScaledDensity() {
+        return mScales.mScaledDensity;
+    }
+
+    public float getXdpi() {
+        return mScales.mXdpi;
+    }
+
+    public float getYdpi() {
+        return mScales.mYdpi;
+    }
+
+    public float dipToPx(float dip) {
+        return dip * mScales.mDensity;
+    }
+
+    public float spToPx(float sp) {
+        return sp * mScales.mScaledDensity;
+    }
+
+    public float ptToPx(float pt) {
+        return pt * mScales.mPoint;
+    }
+
+    public float inToPx(float in) {
+        return in * mScales.mXdpi;
+    }
+
+    public float mmToPx(float mm) {
+        return mm * mScales.mMillimeter;
+    }
+
+    public float pxToDip(float px) {
+        return px / mScales.mDensity;
+    }
+
+    public float pxToSp(float px) {
+        return px / mScales.mScaledDensity;
+    }
+
+    public float pxToPt(float px) {
+        return px / mScales.mPoint;
+    }
+
+    public float pxToIn(float px) {
+        return px / mScales.mXdpi;
+    }
+
+    public float pxToMm(float px) {
+        return px / mScales.mMillimeter;
+    }
+
+    /**
+     * Convert a dimension in one of the {@code TypedValue.COMPLEX_UNIT_*} units to pixels.
+     * @param unit The unit of the value.
+     * @param value The value.
+     * @return The value in pixels.
+     */
+    public float toPx(int unit, float value) {
+        switch (unit) {
+            case TypedValue.COMPLEX_UNIT_PX:
+                return value;
+            case TypedValue.COMPLEX_UNIT_DIP:
+                return dipToPx(value);
+            case TypedValue.COMPLEX_UNIT_SP:
+                return spToPx(value);
+            case TypedValue.COMPLEX_UNIT_PT:
+                return ptToPx(value);
+            case TypedValue.COMPLEX_UNIT_IN:
+                return inToPx(value);
+            case TypedValue.COMPLEX_UNIT_MM:
+                return mmToPx(value);
+            default:
+                throw new IllegalArgumentException("Unknown unit: " + unit);
+        }
+    }
+
+    public int dipToPxFixed(int dipFixed) {
+        return multiplyFixed(dipFixed, mScales.mDensityFixed);
+    }
+
+    public int spToPxFixed(int spFixed) {
+        return multiplyFixed(spFixed, mScales.mScaledDensityFixed);
+    }
+
+    public int ptToPxFixed(int ptFixed) {
+        return multiplyFixed(ptFixed, mScales.mPointFixed);
+    }
+
+    public int inToPxFixed(int inFixed) {
+        return multiplyFixed(inFixed, mScales.mXdpiFixed);
+    }
+
+    public int mmToPxFixed(int mmFixed) {
+        return multiplyFixed(mmFixed, mScales.mMillimeterFixed);
+    }
+
+    public int pxToDipFixed(int pxFixed) {
+        return divideFixed(pxFixed, mScales.mDensityFixed);
+    }
+
+    public int pxToSpFixed(int pxFixed) {
+        return divideFixed(pxFixed, mScales.mScaledDensityFixed);
+    }
+
+    /**
+     * @param value From {@link #MIN_FIXED_INT} to {@link #MAX_FIXED_INT}.
+     * @return The 16.16 fixed-point value of an integer.
+     * @throws IllegalArgumentException The value is out of the fixed-point range.
+     */
+    public static int toFixed(int value) {
+        if (value < MIN_FIXED_INT || value > MAX_FIXED_INT) {
+            throw new IllegalArgumentException("Out of the 16.16 fixed-point range: " + value);
+        }
+        return value << 16;
+    }
+
+    /**
+     * @param value From {@link #MIN_FIXED_INT} to just below {@code MAX_FIXED_INT + 1}.
+     * @return The 16.16 fixed-point value of a float, rounded.
+     * @throws IllegalArgumentException The value is out of the fixed-point range.
+     */
+    public static int toFixed(float value) {
+        final float scaled = value * FIXED_ONE;
+        // Math.round saturates instead of failing, and NaN rounds to 0
+        if (!(scaled >= Integer.MIN_VALUE && scaled < -(float) Integer.MIN_VALUE)) {
+            throw new IllegalArgumentException("Out of the 16.16 fixed-point range: " + value);
+        }
+        return Math.round(scaled);
+    }
+
+    public static float fromFixed(int fixed) {
+        return fixed / (float) FIXED_ONE;
+    }
+
+    /**
+     * Round a fixed-point pixel value to a pixel size like
+     * {@link DisplayMetricsUtil#dip2Pixel(DisplayMetrics, float)}: a non-zero value is at least
+     * one pixel in size.
+     * @param pxFixed 16.16 fixed-point pixels.
+     * @return The number of pixels.
+     */
+    public static int toPixelSize(int pxFixed) {
+        final int res = (pxFixed + FIXED_HALF) / FIXED_ONE;
+        if (res != 0 || pxFixed == 0) {
+            return res;
+        }
+        return pxFixed > 0 ? 1 : -1;
+    }
+
+    /**
+     * Truncate a fixed-point pixel value to a pixel offset like
+     * {@link DisplayMetricsUtil#dip2PixelOffset(DisplayMetrics, float)}.
+     * @param pxFixed 16.16 fixed-point pixels.
+     * @return The number of pixels.
+     */
+    public static int toPixelOffset(int pxFixed) {
+        return pxFixed / FIXED_ONE;
+    }
+
+    private static int multiplyFixed(int a, int b) {
+        return (int) (((long) a * b) >> 16);
+    }
+
+    private static int divideFixed(int a, int b) {
+        return (int) (((long) a << 16) / b);
+    }
+
+    @Override
+    public String toString() {
+        final Scales scales = mScales;
+        return "DimensionConverter[density=" + scales.mDensity + ",scaledDensity="
+                + scales.mScaledDensity + ",xdpi=" + scales.mXdpi + ",ydpi=" + scales.mYdpi + "]";
+    }
+
+    /**
+     * Immutable scale factors of one snapshot, swapped as a whole on refresh.
+     */
+    private static final class Scales {
+
+        final float mDensity;
+        final float mScaledDensity;
+        final float mXdpi;
+        final float mYdpi;
+        final float mPoint;
+        final float mMillimeter;
+        final int mDensityFixed;
+        final int mScaledDensityFixed;
+        final int mXdpiFixed;
+        final int mPointFixed;
+        final int mMillimeterFixed;
+
+        Scales(@NonNull DisplayMetrics metrics) {
+            mDensity = metrics.density;
+            mScaledDensity = metrics.scaledDensity;
+            mXdpi = metrics.xdpi;
+            mYdpi = metrics.ydpi;
+            // Same factors as TypedValue.applyDimension
+            mPoint = mXdpi * (1.0f / POINTS_PER_INCH);
+            mMillimeter = mXdpi * (1.0f / MILLIMETERS_PER_INCH);
+            mDensityFixed = toFixed(mDensity);
+            mScaledDensityFixed = toFixed(mScaledDensity);
+            mXdpiFixed = toFixed(mXdpi);
+            mPointFixed = toFixed(mPoint);
+            mMillimeterFixed = toFixed(mMillimeter);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Scales)) {
+                return false;
+            }
+            final Scales scales = (Scales) o;
+            return mDensity == scales.mDensity && mScaledDensity == scales.mScaledDensity
+                    && mXdpi == scales.mXdpi && mYdpi == scales.mYdpi;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(mDensity);
+            result = 31 * result + Float.floatToIntBits(mScaledDensity);
+            result = 31 * result + Float.floatToIntBits(mXdpi);
+            return 31 * result + Float.floatToIntBits(mYdpi);
+        }
+    }
+}
@@ -10,6 +10,8 @@ import android.util.DisplayMetrics;
  */
 public final class DisplayMetricsUtil {
 
+    private static volatile DipTable sDipTable;
+
     /**
      * Converts dip dimension to its final value as an integer pixel size.
      * <p/>This is the same as {@link #dip2PixelOffset(DisplayMetrics, float)}, except ensuring that a
@@ -49,4 +51,142 @@ public final class DisplayMetricsUtil {
         float density = displayMetrics.density;
         return (pixel / density);
     }
+
+    /**
+     * Converts dip dimensions to integer pixel sizes, rounding like
+     * {@link #dip2Pixel(DisplayMetrics, float)}.
+     * @param displayMetrics DisplayMetrics used.
+     * @param src dip dimensions.
+     * @param srcPos Index of the first dimension in {@code src}.
+     * @param dst Pixel sizes.
+     * @param dstPos Index of the first pixel size in {@code dst}.
+     * @param length Number of dimensions.
+     */
+    public static void dip2Pixel(@NonNull final DisplayMetrics displayMetrics,
+                                 @NonNull float[] src, int srcPos,
+                                 @NonNull int[] dst, int dstPos, int length) {
+        checkRange(src.length, srcPos, dst.length, dstPos, length);
+        final float density = displayMetrics.density;
+        for (int i = 0; i < length; i++) {
+            final float value = src[srcPos + i] * density;
+            int res = (int) (value + 0.5f);
+            if (res == 0 && value != 0) {
+                res = value > 0 ? 1 : -1;
+            }
+            dst[dstPos + i] = res;
+        }
+    }
+
+    /**
+     * Converts dip dimensions to integer pixel offsets, truncating like
+     * {@link #dip2PixelOffset(DisplayMetrics, float)}.
+     * @param displayMetrics DisplayMetrics used.
+     * @param src dip dimensions.
+     * @param srcPos Index of the first dimension in {@code src}.
+     * @param dst Pixel offsets.
+     * @param dstPos Index of the first pixel offset in {@code dst}.
+     * @param length Number of dimensions.
+     */
+    public static void dip2PixelOffset(@NonNull final DisplayMetrics displayMetrics,
+                                       @NonNull float[] src, int srcPos,
+                                       @NonNull int[] dst, int dstPos, int length) {
+        checkRange(src.length, srcPos, dst.length, dstPos, length);
+        final float density = displayMetrics.density;
+        for (int i = 0; i < length; i++) {
+            dst[dstPos + i] = (int) (src[srcPos + i] * density);
+        }
+    }
+
+    /**
+     * Converts pixel dimensions to float dip sizes like {@link #pixel2Dip(DisplayMetrics, int)}.
+     * @param displayMetrics DisplayMetrics used.
+     * @param src Pixel dimensions.
+     * @param srcPos Index of the first dimension in {@code src}.
+     * @param dst dip sizes.
+     * @param dstPos Index of the first dip size in {@code dst}.
+     * @param length Number of dimensions.
+     */
+    public static void pixel2Dip(@NonNull final DisplayMetrics displayMetrics,
+                                 @NonNull int[] src, int srcPos,
+                                 @NonNull float[] dst, int dstPos, int length) {
+        checkRange(src.length, srcPos, dst.length, dstPos, length);
+        final float density = displayMetrics.density;
+        for (int i = 0; i < length; i++) {
+            dst[dstPos + i] = src[srcPos + i] / density;
+        }
+    }
+
+    /**
+     * Return a table of the pixel sizes of integer dip values at the density of the display
+     * metrics. The table is kept until it is asked for another density or a larger range.
+     * @param displayMetrics DisplayMetrics used.
+     * @param maxDip The largest dip value the table needs to hold.
+     * @return The table.
+     */
+    @NonNull
+    public static DipTable getDipTable(@NonNull final DisplayMetrics displayMetrics,
+                                       @IntRange(from = 0) int maxDip) {
+        if (maxDip < 0) {
+            throw new IllegalArgumentException("maxDip must not be negative");
+        }
+        DipTable table = sDipTable;
+        if (table == null || table.mDensity != displayMetrics.density
+                || table.mPixels.length <= maxDip) {
+            table = new DipTable(displayMetrics, maxDip);
+            sDipTable = table;
+        }
+        return table;
+    }
+
+    private static void checkRange(int srcLength, int srcPos, int dstLength, int dstPos,
+                                   int length) {
+        if (srcPos < 0 || dstPos < 0 || length < 0
+                || length > srcLength - srcPos || length > dstLength - dstPos) {
+            throw new ArrayIndexOutOfBoundsException("srcPos=" + srcPos + ", dstPos=" + dstPos
+                    + ", length=" + length);
+        }
+    }
+
+    /**
+     * Precomputed pixel sizes of the integer dip values 0..{@link #getMaxDip()} at one density,
+     * as returned by {@link #dip2Pixel(DisplayMetrics, float)}. Immutable.
+     */
+    public static final class DipTable {
+
+        private final float mDensity;
+        private final int[] mPixels;
+
+        DipTable(@NonNull DisplayMetrics displayMetrics, int maxDip) {
+            mDensity = displayMetrics.density;
+            mPixels = new int[maxDip + 1];
+            for (int dip = 0; dip <= maxDip; dip++) {
+                mPixels[dip] = DisplayMetricsUtil.dip2Pixel(displayMetrics, dip);
+            }
+        }
+
+        public float getDensity() {
+            return mDensity;
+        }
+
+        public int getMaxDip() {
+            return mPixels.length - 1;
+        }
+
+        /**
+         * @param dip dip dimension, computed if out of the table.
+         * @return The number of pixels.
+         */
+        public int dip2Pixel(int dip) {
+            final int[] pixels = mPixels;
+            if (dip >= 0 && dip < pixels.length) {
+                return pixels[dip];
+            }
+            final float value = dip * mDensity;
+            final int res = (int) (value + 0.5f);
+            if (res != 0 || value == 0) {
+                return res;
+            }
+            return value > 0 ? 1 : -1;
+        }
+    }
 }
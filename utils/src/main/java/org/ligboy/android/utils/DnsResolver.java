@@ -0,0 +1,707 @@
+package org.ligboy.android.utils;
+
+import android.os.Build.VERSION_CODES;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Asynchronous DNS resolver with a TTL cache.
+ * <p>Lookups run on a bounded pool of daemon threads and complete through a {@link Future} or a
+ * {@link Callback}, with all addresses of the host. Concurrent lookups of the same host share
+ * one query. Results are cached for {@code ttlMillis}, failures for {@code negativeTtlMillis}.
+ * A lookup that doesn't complete within {@code timeoutMillis} fails, though the blocking query
+ * itself can't be interrupted and still fills the cache when it returns.</p>
+ * <pre>
+ * NetworkUtil.getDnsResolver().resolve("example.com", new DnsResolver.Callback() {
+ *     public void onResolved(String host, InetAddress[] addresses) {...}
+ *     public void onFailed(String host, UnknownHostException e) {...}
+ * });
+ * </pre>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class DnsResolver {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    public static final long DEFAULT_TTL_MILLIS = 60000;
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 10000;
+
+    private static final String THREAD_NAME = "DnsResolver";
+    private static final int MAX_CACHE_SIZE = 256;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    /**
+     * Lookups waiting for a thread, beyond which new lookups fail immediately. Threads stuck in
+     * a lookup that timed out still count, so a hanging DNS server can't grow the queue.
+     */
+    static final int MAX_PENDING = 64;
+
+    private static final Metrics.Timer DNS_RESOLVE = Metrics.timer("network.dns.resolve");
+    private static final Metrics.Counter DNS_FAILURES = Metrics.counter("network.dns.failures");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("network.dns.cache.hits");
+    private static final Metrics.Timer PREFETCH = Metrics.timer("network.dns.prefetch");
+
+    /**
+     * Resolves a host name, blocking.
+     */
+    public interface Lookup {
+
+        /**
+         * Resolves with {@link InetAddress#getAllByName(String)}.
+         */
+        Lookup SYSTEM = new Lookup() {
+            @NonNull
+            @Override
+            public InetAddress[] lookup(@NonNull String host) throws UnknownHostException {
+                return InetAddress.getAllByName(host);
+            }
+        };
+
+        @NonNull
+        InetAddress[] lookup(@NonNull String host) throws UnknownHostException;
+    }
+
+    /**
+     * Receives the result of a lookup, on a thread of the resolver or on the calling thread
+     * for a cached result.
+     */
+    public interface Callback {
+
+        void onResolved(@NonNull String host, @NonNull InetAddress[] addresses);
+
+        void onFailed(@NonNull String host, @NonNull UnknownHostException e);
+    }
+
+    /**
+     * Receives the report of a {@link #prefetch}, on a thread of the resolver.
+     */
+    public interface PrefetchListener {
+
+        void onPrefetchComplete(@NonNull PrefetchReport report);
+    }
+
+    private final Lookup mLookup;
+    private final long mTimeoutMillis;
+    private final long mTtlNanos;
+    private final long mNegativeTtlNanos;
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledThreadPoolExecutor mTimer;
+    private final Map<String, Query> mInFlight = new HashMap<>();
+    private boolean mShutdown;
+    private final LinkedHashMap<String, CacheEntry> mCache
+            = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    public DnsResolver() {
+        this(Lookup.SYSTEM);
+    }
+
+    public DnsResolver(@NonNull Lookup lookup) {
+        this(lookup, DEFAULT_THREADS, DEFAULT_TIMEOUT_MILLIS, DEFAULT_TTL_MILLIS,
+                DEFAULT_NEGATIVE_TTL_MILLIS);
+    }
+
+    /**
+     * @param lookup Resolves host names, {@link Lookup#SYSTEM} or a fake for tests.
+     * @param threads The maximum number of concurrent queries.
+     * @param timeoutMillis The time after which a lookup fails.
+     * @param ttlMillis How long addresses are cached, 0 to not cache them.
+     * @param negativeTtlMillis How long failures are cached, 0 to not cache them.
+     */
+    public DnsResolver(@NonNull Lookup lookup, @IntRange(from = 1) int threads,
+                       @IntRange(from = 1) long timeoutMillis, @IntRange(from = 0) long ttlMillis,
+                       @IntRange(from = 0) long negativeTtlMillis) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        }
+        if (ttlMillis < 0 || negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("TTLs must not be negative");
+        }
+        mLookup = lookup;
+        mTimeoutMillis = timeoutMillis;
+        mTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        mNegativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        // Rejects lookups once MAX_PENDING are waiting for a thread
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_PENDING),
+                new DaemonThreadFactory(THREAD_NAME));
+        mTimer = new ScheduledThreadPoolExecutor(1,
+                new DaemonThreadFactory(THREAD_NAME + "-timer"));
+        mTimer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        if (SDK_INT >= VERSION_CODES.GINGERBREAD) {
+            // Below API 9 the idle threads stay alive
+            mExecutor.allowCoreThreadTimeOut(true);
+            mTimer.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Resolve all addresses of a host.
+     * @param host The host name or IP address literal.
+     * @return The pending result, failing with an {@link UnknownHostException} cause.
+     */
+    @NonNull
+    public Future<InetAddress[]> resolve(@NonNull String host) {
+        return resolve(host, null);
+    }
+
+    /**
+     * Resolve all addresses of a host.
+     * @param host The host name or IP address literal.
+     * @param callback Receives the result, may be null.
+     * @return The pending result, failing with an {@link UnknownHostException} cause.
+     */
+    @NonNull
+    public Future<InetAddress[]> resolve(@NonNull String host, @Nullable Callback callback) {
+        final Query query;
+        final boolean start;
+        synchronized (this) {
+            final CacheEntry entry = mCache.get(host);
+            if (entry != null && entry.mExpiry - System.nanoTime() > 0) {
+                CACHE_HITS.increment();
+                query = new Query(host);
+                query.complete(entry.mAddresses, entry.mError);
+                start = false;
+            } else {
+                if (entry != null) {
+                    mCache.remove(host);
+                }
+                Query inFlight = mInFlight.get(host);
+                start = inFlight == null;
+                if (start) {
+                    inFlight = new Query(host);
+                    if (mShutdown) {
+                        inFlight.complete(null, new UnknownHostException(
+                                "Resolver is shut down: " + host));
+                    } else {
+                        mInFlight.put(host, inFlight);
+                    }
+                }
+                query = inFlight;
+            }
+        }
+        if (callback != null) {
+            query.addCallback(callback);
+        }
+        if (start && !query.isDone()) {
+            try {
+                query.mTimeout = mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(query, null, new UnknownHostException("Lookup timed out after "
+                                + mTimeoutMillis + "ms: " + query.mHost));
+                    }
+                }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runQuery(query);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shut down concurrently, or MAX_PENDING lookups are waiting for a thread
+                finish(query, null, new UnknownHostException(mExecutor.isShutdown()
+                        ? "Resolver is shut down: " + host
+                        : "Too many pending lookups: " + host));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Resolve hosts concurrently into the cache, e.g. at startup before the first requests, so
+     * later lookups are served from the cache.
+     * @param hosts The host names.
+     * @param parallelism The maximum number of hosts queried at once, further limited by the
+     *                    threads of the resolver.
+     * @param timeoutMillis The deadline of the whole prefetch, after which the hosts still
+     *                      pending or not started are reported as timed out.
+     * @param listener Receives the per-host latency and failures, may be null. After
+     *                 {@link #shutdown()} it is called inline, with the hosts failed like by
+     *                 {@link #resolve(String)} unless they are cached.
+     */
+    public void prefetch(@NonNull String[] hosts, @IntRange(from = 1) int parallelism,
+                         @IntRange(from = 1) long timeoutMillis,
+                         @Nullable PrefetchListener listener) {
+        if (parallelism < 1 || timeoutMillis < 1) {
+            throw new IllegalArgumentException("parallelism and timeoutMillis must be positive");
+        }
+        final Prefetch prefetch = new Prefetch(hosts.clone(), listener);
+        if (hosts.length == 0) {
+            prefetch.complete();
+            return;
+        }
+        try {
+            prefetch.mTimeout = mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    prefetch.complete();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down, every lookup below completes inline, so no deadline is needed
+        }
+        for (int i = Math.min(parallelism, hosts.length); i > 0; i--) {
+            prefetchNext(prefetch);
+        }
+    }
+
+    /**
+     * Start the next lookup of a prefetch. Cache hits complete here in a loop rather than
+     * recursing through their callbacks.
+     */
+    private void prefetchNext(@NonNull final Prefetch prefetch) {
+        while (true) {
+            final int index = prefetch.next();
+            if (index < 0) {
+                return;
+            }
+            final Query query = (Query) resolve(prefetch.mHosts[index]);
+            if (query.isDone()) {
+                prefetch.onResult(index, query.mError);
+                continue;
+            }
+            query.addCallback(new Callback() {
+                @Override
+                public void onResolved(@NonNull String host, @NonNull InetAddress[] addresses) {
+                    prefetch.onResult(index, null);
+                    prefetchNext(prefetch);
+                }
+
+                @Override
+                public void onFailed(@NonNull String host, @NonNull UnknownHostException e) {
+                    prefetch.onResult(index, e);
+                    prefetchNext(prefetch);
+                }
+            });
+            return;
+        }
+    }
+
+    /**
+     * @return The cached addresses of a host, or null if not cached or cached as failed.
+     */
+    @Nullable
+    public synchronized InetAddress[] getCached(@NonNull String host) {
+        final CacheEntry entry = mCache.get(host);
+        if (entry == null || entry.mExpiry - System.nanoTime() <= 0 || entry.mAddresses == null) {
+            return null;
+        }
+        return entry.mAddresses.clone();
+    }
+
+    /**
+     * Drop the cached result of a host, e.g. after connecting to its addresses failed.
+     */
+    public synchronized void invalidate(@NonNull String host) {
+        mCache.remove(host);
+    }
+
+    /**
+     * Drop all cached results.
+     */
+    public synchronized void clearCache() {
+        mCache.clear();
+    }
+
+    /**
+     * Stop the threads of the resolver. Pending lookups still complete, new lookups fail unless
+     * they are served from the cache.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        mExecutor.shutdown();
+        mTimer.shutdown();
+    }
+
+    private void runQuery(@NonNull Query query) {
+        if (query.isDone()) {
+            // Timed out while waiting for a thread
+            return;
+        }
+        final long start = DNS_RESOLVE.start();
+        InetAddress[] addresses = null;
+        UnknownHostException error = null;
+        try {
+            addresses = mLookup.lookup(query.mHost);
+            if (addresses.length == 0) {
+                addresses = null;
+                error = new UnknownHostException("No addresses: " + query.mHost);
+            }
+        } catch (UnknownHostException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new UnknownHostException(query.mHost + ": " + e);
+        } finally {
+            DNS_RESOLVE.stop(start);
+        }
+        if (error != null) {
+            DNS_FAILURES.increment();
+        }
+        synchronized (this) {
+            final long ttl = error == null ? mTtlNanos : mNegativeTtlNanos;
+            if (ttl > 0) {
+                mCache.put(query.mHost, new CacheEntry(addresses, error, System.nanoTime() + ttl));
+            }
+        }
+        finish(query, addresses, error);
+    }
+
+    private void finish(@NonNull Query query, @Nullable InetAddress[] addresses,
+                        @Nullable UnknownHostException error) {
+        synchronized (this) {
+            if (mInFlight.get(query.mHost) == query) {
+                mInFlight.remove(query.mHost);
+            }
+        }
+        if (query.complete(addresses, error)) {
+            final ScheduledFuture<?> timeout = query.mTimeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Per-host results of a {@link #prefetch}.
+     */
+    public static final class PrefetchReport {
+
+        private final String[] mHosts;
+        private final long[] mLatencyNanos;
+        private final UnknownHostException[] mErrors;
+        private final long mElapsedNanos;
+
+        PrefetchReport(@NonNull String[] hosts, @NonNull long[] latencyNanos,
+                       @NonNull UnknownHostException[] errors, long elapsedNanos) {
+            mHosts = hosts;
+            mLatencyNanos = latencyNanos;
+            mErrors = errors;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        public int size() {
+            return mHosts.length;
+        }
+
+        @NonNull
+        public String getHost(int index) {
+            return mHosts[index];
+        }
+
+        /**
+         * @return Whether the host resolved before the deadline.
+         */
+        public boolean isResolved(int index) {
+            return mLatencyNanos[index] >= 0 && mErrors[index] == null;
+        }
+
+        /**
+         * @return Whether the host was still pending at the deadline.
+         */
+        public boolean isTimedOut(int index) {
+            return mLatencyNanos[index] < 0;
+        }
+
+        /**
+         * @return The failure of the host, or null if it resolved or timed out.
+         */
+        @Nullable
+        public UnknownHostException getError(int index) {
+            return mErrors[index];
+        }
+
+        /**
+         * @return The time from the start of the lookup of the host to its result, or -1 if it
+         * timed out.
+         */
+        public long getLatencyMillis(int index) {
+            final long nanos = mLatencyNanos[index];
+            return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        /**
+         * @return The number of hosts resolved before the deadline.
+         */
+        public int getResolvedCount() {
+            int count = 0;
+            for (int i = 0; i < mHosts.length; i++) {
+                if (isResolved(i)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return The time from the start of the prefetch to the last result or the deadline.
+         */
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mElapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("PrefetchReport[elapsed=")
+                    .append(getElapsedMillis()).append("ms");
+            for (int i = 0; i < mHosts.length; i++) {
+                builder.append(',').append(mHosts[i]).append('=');
+                if (isTimedOut(i)) {
+                    builder.append("timeout");
+                } else {
+                    builder.append(getLatencyMillis(i)).append("ms");
+                    if (mErrors[i] != null) {
+                        builder.append(" failed");
+                    }
+                }
+            }
+            return builder.append(']').toString();
+        }
+    }
+
+    /**
+     * The pending results of one prefetch.
+     */
+    private static final class Prefetch {
+
+        final String[] mHosts;
+        final PrefetchListener mListener;
+        final long mStart = System.nanoTime();
+        final long[] mStartNanos;
+        final long[] mLatencyNanos;
+        final UnknownHostException[] mErrors;
+        volatile ScheduledFuture<?> mTimeout;
+        private int mNext;
+        private int mPending;
+        private boolean mDone;
+
+        Prefetch(@NonNull String[] hosts, @Nullable PrefetchListener listener) {
+            mHosts = hosts;
+            mListener = listener;
+            mStartNanos = new long[hosts.length];
+            mLatencyNanos = new long[hosts.length];
+            Arrays.fill(mLatencyNanos, -1);
+            mErrors = new UnknownHostException[hosts.length];
+            mPending = hosts.length;
+        }
+
+        /**
+         * @return The index of the next host to query, or -1 if none is left or the prefetch
+         * is complete.
+         */
+        synchronized int next() {
+            if (mDone || mNext == mHosts.length) {
+                return -1;
+            }
+            mStartNanos[mNext] = System.nanoTime();
+            return mNext++;
+        }
+
+        void onResult(int index, @Nullable UnknownHostException error) {
+            final boolean last;
+            synchronized (this) {
+                if (mDone) {
+                    return;
+                }
+                final long latency = System.nanoTime() - mStartNanos[index];
+                mLatencyNanos[index] = latency;
+                mErrors[index] = error;
+                PREFETCH.record(latency);
+                last = --mPending == 0;
+            }
+            if (last) {
+                final ScheduledFuture<?> timeout = mTimeout;
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                complete();
+            }
+        }
+
+        void complete() {
+            final PrefetchReport report;
+            synchronized (this) {
+                if (mDone) {
+                    return;
+                }
+                mDone = true;
+                report = new PrefetchReport(mHosts, mLatencyNanos.clone(), mErrors.clone(),
+                        System.nanoTime() - mStart);
+            }
+            if (mListener != null) {
+                mListener.onPrefetchComplete(report);
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final InetAddress[] mAddresses;
+        final UnknownHostException mError;
+        final long mExpiry;
+
+        CacheEntry(@Nullable InetAddress[] addresses, @Nullable UnknownHostException error,
+              long expiry) {
+            mAddresses = addresses;
+            mError = error;
+            mExpiry = expiry;
+        }
+    }
+
+    /**
+     * One lookup of a host, shared by all concurrent callers.
+     */
+    private static final class Query implements Future<InetAddress[]> {
+
+        final String mHost;
+        volatile ScheduledFuture<?> mTimeout;
+        private InetAddress[] mAddresses;
+        private UnknownHostException mError;
+        private boolean mDone;
+        private List<Callback> mCallbacks;
+
+        Query(@NonNull String host) {
+            mHost = host;
+        }
+
+        /**
+         * @return Whether this call completed the query.
+         */
+        boolean complete(@Nullable InetAddress[] addresses, @Nullable UnknownHostException error) {
+            final List<Callback> callbacks;
+            synchronized (this) {
+                if (mDone) {
+                    return false;
+                }
+                mAddresses = addresses;
+                mError = error;
+                mDone = true;
+                callbacks = mCallbacks;
+                mCallbacks = null;
+                notifyAll();
+            }
+            if (callbacks != null) {
+                for (Callback callback : callbacks) {
+                    dispatch(callback);
+                }
+            }
+            return true;
+        }
+
+        void addCallback(@NonNull Callback callback) {
+            synchronized (this) {
+                if (!mDone) {
+                    if (mCallbacks == null) {
+                        mCallbacks = new ArrayList<>(2);
+                    }
+                    mCallbacks.add(callback);
+                    return;
+                }
+            }
+            dispatch(callback);
+        }
+
+        private void dispatch(@NonNull Callback callback) {
+            if (mAddresses != null) {
+                callback.onResolved(mHost, mAddresses.clone());
+            } else {
+                callback.onFailed(mHost, mError);
+            }
+        }
+
+        /**
+         * Queries are shared, so they can't be cancelled.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        @Override
+        public synchronized InetAddress[] get() throws InterruptedException, ExecutionException {
+            while (!mDone) {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized InetAddress[] get(long timeout, @NonNull TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!mDone) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return result();
+        }
+
+        @NonNull
+        private InetAddress[] result() throws ExecutionException {
+            if (mAddresses == null) {
+                throw new ExecutionException(mError);
+            }
+            return mAddresses.clone();
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private int mCount;
+
+        DaemonThreadFactory(@NonNull String name) {
+            mName = name;
+        }
+
+        @Override
+        public synchronized Thread newThread(@NonNull Runnable runnable) {
+            final Thread thread = new Thread(runnable, mName + "-" + ++mCount);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package org.ligboy.android.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.Resources.Theme;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build.VERSION_CODES;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.ligboy.android.utils.collect.IntObjectMap;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * LRU cache of {@link Drawable.ConstantState}s behind
+ * {@link ResourcesUtil#getDrawable(Resources, int, Theme)} and
+ * {@link ResourcesUtil#getDrawableForDensity(Resources, int, int, Theme)}.
+ * <p>Entries are keyed by resources identity, resource ID, density and theme identity, and the
+ * cache is bounded by
+ * the estimated byte size of the drawables: the bitmap of a {@link BitmapDrawable}, the
+ * intrinsic size at 4 bytes per pixel otherwise. A hit returns a new drawable from the constant
+ * state, so callers never share mutable state.</p>
+ * <p>The entries of a resources are dropped when its configuration changes, so variants like
+ * {@code drawable-land} or {@code drawable-night} are reloaded, and the entries of a resources
+ * or a theme are dropped once it is garbage collected, so short-lived resources don't hold on to
+ * unreachable bitmaps until they age out.</p>
+ * <p>Forward {@link ComponentCallbacks2#onTrimMemory(int)} to {@link #trimMemory(int)}.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class DrawableCache {
+
+    /**
+     * The density of entries loaded without an explicit density.
+     */
+    static final int DENSITY_DEFAULT = 0;
+    private static final int MIN_ENTRY_SIZE = 64;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Resources and themes are keyed by a token, so the cache doesn't keep them alive.
+     */
+    private final WeakHashMap<Resources, ResourcesState> mResources = new WeakHashMap<>();
+    private final WeakHashMap<Theme, Integer> mThemeTokens = new WeakHashMap<>();
+    /**
+     * Live references to the resources with a token, enqueued once a resources is collected.
+     */
+    private final IntObjectMap<ResourcesReference> mResourcesReferences = new IntObjectMap<>();
+    private final ReferenceQueue<Resources> mCollectedResources = new ReferenceQueue<>();
+    /**
+     * Live references to the themes with a token, enqueued once a theme is collected.
+     */
+    private final IntObjectMap<ThemeReference> mThemeReferences = new IntObjectMap<>();
+    private final ReferenceQueue<Theme> mCollectedThemes = new ReferenceQueue<>();
+    private final Key mProbe = new Key(0, 0, 0, 0);
+    private int mNextResourcesToken = 1;
+    private int mNextThemeToken = 1;
+    private long mMaxSize;
+    private long mSize;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxSize The maximum estimated size of the cached drawables in bytes.
+     */
+    public DrawableCache(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return a drawable from the cache, loading it on a miss.
+     * @param density The density, {@link #DENSITY_DEFAULT} for the density of the resources.
+     */
+    @Nullable
+    Drawable get(@NonNull Resources res, @DrawableRes int id, int density, @Nullable Theme theme)
+            throws Resources.NotFoundException {
+        Drawable.ConstantState state;
+        synchronized (this) {
+            purgeCollected();
+            final Key probe = mProbe.set(resourcesToken(res), id, density,
+                    themeToken(theme, false));
+            final Entry entry = probe.mThemeToken >= 0 ? mEntries.get(probe) : null;
+            if (entry != null) {
+                mHitCount++;
+                state = entry.mState;
+            } else {
+                mMissCount++;
+                state = null;
+            }
+        }
+        if (state != null) {
+            return SDK_INT >= VERSION_CODES.LOLLIPOP
+                    ? state.newDrawable(res, theme) : state.newDrawable(res);
+        }
+        final Drawable drawable = load(res, id, density, theme);
+        if (drawable != null) {
+            put(res, id, density, theme, drawable);
+        }
+        return drawable;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Nullable
+    private static Drawable load(@NonNull Resources res, @DrawableRes int id, int density,
+                                 @Nullable Theme theme) {
+        if (density == DENSITY_DEFAULT) {
+            if (SDK_INT >= VERSION_CODES.LOLLIPOP) {
+                return res.getDrawable(id, theme);
+            }
+            return res.getDrawable(id);
+        }
+        if (SDK_INT >= VERSION_CODES.LOLLIPOP) {
+            return res.getDrawableForDensity(id, density, theme);
+        } else if (SDK_INT >= VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            return res.getDrawableForDensity(id, density);
+        }
+        return res.getDrawable(id);
+    }
+
+    private void put(@NonNull Resources res, int id, int density, @Nullable Theme theme,
+                     @NonNull Drawable drawable) {
+        final Drawable.ConstantState state = drawable.getConstantState();
+        if (state == null) {
+            return;
+        }
+        final long size = estimateSize(drawable);
+        synchronized (this) {
+            if (size > mMaxSize) {
+                return;
+            }
+            purgeCollected();
+            final Entry previous = mEntries.put(new Key(resourcesToken(res), id, density,
+                    themeToken(theme, true)), new Entry(state, size));
+            mSize += size;
+            if (previous != null) {
+                mSize -= previous.mSize;
+            }
+            trimToSize(mMaxSize);
+        }
+    }
+
+    /**
+     * @return The token of the resources. Evicts its entries if its configuration changed since
+     * the last call.
+     */
+    private int resourcesToken(@NonNull Resources res) {
+        final Configuration configuration = res.getConfiguration();
+        ResourcesState state = mResources.get(res);
+        if (state == null) {
+            state = new ResourcesState(mNextResourcesToken++, configuration);
+            mResources.put(res, state);
+            mResourcesReferences.put(state.mToken,
+                    new ResourcesReference(res, state.mToken, mCollectedResources));
+        } else if (state.mConfiguration.diff(configuration) != 0) {
+            evict(state.mToken, -1);
+            state.mConfiguration = new Configuration(configuration);
+        }
+        return state.mToken;
+    }
+
+    /**
+     * @param create Whether to assign a token to a new theme.
+     * @return The token of a theme, 0 for no theme or before API 21 where themes are not
+     * applied, -1 for an unknown theme.
+     */
+    private int themeToken(@Nullable Theme theme, boolean create) {
+        if (theme == null || SDK_INT < VERSION_CODES.LOLLIPOP) {
+            return 0;
+        }
+        Integer token = mThemeTokens.get(theme);
+        if (token == null) {
+            if (!create) {
+                return -1;
+            }
+            token = mNextThemeToken++;
+            mThemeTokens.put(theme, token);
+            mThemeReferences.put(token, new ThemeReference(theme, token, mCollectedThemes));
+        }
+        return token;
+    }
+
+    /**
+     * Evict the entries of the resources and themes that were garbage collected.
+     */
+    private void purgeCollected() {
+        Reference<? extends Resources> resourcesReference;
+        while ((resourcesReference = mCollectedResources.poll()) != null) {
+            final int token = ((ResourcesReference) resourcesReference).mToken;
+            mResourcesReferences.remove(token);
+            evict(token, -1);
+        }
+        Reference<? extends Theme> themeReference;
+        while ((themeReference = mCollectedThemes.poll()) != null) {
+            final int token = ((ThemeReference) themeReference).mToken;
+            mThemeReferences.remove(token);
+            evict(-1, token);
+        }
+    }
+
+    /**
+     * Evict the entries of a resources or of a theme.
+     * @param resourcesToken The token of the resources, or -1.
+     * @param themeToken The token of the theme, or -1.
+     */
+    private void evict(int resourcesToken, int themeToken) {
+        final Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, Entry> entry = iterator.next();
+            final Key key = entry.getKey();
+            if (key.mResourcesToken == resourcesToken || key.mThemeToken == themeToken) {
+                mSize -= entry.getValue().mSize;
+                iterator.remove();
+                mEvictionCount++;
+            }
+        }
+    }
+
+    private static long estimateSize(@NonNull Drawable drawable) {
+        long size = 0;
+        if (drawable instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) {
+                size = (long) bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        } else {
+            final int width = drawable.getIntrinsicWidth();
+            final int height = drawable.getIntrinsicHeight();
+            if (width > 0 && height > 0) {
+                size = (long) width * height * BYTES_PER_PIXEL;
+            }
+        }
+        return Math.max(size, MIN_ENTRY_SIZE);
+    }
+
+    private void trimToSize(long maxSize) {
+        final Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            mSize -= iterator.next().getValue().mSize;
+            iterator.remove();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Release memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * @param level The trim level.
+     */
+    public synchronized void trimMemory(int level) {
+        // Empty when the process is likely to be killed or the system is critically low,
+        // halve from TRIM_MEMORY_RUNNING_LOW, which includes the app going to the background
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mSize / 2);
+        }
+    }
+
+    /**
+     * Drop all entries.
+     */
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * Change the maximum size, evicting entries if needed.
+     * @param maxSize The maximum estimated size of the cached drawables in bytes.
+     */
+    public synchronized void resize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return The estimated size of the cached drawables in bytes.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    public synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DrawableCache[size=" + mSize + ",maxSize=" + mMaxSize + ",hits=" + mHitCount
+                + ",misses=" + mMissCount + ",evictions=" + mEvictionCount + "]";
+    }
+
+    private static final class Key {
+
+        int mResourcesToken;
+        int mId;
+        int mDensity;
+        int mThemeToken;
+
+        Key(int resourcesToken, int id, int density, int themeToken) {
+            set(resourcesToken, id, density, themeToken);
+        }
+
+        @NonNull
+        Key set(int resourcesToken, int id, int density, int themeToken) {
+            mResourcesToken = resourcesToken;
+            mId = id;
+            mDensity = density;
+            mThemeToken = themeToken;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return mId == key.mId && mDensity == key.mDensity && mThemeToken == key.mThemeToken
+                    && mResourcesToken == key.mResourcesToken;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mResourcesToken * 31 + mId) * 31 + mDensity) * 31 + mThemeToken;
+        }
+    }
+
+    private static final class ResourcesState {
+
+        final int mToken;
+        Configuration mConfiguration;
+
+        ResourcesState(int token, @NonNull Configuration configuration) {
+            mToken = token;
+            mConfiguration = new Configuration(configuration);
+        }
+    }
+
+    private static final class ResourcesReference extends WeakReference<Resources> {
+
+        final int mToken;
+
+        ResourcesReference(@NonNull Resources res, int token,
+                           @NonNull ReferenceQueue<Resources> queue) {
+            super(res, queue);
+            mToken = token;
+        }
+    }
+
+    private static final class ThemeReference extends WeakReference<Theme> {
+
+        final int mToken;
+
+        ThemeReference(@NonNull Theme theme, int token, @NonNull ReferenceQueue<Theme> queue) {
+            super(theme, queue);
+            mToken = token;
+        }
+    }
+
+    private static final class Entry {
+
+        final Drawable.ConstantState mState;
+        final long mSize;
+
+        Entry(@NonNull Drawable.ConstantState state, long size) {
+            mState = state;
+            mSize = size;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package org.ligboy.android.utils;
+
+import android.Manifest;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.RequiresPermission;
+import android.support.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * "Happy Eyeballs" connector racing the addresses of a host, after RFC 8305.
+ * <p>The addresses are ordered alternating between IPv6 and IPv4, starting with the family the
+ * resolver returned first. Non-blocking connects start one after another on a single
+ * {@link Selector}, each {@code attemptDelayMillis} after the previous one or as soon as it
+ * fails. The first connected channel wins and the others are closed, so a broken address
+ * family costs the attempt delay instead of a full connect timeout.</p>
+ * <pre>
+ * SocketChannel channel = new HappyEyeballsConnector().connect("example.com", 443, 10000);
+ * </pre>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class HappyEyeballsConnector {
+
+    /**
+     * The delay before the next attempt recommended by RFC 8305.
+     */
+    public static final long DEFAULT_ATTEMPT_DELAY_MILLIS = 250;
+
+    private static final Metrics.Timer CONNECT = Metrics.timer("network.connect");
+    private static final Metrics.Counter CONNECT_FAILURES
+            = Metrics.counter("network.connect.failures");
+
+    private final DnsResolver mResolver;
+    private final long mAttemptDelayNanos;
+
+    /**
+     * Resolve with {@link NetworkUtil#getDnsResolver()}, with the default attempt delay.
+     */
+    public HappyEyeballsConnector() {
+        this(NetworkUtil.getDnsResolver(), DEFAULT_ATTEMPT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param resolver The resolver of host names.
+     * @param attemptDelayMillis The delay before starting the next attempt while the previous
+     *                           ones are pending.
+     */
+    public HappyEyeballsConnector(@NonNull DnsResolver resolver,
+                                  @IntRange(from = 1) long attemptDelayMillis) {
+        if (attemptDelayMillis < 1) {
+            throw new IllegalArgumentException("attemptDelayMillis must be positive");
+        }
+        mResolver = resolver;
+        mAttemptDelayNanos = TimeUnit.MILLISECONDS.toNanos(attemptDelayMillis);
+    }
+
+    /**
+     * Resolve a host and connect to the first of its addresses that accepts.
+     * @param host The host name or IP address literal.
+     * @param port The port.
+     * @param timeoutMillis The timeout of resolving and connecting together.
+     * @return A connected channel in blocking mode.
+     * @throws UnknownHostException If the host can't be resolved.
+     * @throws SocketTimeoutException If no address connected in time.
+     * @throws IOException The failure of the last attempt if all addresses failed.
+     */
+    @NonNull
+    @WorkerThread
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public SocketChannel connect(@NonNull String host, int port,
+                                 @IntRange(from = 1) long timeoutMillis) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final InetAddress[] addresses;
+        try {
+            addresses = mResolver.resolve(host).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (UnknownHostException) e.getCause();
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("Resolving " + host + " timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Resolving " + host + " interrupted");
+        }
+        return connect(addresses, port,
+                TimeUnit.NANOSECONDS.toMillis(Math.max(deadline - System.nanoTime(), 1)));
+    }
+
+    /**
+     * Connect to the first of the addresses that accepts.
+     * @param addresses The addresses of one host, in the order of preference.
+     * @param port The port.
+     * @param timeoutMillis The timeout of all attempts together.
+     * @return A connected channel in blocking mode.
+     * @throws SocketTimeoutException If no address connected in time.
+     * @throws IOException The failure of the last attempt if all addresses failed.
+     */
+    @NonNull
+    @WorkerThread
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public SocketChannel connect(@NonNull InetAddress[] addresses, int port,
+                                 @IntRange(from = 1) long timeoutMillis) throws IOException {
+        if (addresses.length == 0) {
+            throw new IllegalArgumentException("addresses must not be empty");
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final long start = CONNECT.start();
+        boolean connected = false;
+        try {
+            final SocketChannel channel = race(interleave(addresses), port, deadline);
+            connected = true;
+            return channel;
+        } finally {
+            CONNECT.stop(start);
+            if (!connected) {
+                CONNECT_FAILURES.increment();
+            }
+        }
+    }
+
+    @NonNull
+    private SocketChannel race(@NonNull List<InetAddress> addresses, int port, long deadline)
+            throws IOException {
+        final Selector selector = Selector.open();
+        IOException lastError = null;
+        int next = 0;
+        int pending = 0;
+        long nextAttempt = System.nanoTime();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                // Start the next attempt when its delay elapsed, or right away if none pending
+                while (next < addresses.size() && (pending == 0 || now - nextAttempt >= 0)) {
+                    final InetSocketAddress address
+                            = new InetSocketAddress(addresses.get(next++), port);
+                    try {
+                        final SocketChannel channel = startConnect(address, selector);
+                        if (channel != null) {
+                            return finish(channel, selector);
+                        }
+                        pending++;
+                        nextAttempt = now + mAttemptDelayNanos;
+                        break;
+                    } catch (IOException e) {
+                        lastError = e;
+                    }
+                }
+                if (pending == 0) {
+                    throw lastError != null ? lastError : new ConnectException("No addresses");
+                }
+                now = System.nanoTime();
+                long wait = deadline - now;
+                if (wait <= 0) {
+                    throw new SocketTimeoutException("Connect timed out to " + addresses);
+                }
+                if (next < addresses.size()) {
+                    wait = Math.min(wait, nextAttempt - now);
+                }
+                selector.select(Math.max(TimeUnit.NANOSECONDS.toMillis(wait), 1));
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Connect interrupted");
+                }
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    final SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            key.cancel();
+                            return finish(channel, selector);
+                        }
+                    } catch (IOException e) {
+                        lastError = e;
+                        key.cancel();
+                        closeQuietly(channel);
+                        pending--;
+                        // A failure starts the next attempt without waiting for the delay
+                        nextAttempt = System.nanoTime();
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return The channel if it connected immediately, null if the connect is pending.
+     */
+    private static SocketChannel startConnect(@NonNull InetSocketAddress address,
+                                              @NonNull Selector selector) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+                return channel;
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT);
+            return null;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Detach the winning channel from the selector, so closing the others leaves it open.
+     */
+    @NonNull
+    private static SocketChannel finish(@NonNull SocketChannel channel,
+                                        @NonNull Selector selector) throws IOException {
+        final SelectionKey key = channel.keyFor(selector);
+        if (key != null) {
+            key.cancel();
+            // Deregisters the cancelled key, a registered channel can't block
+            selector.selectNow();
+        }
+        channel.configureBlocking(true);
+        return channel;
+    }
+
+    /**
+     * Order the addresses alternating between the families, starting with the family of the
+     * first address and keeping the order within each family.
+     */
+    @NonNull
+    static List<InetAddress> interleave(@NonNull InetAddress[] addresses) {
+        final List<InetAddress> first = new ArrayList<>();
+        final List<InetAddress> second = new ArrayList<>();
+        final boolean firstIsIpv6 = addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == firstIsIpv6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+        final List<InetAddress> result = new ArrayList<>(addresses.length);
+        for (int i = 0; i < first.size() || i < second.size(); i++) {
+            if (i < first.size()) {
+                result.add(first.get(i));
+            }
+            if (i < second.size()) {
+                result.add(second.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static void closeQuietly(@NonNull Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package org.ligboy.android.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streams the records written by {@link LogFileSink} back, oldest segment first, decoding both
+ * the text and the binary encoding.
+ * <p>This class doesn't depend on the Android framework, so it can also be used on a desktop JVM
+ * to read segments pulled from a device:</p>
+ * <pre>
+ * adb pull /data/data/&lt;package&gt;/files/logs
+ * java -cp utils.jar org.ligboy.android.utils.LogFileReader logs
+ * </pre>
+ * <p>Or in code:</p>
+ * <pre>
+ * LogFileReader reader = new LogFileReader(directory);
+ * try {
+ *     LogFileReader.Record record;
+ *     while ((record = reader.read()) != null) {
+ *         out.println(record);
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class LogFileReader implements Closeable {
+
+    static final int MAGIC = 0x4C4F4753;
+    static final int VERSION_TEXT = 1;
+    static final int VERSION_BINARY = 2;
+
+    /** magic, version */
+    static final int TEXT_HEADER_SIZE = 8;
+    static final int TEXT_LENGTH_SIZE = 4;
+    /** time, priority, tag length, message length */
+    static final int TEXT_RECORD_OVERHEAD = 8 + 1 + 2 + 4;
+
+    /** magic, version, base time */
+    static final int BINARY_HEADER_SIZE = 16;
+    static final int BINARY_LENGTH_SIZE = 2;
+    static final int MAX_BINARY_BODY_LENGTH = 0xFFFF;
+    /**
+     * A binary record body starts with a header byte: the stack trace flag, the kind and the
+     * priority in the low nibble.
+     */
+    static final int KIND_SHIFT = 4;
+    static final int KIND_MASK = 0x07;
+    static final int FLAG_STACK_TRACE = 0x80;
+    /** varint ID, UTF-8 string */
+    static final int KIND_DICTIONARY = 1;
+    /** varint time delta, tag ID, format ID, argument count, zigzag varint arguments */
+    static final int KIND_LONG_ARGS = 2;
+    /** varint time delta, tag ID, format ID, argument count, typed arguments, stack trace */
+    static final int KIND_OBJECT_ARGS = 3;
+    /**
+     * The format ID of a record whose arguments are concatenated.
+     */
+    static final int FORMAT_CONCAT = 0;
+
+    static final int ARG_NULL = 0;
+    /** zigzag varint */
+    static final int ARG_LONG = 1;
+    static final int ARG_DOUBLE = 2;
+    static final int ARG_FLOAT = 3;
+    static final int ARG_TRUE = 4;
+    static final int ARG_FALSE = 5;
+    /** varint length, UTF-8 */
+    static final int ARG_STRING = 6;
+
+    private static final String SEGMENT_PREFIX = "log-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TIME_PATTERN = "MM-dd HH:mm:ss.SSS";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PRIORITY_LETTERS = "??VDIWEA";
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final File mDirectory;
+    private final int[] mSegmentIndexes;
+    private int mNextSegment;
+    private ByteBuffer mBuffer;
+    private int mVersion;
+    private SimpleDateFormat mDateFormat;
+
+    /**
+     * Binary decoding state of the current segment.
+     */
+    private final Map<Integer, String> mDictionary = new HashMap<>();
+    private final Map<Integer, LogTemplate> mTemplates = new HashMap<>();
+    private long mLastTime;
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    /**
+     * A log record.
+     */
+    public static final class Record {
+        public final long timeMillis;
+        public final int priority;
+        @NonNull
+        public final String tag;
+        @NonNull
+        public final String message;
+
+        Record(long timeMillis, int priority, @NonNull String tag, @NonNull String message) {
+            this.timeMillis = timeMillis;
+            this.priority = priority;
+            this.tag = tag;
+            this.message = message;
+        }
+
+        /**
+         * @return The letter of the priority as printed by logcat, {@code ?} if unknown.
+         */
+        public char getPriorityLetter() {
+            return priority >= 0 && priority < PRIORITY_LETTERS.length()
+                    ? PRIORITY_LETTERS.charAt(priority) : '?';
+        }
+
+        /**
+         * @return The record in logcat's {@code time} format.
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            try {
+                appendTo(sb, new SimpleDateFormat(TIME_PATTERN, Locale.US));
+            } catch (IOException ignored) {
+            }
+            return sb.toString();
+        }
+
+        void appendTo(@NonNull Appendable out, @NonNull SimpleDateFormat dateFormat)
+                throws IOException {
+            out.append(dateFormat.format(new Date(timeMillis)))
+                    .append(' ')
+                    .append(getPriorityLetter())
+                    .append('/')
+                    .append(tag)
+                    .append(": ")
+                    .append(message);
+        }
+    }
+
+    /**
+     * @param directory The directory {@link LogFileSink} writes into.
+     */
+    public LogFileReader(@NonNull File directory) {
+        mDirectory = directory;
+        mSegmentIndexes = listSegmentIndexes(directory);
+    }
+
+    /**
+     * Decode the segments of a directory to the standard output.
+     * @param args The directory.
+     * @throws IOException if a segment can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: LogFileReader <directory>");
+            System.exit(2);
+            return;
+        }
+        LogFileReader reader = new LogFileReader(new File(args[0]));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, UTF_8));
+        try {
+            reader.writeTo(out);
+        } finally {
+            reader.close();
+            out.flush();
+        }
+    }
+
+    /**
+     * Read the next record.
+     * @return The next record or null when all segments have been read.
+     * @throws IOException if a segment can't be read.
+     */
+    @Nullable
+    public Record read() throws IOException {
+        for (; ; ) {
+            if (mBuffer == null && !openNextSegment()) {
+                return null;
+            }
+            Record record = mVersion == VERSION_BINARY
+                    ? readBinaryRecord(mBuffer) : readTextRecord(mBuffer);
+            if (record != null) {
+                return record;
+            }
+            mBuffer = null;
+        }
+    }
+
+    /**
+     * Read all remaining records and write them as text, one per line.
+     * @param out The destination.
+     * @throws IOException if a segment can't be read or the destination can't be written.
+     */
+    public void writeTo(@NonNull Appendable out) throws IOException {
+        Record record;
+        while ((record = read()) != null) {
+            if (mDateFormat == null) {
+                mDateFormat = new SimpleDateFormat(TIME_PATTERN, Locale.US);
+            }
+            record.appendTo(out, mDateFormat);
+            out.append('\n');
+        }
+    }
+
+    @Override
+    public void close() {
+        mBuffer = null;
+        mNextSegment = mSegmentIndexes.length;
+    }
+
+    private boolean openNextSegment() throws IOException {
+        while (mNextSegment < mSegmentIndexes.length) {
+            File file = new File(mDirectory, segmentName(mSegmentIndexes[mNextSegment++]));
+            if (!file.isFile()) {
+                // Deleted by rotation since we listed the directory.
+                continue;
+            }
+            ByteBuffer buffer;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                randomAccessFile.close();
+            }
+            if (buffer.remaining() < TEXT_HEADER_SIZE || buffer.getInt() != MAGIC) {
+                continue;
+            }
+            int version = buffer.getInt();
+            if (version == VERSION_TEXT) {
+                mVersion = version;
+                mBuffer = buffer;
+                return true;
+            }
+            if (version == VERSION_BINARY
+                    && buffer.remaining() >= BINARY_HEADER_SIZE - TEXT_HEADER_SIZE) {
+                mVersion = version;
+                mLastTime = buffer.getLong();
+                mDictionary.clear();
+                mTemplates.clear();
+                mBuffer = buffer;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The next record of a text segment or null at the end of the segment.
+     */
+    @Nullable
+    private static Record readTextRecord(@NonNull ByteBuffer buffer) {
+        if (buffer.remaining() < TEXT_LENGTH_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt();
+        if (length < TEXT_RECORD_OVERHEAD || length > buffer.remaining()) {
+            // End of the written part, or a record torn by a crash.
+            return null;
+        }
+        int end = buffer.position() + length;
+        long time = buffer.getLong();
+        int priority = buffer.get();
+        String tag = readString(buffer, buffer.getShort() & 0xFFFF, end);
+        String message = tag != null && end - buffer.position() >= 4
+                ? readString(buffer, buffer.getInt(), end) : null;
+        if (message == null) {
+            return null;
+        }
+        buffer.position(end);
+        return new Record(time, priority, tag, message);
+    }
+
+    /**
+     * @return The next record of a binary segment or null at the end of the segment.
+     */
+    @Nullable
+    private Record readBinaryRecord(@NonNull ByteBuffer buffer) {
+        for (; ; ) {
+            if (buffer.remaining() < BINARY_LENGTH_SIZE) {
+                return null;
+            }
+            int length = buffer.getShort() & 0xFFFF;
+            if (length == 0 || length > buffer.remaining()) {
+                // End of the written part, or a record torn by a crash.
+                return null;
+            }
+            int end = buffer.position() + length;
+            int limit = buffer.limit();
+            // A corrupted record must not read into the next one.
+            buffer.limit(end);
+            try {
+                int header = buffer.get() & 0xFF;
+                int kind = (header >> KIND_SHIFT) & KIND_MASK;
+                if (kind == KIND_DICTIONARY) {
+                    int id = (int) readVarLong(buffer);
+                    String s = readString(buffer, end - buffer.position(), end);
+                    mDictionary.put(id, s);
+                    mTemplates.remove(id);
+                } else if (kind == KIND_LONG_ARGS || kind == KIND_OBJECT_ARGS) {
+                    return decodeRecord(buffer, kind, header, end);
+                }
+                // Unknown kinds are skipped.
+            } catch (BufferUnderflowException e) {
+                return null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            } finally {
+                buffer.limit(limit);
+            }
+            buffer.position(end);
+        }
+    }
+
+    @NonNull
+    private Record decodeRecord(@NonNull ByteBuffer buffer, int kind, int header, int end) {
+        long time = mLastTime + unZigZag(readVarLong(buffer));
+        mLastTime = time;
+        int tagId = (int) readVarLong(buffer);
+        int formatId = (int) readVarLong(buffer);
+        int argCount = (int) readVarLong(buffer);
+        if (argCount < 0 || argCount > end - buffer.position()) {
+            throw new IllegalArgumentException("Bad argument count " + argCount);
+        }
+        Object[] args = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = kind == KIND_LONG_ARGS
+                    ? Long.valueOf(unZigZag(readVarLong(buffer))) : readArg(buffer, end);
+        }
+        String stackTrace = (header & FLAG_STACK_TRACE) != 0
+                ? readString(buffer, (int) readVarLong(buffer), end) : null;
+
+        final StringBuilder sb = mBuilder;
+        sb.setLength(0);
+        if (formatId == FORMAT_CONCAT) {
+            for (Object arg : args) {
+                sb.append(arg);
+            }
+        } else {
+            LogTemplate template = templateOf(formatId);
+            if (template != null) {
+                template.appendTo(sb, args, argCount);
+            } else {
+                sb.append("<unknown format ").append(formatId).append('>');
+                for (Object arg : args) {
+                    sb.append(' ').append(arg);
+                }
+            }
+        }
+        if (stackTrace != null) {
+            sb.append('\n').append(stackTrace);
+        }
+        String tag = mDictionary.get(tagId);
+        buffer.position(end);
+        return new Record(time, header & 0x0F, tag != null ? tag : "", sb.toString());
+    }
+
+    @Nullable
+    private Object readArg(@NonNull ByteBuffer buffer, int end) {
+        int type = buffer.get();
+        switch (type) {
+            case ARG_NULL:
+                return null;
+            case ARG_LONG:
+                return unZigZag(readVarLong(buffer));
+            case ARG_DOUBLE:
+                return buffer.getDouble();
+            case ARG_FLOAT:
+                return buffer.getFloat();
+            case ARG_TRUE:
+                return Boolean.TRUE;
+            case ARG_FALSE:
+                return Boolean.FALSE;
+            case ARG_STRING:
+                return readString(buffer, (int) readVarLong(buffer), end);
+            default:
+                throw new IllegalArgumentException("Bad argument type " + type);
+        }
+    }
+
+    @Nullable
+    private LogTemplate templateOf(int formatId) {
+        LogTemplate template = mTemplates.get(formatId);
+        if (template == null) {
+            String pattern = mDictionary.get(formatId);
+            if (pattern != null) {
+                template = LogTemplate.compile(pattern);
+                mTemplates.put(formatId, template);
+            }
+        }
+        return template;
+    }
+
+    private static long readVarLong(@NonNull ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Nullable
+    private static String readString(@NonNull ByteBuffer buffer, int length, int end) {
+        if (length < 0 || length > end - buffer.position()) {
+            return null;
+        }
+        // Decoded by hand: String(byte[], Charset) is API 9, and the sink encodes unpaired
+        // surrogates as they are, which a charset decoder would replace.
+        char[] chars = new char[length];
+        int count = 0;
+        int stringEnd = buffer.position() + length;
+        while (buffer.position() < stringEnd) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b >= 0xC0 && b < 0xE0 && continuations(buffer, stringEnd, 1)) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+            } else if (b >= 0xE0 && b < 0xF0 && continuations(buffer, stringEnd, 2)) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6)
+                        | (buffer.get() & 0x3F));
+            } else if (b >= 0xF0 && b < 0xF8 && continuations(buffer, stringEnd, 3)) {
+                int codePoint = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12)
+                        | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F);
+                if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT
+                        && codePoint <= Character.MAX_CODE_POINT) {
+                    count += Character.toChars(codePoint, chars, count);
+                } else {
+                    chars[count++] = REPLACEMENT;
+                }
+            } else {
+                chars[count++] = REPLACEMENT;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * @return Whether the next {@code count} bytes before {@code end} are UTF-8 continuation
+     * bytes.
+     */
+    private static boolean continuations(@NonNull ByteBuffer buffer, int end, int count) {
+        int position = buffer.position();
+        if (end - position < count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if ((buffer.get(position + i) & 0xC0) != 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    static String segmentName(int index) {
+        return SEGMENT_PREFIX + String.format(Locale.US, "%08d", index) + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * @return The indexes of the segment files in the directory, ascending.
+     */
+    @NonNull
+    static int[] listSegmentIndexes(@NonNull File directory) {
+        String[] names = directory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        List<Integer> indexes = new ArrayList<>(names.length);
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    indexes.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        int[] result = new int[indexes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indexes.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+}
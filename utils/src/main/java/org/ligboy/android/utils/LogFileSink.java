@@ -0,0 +1,669 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.ligboy.android.utils.LogFileReader.ARG_DOUBLE;
+import static org.ligboy.android.utils.LogFileReader.ARG_FALSE;
+import static org.ligboy.android.utils.LogFileReader.ARG_FLOAT;
+import static org.ligboy.android.utils.LogFileReader.ARG_LONG;
+import static org.ligboy.android.utils.LogFileReader.ARG_NULL;
+import static org.ligboy.android.utils.LogFileReader.ARG_STRING;
+import static org.ligboy.android.utils.LogFileReader.ARG_TRUE;
+import static org.ligboy.android.utils.LogFileReader.BINARY_HEADER_SIZE;
+import static org.ligboy.android.utils.LogFileReader.BINARY_LENGTH_SIZE;
+import static org.ligboy.android.utils.LogFileReader.FLAG_STACK_TRACE;
+import static org.ligboy.android.utils.LogFileReader.FORMAT_CONCAT;
+import static org.ligboy.android.utils.LogFileReader.KIND_DICTIONARY;
+import static org.ligboy.android.utils.LogFileReader.KIND_LONG_ARGS;
+import static org.ligboy.android.utils.LogFileReader.KIND_OBJECT_ARGS;
+import static org.ligboy.android.utils.LogFileReader.KIND_SHIFT;
+import static org.ligboy.android.utils.LogFileReader.MAGIC;
+import static org.ligboy.android.utils.LogFileReader.MAX_BINARY_BODY_LENGTH;
+import static org.ligboy.android.utils.LogFileReader.TEXT_HEADER_SIZE;
+import static org.ligboy.android.utils.LogFileReader.TEXT_LENGTH_SIZE;
+import static org.ligboy.android.utils.LogFileReader.TEXT_RECORD_OVERHEAD;
+import static org.ligboy.android.utils.LogFileReader.VERSION_BINARY;
+import static org.ligboy.android.utils.LogFileReader.VERSION_TEXT;
+
+/**
+ * Memory-mapped rolling file sink for {@link LogUtil}.
+ * <p>Records are appended into a {@link MappedByteBuffer} segment file, so an append is a plain
+ * memory copy without a syscall, and the kernel writes the dirty pages back even if the process
+ * dies. Segments are rotated by size and only the newest ones are kept.</p>
+ * <p>A segment starts with a header (magic, version) followed by records. Each record starts
+ * with the length of its body, which is written last, so a record torn by a crash reads as the
+ * end of the segment.</p>
+ * <ul>
+ *     <li>{@link #ENCODING_TEXT}: a record body is {@code long time, byte priority,
+ *     short tag length, tag UTF-8, int message length, message UTF-8}.</li>
+ *     <li>{@link #ENCODING_BINARY}: {@link LogUtil} doesn't format the message at all. A record
+ *     holds the varint time delta to the previous record, the dictionary IDs of the tag and of
+ *     the {@link LogTemplate} pattern and the raw arguments. Each tag and pattern is written
+ *     once per segment into the dictionary, so a typical template record takes about a dozen
+ *     bytes instead of the 50 or more of its text form.</li>
+ * </ul>
+ * <p>Read the segments back with {@link LogFileReader}, also from the command line.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class LogFileSink {
+
+    /**
+     * Store formatted messages.
+     */
+    public static final int ENCODING_TEXT = 0;
+    /**
+     * Store compact binary records with the raw arguments.
+     */
+    public static final int ENCODING_BINARY = 1;
+
+    @IntDef({ENCODING_TEXT, ENCODING_BINARY})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Encoding {}
+
+    private static final String DEFAULT_DIRECTORY = "logs";
+    private static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_SEGMENTS = 8;
+    private static final int MIN_SEGMENT_SIZE = 16 * 1024;
+    private static final int MAX_TAG_LENGTH = 255;
+    /**
+     * The maximum number of UTF-8 bytes of a dictionary string, longer ones are truncated.
+     */
+    private static final int MAX_DICTIONARY_BYTES = 3 * 1024;
+    private static final int MAX_VARINT_SIZE = 10;
+    private static final int MAX_VARINT32_SIZE = 5;
+    /** header byte, time delta, tag ID, format ID, argument count, stack trace length */
+    private static final int BINARY_RECORD_OVERHEAD = 1 + MAX_VARINT_SIZE + 4 * MAX_VARINT32_SIZE;
+    /** type, value */
+    private static final int MAX_ARG_SIZE = 1 + MAX_VARINT_SIZE;
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+    private final int mEncoding;
+    private final int mMaxBinaryBodyLength;
+
+    private MappedByteBuffer mBuffer;
+    private int mSegmentIndex;
+    private boolean mClosed;
+
+    /** The dictionary of the current segment. */
+    private final Map<String, Integer> mDictionary = new HashMap<>();
+    private int mNextId;
+    private long mLastTime;
+    /** Scratch space of binary appends, guarded by the sink lock. */
+    private final Object[] mArgs = new Object[AsyncLogWriter.MAX_ARGS];
+    private int[] mArgTypes = new int[AsyncLogWriter.MAX_ARGS];
+    private String[] mArgStrings = new String[AsyncLogWriter.MAX_ARGS];
+    /**
+     * The number of binary appends in progress on the locking thread. The {@code toString()} of
+     * an argument may log again, a nested append must not use the scratch space.
+     */
+    private int mDepth;
+
+    private LogFileSink(@NonNull File directory, int segmentSize, int maxSegments,
+                        @Encoding int encoding) {
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMaxSegments = maxSegments;
+        mEncoding = encoding;
+        // Any record must fit into a fresh segment together with two new dictionary entries.
+        mMaxBinaryBodyLength = Math.min(MAX_BINARY_BODY_LENGTH, segmentSize - BINARY_HEADER_SIZE
+                - BINARY_LENGTH_SIZE - 2 * dictionaryRecordSize());
+    }
+
+    /**
+     * Open a text sink that writes into {@code logs} under {@link Context#getFilesDir()} with
+     * 1 MiB segments, keeping the 8 newest.
+     * @param context Context
+     * @return The sink.
+     * @throws IOException if the first segment can't be created.
+     */
+    @NonNull
+    public static LogFileSink open(@NonNull Context context) throws IOException {
+        return open(context, ENCODING_TEXT);
+    }
+
+    /**
+     * Open a sink that writes into {@code logs} under {@link Context#getFilesDir()} with 1 MiB
+     * segments, keeping the 8 newest.
+     * @param context Context
+     * @param encoding The encoding of the records.
+     * @return The sink.
+     * @throws IOException if the first segment can't be created.
+     */
+    @NonNull
+    public static LogFileSink open(@NonNull Context context, @Encoding int encoding)
+            throws IOException {
+        return open(new File(context.getFilesDir(), DEFAULT_DIRECTORY),
+                DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, encoding);
+    }
+
+    /**
+     * Open a text sink.
+     * @see #open(File, int, int, int)
+     */
+    @NonNull
+    public static LogFileSink open(@NonNull File directory, int segmentSize, int maxSegments)
+            throws IOException {
+        return open(directory, segmentSize, maxSegments, ENCODING_TEXT);
+    }
+
+    /**
+     * Open a sink. A new segment is always started, existing segments are kept and read back
+     * before it.
+     * @param directory The directory of the segment files. Usually under
+     *                  {@link Context#getFilesDir()} or {@link Context#getCacheDir()}.
+     * @param segmentSize The size of a segment file in bytes, at least 16 KiB.
+     * @param maxSegments The maximum number of segment files kept, older ones are deleted.
+     * @param encoding The encoding of the records.
+     * @return The sink.
+     * @throws IOException if the first segment can't be created.
+     */
+    @NonNull
+    public static LogFileSink open(@NonNull File directory, int segmentSize, int maxSegments,
+                                   @Encoding int encoding) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be at least " + MIN_SEGMENT_SIZE);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        LogFileSink sink = new LogFileSink(directory, segmentSize, maxSegments, encoding);
+        int[] indexes = LogFileReader.listSegmentIndexes(directory);
+        sink.mSegmentIndex = indexes.length > 0 ? indexes[indexes.length - 1] : 0;
+        sink.rotate();
+        return sink;
+    }
+
+    /**
+     * @return The directory of the segment files.
+     */
+    @NonNull
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @return Whether records are stored in the binary encoding.
+     */
+    public boolean isBinary() {
+        return mEncoding == ENCODING_BINARY;
+    }
+
+    /**
+     * Append a formatted record.
+     * @param timeMillis The wall clock time of the record.
+     * @param priority The priority of the record, one of {@link android.util.Log} levels.
+     * @param tag The tag.
+     * @param message The message, it is truncated if it doesn't fit in one segment.
+     */
+    public synchronized void append(long timeMillis, int priority, @Nullable String tag,
+                                    @Nullable String message) {
+        if (mClosed) {
+            return;
+        }
+        if (mEncoding == ENCODING_BINARY) {
+            final Object[] args = mDepth == 0 ? mArgs : new Object[1];
+            args[0] = message;
+            try {
+                appendObjects(timeMillis, priority, tag, null, null, args, 1);
+            } finally {
+                args[0] = null;
+            }
+            return;
+        }
+        if (tag == null) {
+            tag = "";
+        }
+        if (message == null) {
+            message = "null";
+        }
+        int tagLength = Math.min(tag.length(), MAX_TAG_LENGTH);
+        int tagBytes = utf8Length(tag, tagLength);
+        int messageLength = utf8PrefixLength(message, mSegmentSize - TEXT_HEADER_SIZE
+                - TEXT_LENGTH_SIZE - TEXT_RECORD_OVERHEAD - tagBytes);
+        int messageBytes = utf8Length(message, messageLength);
+        int bodyLength = TEXT_RECORD_OVERHEAD + tagBytes + messageBytes;
+        MappedByteBuffer buffer = ensureCapacity(TEXT_LENGTH_SIZE + bodyLength);
+        if (buffer == null) {
+            return;
+        }
+        int start = buffer.position();
+        buffer.position(start + TEXT_LENGTH_SIZE);
+        buffer.putLong(timeMillis);
+        buffer.put((byte) priority);
+        buffer.putShort((short) tagBytes);
+        putUtf8(buffer, tag, tagLength);
+        buffer.putInt(messageBytes);
+        putUtf8(buffer, message, messageLength);
+        // Publish the record last, a torn record reads as the end of the segment.
+        buffer.putInt(start, bodyLength);
+    }
+
+    /**
+     * Append a multi-part record without formatting it. Binary encoding only.
+     */
+    synchronized void append(long timeMillis, int priority, @Nullable String tag,
+                             @Nullable String stackTrace, @Nullable Object[] messages) {
+        if (!mClosed) {
+            appendObjects(timeMillis, priority, tag, null, stackTrace,
+                    messages, messages != null ? messages.length : 0);
+        }
+    }
+
+    /**
+     * Append a template record without formatting it. Binary encoding only.
+     */
+    synchronized void append(long timeMillis, int priority, @Nullable String tag,
+                             @NonNull LogTemplate template, int argCount,
+                             Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (mClosed) {
+            return;
+        }
+        final Object[] args = mDepth == 0 ? mArgs : new Object[AsyncLogWriter.MAX_ARGS];
+        args[0] = arg0;
+        args[1] = arg1;
+        args[2] = arg2;
+        args[3] = arg3;
+        try {
+            appendObjects(timeMillis, priority, tag, template, null, args, argCount);
+        } finally {
+            args[0] = args[1] = args[2] = args[3] = null;
+        }
+    }
+
+    /**
+     * Append a template record with primitive arguments without formatting it or allocating.
+     * Binary encoding only.
+     */
+    synchronized void append(long timeMillis, int priority, @Nullable String tag,
+                             @NonNull LogTemplate template, int argCount,
+                             long arg0, long arg1, long arg2, long arg3) {
+        if (mClosed) {
+            return;
+        }
+        if (tag == null) {
+            tag = "";
+        }
+        String pattern = template.getPattern();
+        MappedByteBuffer buffer = ensureBinaryCapacity(tag, pattern,
+                BINARY_RECORD_OVERHEAD + argCount * MAX_VARINT_SIZE);
+        if (buffer == null) {
+            return;
+        }
+        int start = beginBinaryRecord(buffer, KIND_LONG_ARGS, false, priority, timeMillis,
+                intern(buffer, tag), intern(buffer, pattern), argCount);
+        for (int i = 0; i < argCount; i++) {
+            putVarLong(buffer, zigZag(i == 0 ? arg0 : i == 1 ? arg1 : i == 2 ? arg2 : arg3));
+        }
+        endBinaryRecord(buffer, start);
+    }
+
+    /**
+     * Force the mapped pages of the current segment to storage.
+     * <p>Not needed for surviving a process death, only for surviving a device crash.</p>
+     */
+    public synchronized void force() {
+        if (mBuffer != null) {
+            mBuffer.force();
+        }
+    }
+
+    /**
+     * Force the current segment to storage and stop accepting records.
+     */
+    public synchronized void close() {
+        force();
+        mBuffer = null;
+        mClosed = true;
+    }
+
+    private void appendObjects(long timeMillis, int priority, @Nullable String tag,
+                               @Nullable LogTemplate template, @Nullable String stackTrace,
+                               @Nullable Object[] args, int argCount) {
+        if (tag == null) {
+            tag = "";
+        }
+        String pattern = template != null ? template.getPattern() : null;
+        final int[] types;
+        final String[] strings;
+        if (mDepth == 0) {
+            if (mArgTypes.length < argCount) {
+                mArgTypes = new int[argCount];
+                mArgStrings = new String[argCount];
+            }
+            types = mArgTypes;
+            strings = mArgStrings;
+        } else {
+            types = new int[argCount];
+            strings = new String[argCount];
+        }
+        mDepth++;
+        try {
+            appendObjects(timeMillis, priority, tag, pattern, stackTrace, args, argCount,
+                    types, strings);
+        } finally {
+            mDepth--;
+            for (int i = 0; i < argCount; i++) {
+                strings[i] = null;
+            }
+        }
+    }
+
+    private void appendObjects(long timeMillis, int priority, @NonNull String tag,
+                               @Nullable String pattern, @Nullable String stackTrace,
+                               @Nullable Object[] args, int argCount,
+                               @NonNull int[] types, @NonNull String[] strings) {
+        // Size the record, strings share what is left of the maximum body length.
+        // Arguments are stringified first, a nested append may write records and rotate.
+        int fixedLength = BINARY_RECORD_OVERHEAD;
+        long stringLength = stackTrace != null ? utf8Length(stackTrace, stackTrace.length()) : 0;
+        for (int i = 0; i < argCount; i++) {
+            if (fixedLength + MAX_ARG_SIZE > mMaxBinaryBodyLength) {
+                // Absurdly many parts, keep what fits.
+                argCount = i;
+                break;
+            }
+            Object arg = args[i];
+            int type = argType(arg);
+            types[i] = type;
+            fixedLength += MAX_ARG_SIZE;
+            if (type == ARG_STRING) {
+                String s = String.valueOf(arg.toString());
+                strings[i] = s;
+                stringLength += utf8Length(s, s.length());
+            }
+        }
+        if (mClosed) {
+            // Closed by a nested append.
+            return;
+        }
+        int stringBudget = mMaxBinaryBodyLength - fixedLength;
+        MappedByteBuffer buffer = ensureBinaryCapacity(tag, pattern,
+                fixedLength + (int) Math.min(stringLength, stringBudget));
+        if (buffer == null) {
+            return;
+        }
+        int start = beginBinaryRecord(buffer, KIND_OBJECT_ARGS, stackTrace != null, priority,
+                timeMillis, intern(buffer, tag),
+                pattern != null ? intern(buffer, pattern) : FORMAT_CONCAT, argCount);
+        for (int i = 0; i < argCount; i++) {
+            int type = types[i];
+            buffer.put((byte) type);
+            switch (type) {
+                case ARG_LONG:
+                    putVarLong(buffer, zigZag(((Number) args[i]).longValue()));
+                    break;
+                case ARG_DOUBLE:
+                    buffer.putDouble((Double) args[i]);
+                    break;
+                case ARG_FLOAT:
+                    buffer.putFloat((Float) args[i]);
+                    break;
+                case ARG_STRING:
+                    stringBudget -= putString(buffer, strings[i], stringBudget);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (stackTrace != null) {
+            putString(buffer, stackTrace, stringBudget);
+        }
+        endBinaryRecord(buffer, start);
+    }
+
+    private static int argType(@Nullable Object arg) {
+        if (arg == null) {
+            return ARG_NULL;
+        } else if (arg instanceof Long || arg instanceof Integer
+                || arg instanceof Short || arg instanceof Byte) {
+            return ARG_LONG;
+        } else if (arg instanceof Double) {
+            return ARG_DOUBLE;
+        } else if (arg instanceof Float) {
+            return ARG_FLOAT;
+        } else if (arg instanceof Boolean) {
+            return (Boolean) arg ? ARG_TRUE : ARG_FALSE;
+        }
+        return ARG_STRING;
+    }
+
+    /**
+     * Make sure the current segment has room for a binary record and the dictionary entries of
+     * its tag and pattern, rotating if needed. A new segment starts with an empty dictionary.
+     */
+    @Nullable
+    private MappedByteBuffer ensureBinaryCapacity(@NonNull String tag, @Nullable String pattern,
+                                                  int bodyLength) {
+        int size = BINARY_LENGTH_SIZE + bodyLength;
+        if (!mDictionary.containsKey(tag)) {
+            size += dictionaryRecordSize();
+        }
+        if (pattern != null && !mDictionary.containsKey(pattern)) {
+            size += dictionaryRecordSize();
+        }
+        return ensureCapacity(size);
+    }
+
+    /**
+     * @return The dictionary ID of a string, writing a dictionary record when it is new.
+     */
+    private int intern(@NonNull MappedByteBuffer buffer, @NonNull String s) {
+        Integer id = mDictionary.get(s);
+        if (id != null) {
+            return id;
+        }
+        int newId = mNextId++;
+        mDictionary.put(s, newId);
+        int start = buffer.position();
+        buffer.position(start + BINARY_LENGTH_SIZE);
+        buffer.put((byte) (KIND_DICTIONARY << KIND_SHIFT));
+        putVarLong(buffer, newId);
+        putUtf8(buffer, s, utf8PrefixLength(s, MAX_DICTIONARY_BYTES));
+        endBinaryRecord(buffer, start);
+        return newId;
+    }
+
+    private int beginBinaryRecord(@NonNull MappedByteBuffer buffer, int kind, boolean stackTrace,
+                                  int priority, long timeMillis, int tagId, int formatId,
+                                  int argCount) {
+        int start = buffer.position();
+        buffer.position(start + BINARY_LENGTH_SIZE);
+        buffer.put((byte) ((kind << KIND_SHIFT) | (stackTrace ? FLAG_STACK_TRACE : 0)
+                | (priority & 0x0F)));
+        putVarLong(buffer, zigZag(timeMillis - mLastTime));
+        mLastTime = timeMillis;
+        putVarLong(buffer, tagId);
+        putVarLong(buffer, formatId);
+        putVarLong(buffer, argCount);
+        return start;
+    }
+
+    private static void endBinaryRecord(@NonNull MappedByteBuffer buffer, int start) {
+        // Publish the record last, a torn record reads as the end of the segment.
+        buffer.putShort(start, (short) (buffer.position() - start - BINARY_LENGTH_SIZE));
+    }
+
+    /**
+     * Write a varint length and the UTF-8 of at most {@code maxBytes} bytes of a string.
+     * @return The number of string bytes written.
+     */
+    private static int putString(@NonNull MappedByteBuffer buffer, @NonNull String s,
+                                 int maxBytes) {
+        int length = utf8PrefixLength(s, maxBytes);
+        int bytes = utf8Length(s, length);
+        putVarLong(buffer, bytes);
+        putUtf8(buffer, s, length);
+        return bytes;
+    }
+
+    private static int dictionaryRecordSize() {
+        return BINARY_LENGTH_SIZE + 1 + MAX_VARINT32_SIZE + MAX_DICTIONARY_BYTES;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void putVarLong(@NonNull MappedByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Make sure the current segment has room for {@code size} bytes, rotating if needed.
+     * @return The buffer of the current segment or null if no segment could be opened.
+     */
+    @Nullable
+    private MappedByteBuffer ensureCapacity(int size) {
+        if (mBuffer == null || mBuffer.remaining() < size) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                mBuffer = null;
+                return null;
+            }
+        }
+        return mBuffer;
+    }
+
+    private void rotate() throws IOException {
+        if (mBuffer != null) {
+            mBuffer.force();
+            mBuffer = null;
+        }
+        mSegmentIndex++;
+        File file = new File(mDirectory, LogFileReader.segmentName(mSegmentIndex));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(mSegmentSize);
+            FileChannel channel = randomAccessFile.getChannel();
+            mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            randomAccessFile.close();
+        }
+        mBuffer.putInt(MAGIC);
+        if (mEncoding == ENCODING_BINARY) {
+            mLastTime = System.currentTimeMillis();
+            mBuffer.putInt(VERSION_BINARY);
+            mBuffer.putLong(mLastTime);
+            mDictionary.clear();
+            mNextId = FORMAT_CONCAT + 1;
+        } else {
+            mBuffer.putInt(VERSION_TEXT);
+        }
+        deleteOldSegments();
+    }
+
+    private void deleteOldSegments() {
+        int[] indexes = LogFileReader.listSegmentIndexes(mDirectory);
+        for (int i = 0; i < indexes.length - mMaxSegments; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, LogFileReader.segmentName(indexes[i])).delete();
+        }
+    }
+
+    /**
+     * @return The number of bytes of the first {@code length} chars in UTF-8.
+     */
+    static int utf8Length(@NonNull String s, int length) {
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The number of leading chars whose UTF-8 fits in {@code maxBytes}, never splitting
+     * a surrogate pair.
+     */
+    static int utf8PrefixLength(@NonNull String s, int maxBytes) {
+        final int length = s.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            int charBytes;
+            if (c < 0x80) {
+                charBytes = 1;
+            } else if (c < 0x800) {
+                charBytes = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                if (bytes + 4 > maxBytes) {
+                    return i;
+                }
+                bytes += 4;
+                i++;
+                continue;
+            } else {
+                charBytes = 3;
+            }
+            if (bytes + charBytes > maxBytes) {
+                return i;
+            }
+            bytes += charBytes;
+        }
+        return length;
+    }
+
+    /**
+     * Encode the first {@code length} chars in UTF-8 without allocating.
+     * Unpaired surrogates are encoded as they are, like {@link java.io.DataOutput#writeUTF}.
+     */
+    static void putUtf8(@NonNull MappedByteBuffer buffer, @NonNull String s, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
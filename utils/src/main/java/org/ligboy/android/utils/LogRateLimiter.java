@@ -0,0 +1,96 @@
+package org.ligboy.android.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-tag rate limiter and sampler of {@link LogUtil}.
+ * <p>The rate limit is a lock-free token bucket in its GCRA form: a single {@link AtomicLong}
+ * holds the theoretical arrival time of the next record, so admitting a record is one CAS.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+final class LogRateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final float mPermitsPerSecond;
+    private final int mBurst;
+    private final int mSampleRate;
+    /**
+     * Nanoseconds between two records at the sustained rate, 0 for no rate limit.
+     */
+    private final long mIntervalNanos;
+    /**
+     * How far the theoretical arrival time may run ahead of now, that is the burst.
+     */
+    private final long mToleranceNanos;
+
+    private final AtomicLong mTheoreticalArrival;
+    private final AtomicInteger mSampleCounter = new AtomicInteger();
+    private final AtomicInteger mSuppressed = new AtomicInteger();
+
+    /**
+     * @param permitsPerSecond The sustained rate, 0 for no rate limit.
+     * @param burst The number of records admitted at once after an idle period.
+     * @param sampleRate Admit one in this many records, 1 for no sampling.
+     */
+    LogRateLimiter(float permitsPerSecond, int burst, int sampleRate) {
+        if (permitsPerSecond < 0) {
+            throw new IllegalArgumentException("permitsPerSecond must not be negative");
+        }
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate must be positive");
+        }
+        mPermitsPerSecond = permitsPerSecond;
+        mBurst = Math.max(burst, 1);
+        mSampleRate = sampleRate;
+        mIntervalNanos = permitsPerSecond > 0 ? (long) (NANOS_PER_SECOND / permitsPerSecond) : 0;
+        mToleranceNanos = mIntervalNanos * (mBurst - 1);
+        mTheoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    float getPermitsPerSecond() {
+        return mPermitsPerSecond;
+    }
+
+    int getBurst() {
+        return mBurst;
+    }
+
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return Whether a record may be logged now. A record refused by the rate limit is counted
+     * for {@link #takeSuppressedCount()}, one skipped by sampling isn't.
+     */
+    boolean tryAcquire() {
+        if (mSampleRate > 1
+                && (mSampleCounter.getAndIncrement() & Integer.MAX_VALUE) % mSampleRate != 0) {
+            return false;
+        }
+        if (mIntervalNanos == 0) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        for (; ; ) {
+            final long arrival = mTheoreticalArrival.get();
+            final long start = arrival - now > 0 ? arrival : now;
+            if (start - now > mToleranceNanos) {
+                mSuppressed.incrementAndGet();
+                return false;
+            }
+            if (mTheoreticalArrival.compareAndSet(arrival, start + mIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of records refused by the rate limit since the last call.
+     */
+    int takeSuppressedCount() {
+        return mSuppressed.get() == 0 ? 0 : mSuppressed.getAndSet(0);
+    }
+}
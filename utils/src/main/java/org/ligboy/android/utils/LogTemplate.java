@@ -0,0 +1,128 @@
+package org.ligboy.android.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A precompiled log message template.
+ * <p>Every {@code {}} in the pattern is a placeholder for one argument. The pattern is split once
+ * when the template is created, so formatting is deferred until a record has passed the level
+ * check and never has to parse the pattern again.</p>
+ * <pre>
+ * private static final LogTemplate LOADED = LogTemplate.compile("Loaded {} items in {} ms");
+ *
+ * LogUtil.d(TAG, LOADED, count, elapsed);
+ * </pre>
+ * <p>Integral arguments are passed without boxing only if every argument of the call is
+ * integral; see {@link LogUtil} for the argument sets that allocate.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class LogTemplate {
+
+    private static final String PLACEHOLDER = "{}";
+
+    private final String mPattern;
+    private final String[] mSegments;
+
+    private LogTemplate(@NonNull String pattern, @NonNull String[] segments) {
+        mPattern = pattern;
+        mSegments = segments;
+    }
+
+    /**
+     * Compile a template. Keep the result in a static field.
+     * @param pattern The pattern, {@code {}} marks a placeholder.
+     * @return The compiled template.
+     */
+    @NonNull
+    public static LogTemplate compile(@NonNull String pattern) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int index;
+        while ((index = pattern.indexOf(PLACEHOLDER, start)) >= 0) {
+            segments.add(pattern.substring(start, index));
+            start = index + PLACEHOLDER.length();
+        }
+        segments.add(pattern.substring(start));
+        return new LogTemplate(pattern, segments.toArray(new String[segments.size()]));
+    }
+
+    /**
+     * @return The source pattern.
+     */
+    @NonNull
+    public String getPattern() {
+        return mPattern;
+    }
+
+    /**
+     * @return The number of placeholders.
+     */
+    public int getPlaceholderCount() {
+        return mSegments.length - 1;
+    }
+
+    /**
+     * Append the template to a builder, substituting the arguments in order.
+     * <p>Placeholders without an argument are kept as {@code {}}, extra arguments are ignored.</p>
+     */
+    void appendTo(@NonNull StringBuilder builder, int argCount,
+                  long arg0, long arg1, long arg2, long arg3) {
+        final String[] segments = mSegments;
+        builder.append(segments[0]);
+        for (int i = 1; i < segments.length; i++) {
+            switch (i <= argCount ? i : 0) {
+                case 1: builder.append(arg0); break;
+                case 2: builder.append(arg1); break;
+                case 3: builder.append(arg2); break;
+                case 4: builder.append(arg3); break;
+                default: builder.append(PLACEHOLDER); break;
+            }
+            builder.append(segments[i]);
+        }
+    }
+
+    /**
+     * Append the template to a builder, substituting the arguments in order.
+     * <p>Placeholders without an argument are kept as {@code {}}, extra arguments are ignored.</p>
+     */
+    void appendTo(@NonNull StringBuilder builder, int argCount,
+                  Object arg0, Object arg1, Object arg2, Object arg3) {
+        final String[] segments = mSegments;
+        builder.append(segments[0]);
+        for (int i = 1; i < segments.length; i++) {
+            switch (i <= argCount ? i : 0) {
+                case 1: builder.append(arg0); break;
+                case 2: builder.append(arg1); break;
+                case 3: builder.append(arg2); break;
+                case 4: builder.append(arg3); break;
+                default: builder.append(PLACEHOLDER); break;
+            }
+            builder.append(segments[i]);
+        }
+    }
+
+    /**
+     * Append the template to a builder, substituting the arguments in order.
+     * <p>Placeholders without an argument are kept as {@code {}}, extra arguments are ignored.</p>
+     */
+    void appendTo(@NonNull StringBuilder builder, @NonNull Object[] args, int argCount) {
+        final String[] segments = mSegments;
+        builder.append(segments[0]);
+        for (int i = 1; i < segments.length; i++) {
+            if (i <= argCount) {
+                builder.append(args[i - 1]);
+            } else {
+                builder.append(PLACEHOLDER);
+            }
+            builder.append(segments[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mPattern;
+    }
+}
@@ -2,14 +2,30 @@ package org.ligboy.android.utils;
 
 import android.app.Application;
 import android.content.Context;
+import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Log util
+ * <p>Obtain a {@link Logger} once per class or tag to get a precomputed tag and a per-tag level
+ * that can be changed at runtime.</p>
+ * <p>For hot paths, prefer the {@link LogTemplate} overloads: they take up to four primitive or
+ * object arguments without a varargs array and defer all formatting until after the level
+ * check.</p>
+ * <p>Only two argument sets have overloads: all {@code long}, which also takes {@code int},
+ * {@code short}, {@code byte} and {@code char}, and all {@code Object}. A call is free of
+ * allocations when its arguments are all integral or all references. {@code float},
+ * {@code double} and {@code boolean} arguments are boxed, and so are the primitives of a call
+ * that mixes them with objects, such as {@code d(TAG, T, count, name)}, which resolves to the
+ * {@code Object} overload. Boxing only happens after the level check, but on a hot enabled path
+ * pass such values as integers instead, for example milliseconds rather than seconds.</p>
  * <p>Remove logging by proguard</p>
  * <pre color="blue">
  * #Remove logging
@@ -20,17 +36,102 @@ import java.lang.reflect.Field;
  *     public static void d(...);
  *     public static void e(...);
  * }
+ * -assumenosideeffects class org.ligboy.android.utils.LogUtil$Logger {
+ *     public void v(...);
+ *     public void i(...);
+ *     public void w(...);
+ *     public void d(...);
+ *     public void e(...);
+ * }
  * </pre>
  * @author Ligboy.Liu ligboy@gmail.com.
  */
 public final class LogUtil {
 
+    /**
+     * Drop the record when the asynchronous ring buffer is full.
+     */
+    public static final int OVERFLOW_DROP = 0;
+    /**
+     * Block the calling thread until the asynchronous ring buffer has room for the record.
+     */
+    public static final int OVERFLOW_BLOCK = 1;
+
+    @IntDef({OVERFLOW_DROP, OVERFLOW_BLOCK})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface OverflowPolicy {}
+
+    /**
+     * The level that suppresses every record.
+     */
+    public static final int OFF = Log.ASSERT + 1;
+
+    @IntDef({Log.VERBOSE, Log.DEBUG, Log.INFO, Log.WARN, Log.ERROR, Log.ASSERT, OFF})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Level {}
+
     private static final int MAX_LOG_TAG_LENGTH = 23;
+    private static final int MESSAGE_BUILDER_CAPACITY = 256;
+    private static final int MAX_MESSAGE_BUILDER_CAPACITY = 8192;
+
+    /**
+     * Per-thread message builder. The slot is emptied while the builder is in use, so a
+     * message whose {@code toString()} logs again gets a fresh builder instead of a corrupted one.
+     */
+    private static final ThreadLocal<StringBuilder> sMessageBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(MESSAGE_BUILDER_CAPACITY);
+        }
+    };
 
     private static boolean sInitialized;
     private static boolean sDebug;
-    private static String sTagPrefix;
-    private static int sTagPrefixLength;
+    /**
+     * The global minimum level, read by every static log call.
+     */
+    private static volatile int sLevel = OFF;
+    /**
+     * Whether {@link #sLevel} was set by {@link #setLevel(int)} rather than derived from the
+     * outputs. Guarded by {@link #sLoggers}.
+     */
+    private static boolean sLevelExplicit;
+    private static volatile String sTagPrefix;
+    /**
+     * Logger handles by the tag they were obtained with.
+     */
+    private static final ConcurrentHashMap<String, Logger> sLoggers = new ConcurrentHashMap<>();
+    /**
+     * Per-tag minimum levels by log tag, read by every static log call. Written with
+     * {@link #sLoggers} held.
+     */
+    private static final ConcurrentHashMap<String, Integer> sTagLevels = new ConcurrentHashMap<>();
+    private static volatile boolean sHasTagLevels;
+    /**
+     * Rate limiters by log tag. Written with {@link #sLoggers} held.
+     */
+    private static final ConcurrentHashMap<String, LogRateLimiter> sLimiters = new ConcurrentHashMap<>();
+    private static volatile boolean sHasLimiters;
+    private static final LogTemplate SUPPRESSED_TEMPLATE = LogTemplate.compile("{} messages suppressed");
+    private static volatile AsyncLogWriter sAsyncWriter;
+    /**
+     * The ring buffer capacity of asynchronous mode, 0 in synchronous mode or after
+     * {@link #shutdown()}. Guarded by {@link #sLoggers}.
+     */
+    private static int sAsyncCapacity;
+    private static int sAsyncOverflowPolicy;
+    private static volatile LogFileSink sFileSink;
+    /**
+     * Counters of the records logged, by priority.
+     */
+    private static final Metrics.Counter[] sRecordCounters = new Metrics.Counter[Log.ASSERT + 1];
+
+    static {
+        String[] levelNames = {"verbose", "debug", "info", "warn", "error", "assert"};
+        for (int i = 0; i < levelNames.length; i++) {
+            sRecordCounters[Log.VERBOSE + i] = Metrics.counter("log.records." + levelNames[i]);
+        }
+    }
 
     private LogUtil() {
         throw new IllegalAccessError();
@@ -48,8 +149,14 @@ public final class LogUtil {
         }
         sDebug = debug;
         sTagPrefix = prefix;
-        sTagPrefixLength = prefix != null ? prefix.length() : 0;
         sInitialized = true;
+        synchronized (sLoggers) {
+            // Loggers obtained before initialization were created without the prefix.
+            for (Logger logger : sLoggers.values()) {
+                logger.mTag = makeLogTag(logger.mSourceTag);
+            }
+            updateLevels();
+        }
     }
 
     /**
@@ -61,6 +168,35 @@ public final class LogUtil {
         initialize(debug, null);
     }
 
+    /**
+     * Initialize the log util once in asynchronous mode.
+     * <p/>Records are pushed into a preallocated lock-free ring buffer and a single background
+     * thread formats and writes them, so the calling thread never pays for formatting or the
+     * logcat write. Messages are formatted later on the background thread, so don't mutate
+     * them after the call. Call {@link #flush()} before the process is expected to die and
+     * {@link #shutdown()} to stop the background thread.
+     * <p/>The background thread is started once there is an output, that is a debug build or a
+     * file sink set by {@link #setFileSink(LogFileSink)}.
+     * @param debug debuggable. Usually, It's BuildConfig.DEBUG.
+     * @param prefix The prefix of log tag.
+     * @param capacity The capacity of the ring buffer, rounded up to a power of two.
+     * @param overflowPolicy What to do when the ring buffer is full.
+     */
+    public static void initialize(boolean debug, @Nullable String prefix, int capacity,
+                                  @OverflowPolicy int overflowPolicy) {
+        if (sInitialized) {
+            return;
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        synchronized (sLoggers) {
+            sAsyncCapacity = capacity;
+            sAsyncOverflowPolicy = overflowPolicy;
+        }
+        initialize(debug, prefix);
+    }
+
     /**
      * Initialize the log util once.
      * @param context Context
@@ -89,17 +225,235 @@ public final class LogUtil {
         initialize(context, null);
     }
 
+    /**
+     * Set the file sink that records are also appended to, so they survive process death.
+     * <p/>Records go to the sink even when logcat output is disabled in release builds. With a
+     * {@link LogFileSink#ENCODING_BINARY} sink records aren't formatted at all unless they are
+     * also printed to logcat.
+     * @param sink The sink, null to stop writing to the current one. The previous sink is not
+     *             closed.
+     * @see LogFileSink#open(Context, int)
+     */
+    public static void setFileSink(@Nullable LogFileSink sink) {
+        synchronized (sLoggers) {
+            sFileSink = sink;
+            updateLevels();
+        }
+    }
+
+    /**
+     * Set the global minimum level at runtime, for example from a debug menu or a config push.
+     * <p/>It applies to the static log methods and to every {@link Logger} without a level of
+     * its own. By default it is {@link Log#VERBOSE} when there is an output, that is a debug
+     * build or a file sink, and {@link #OFF} otherwise.
+     * @param level The minimum level.
+     */
+    public static void setLevel(@Level int level) {
+        synchronized (sLoggers) {
+            sLevel = level;
+            sLevelExplicit = true;
+            updateLevels();
+        }
+    }
+
+    /**
+     * @return The global minimum level.
+     */
+    @Level
+    public static int getLevel() {
+        return sLevel;
+    }
+
+    /**
+     * Set the minimum level of a tag at runtime. It takes effect immediately for the static
+     * log methods called with that tag, the {@link Logger} of that tag and loggers obtained
+     * later.
+     * @param tag The log tag, as returned by {@link #makeLogTag(String)} or
+     *            {@link Logger#getTag()}.
+     * @param level The minimum level.
+     */
+    public static void setLevel(@NonNull String tag, @Level int level) {
+        synchronized (sLoggers) {
+            sTagLevels.put(tag, level);
+            sHasTagLevels = true;
+            updateLevels();
+        }
+    }
+
+    /**
+     * Remove the minimum level of a tag, so it follows the global level again.
+     * @param tag The log tag.
+     */
+    public static void resetLevel(@NonNull String tag) {
+        synchronized (sLoggers) {
+            sTagLevels.remove(tag);
+            sHasTagLevels = !sTagLevels.isEmpty();
+            updateLevels();
+        }
+    }
+
+    /**
+     * Obtain the logger handle of a tag. Keep it in a static field.
+     * @param tag The tag, the prefix is prepended and the result is truncated as by
+     *            {@link #makeLogTag(String)}.
+     * @return The logger, the same instance for the same tag.
+     */
+    @NonNull
+    public static Logger getLogger(@NonNull String tag) {
+        Logger logger = sLoggers.get(tag);
+        if (logger == null) {
+            synchronized (sLoggers) {
+                logger = sLoggers.get(tag);
+                if (logger == null) {
+                    logger = new Logger(tag);
+                    logger.mLevel = levelOf(logger.mTag);
+                    logger.mLimiter = sLimiters.get(logger.mTag);
+                    sLoggers.put(tag, logger);
+                }
+            }
+        }
+        return logger;
+    }
+
+    /**
+     * Obtain the logger handle of a class.
+     * <p/>Don't use this when obfuscating class names!
+     * @return The logger of the simple name of the class.
+     */
+    @NonNull
+    public static Logger getLogger(@NonNull Class clazz) {
+        return getLogger(clazz.getSimpleName());
+    }
+
+    /**
+     * Limit the rate of a tag. Records over the limit are dropped before they are formatted,
+     * and the next record that gets through is preceded by a "N messages suppressed" record.
+     * @param tag The log tag, as returned by {@link #makeLogTag(String)} or
+     *            {@link Logger#getTag()}.
+     * @param permitsPerSecond The sustained rate, 0 for no rate limit.
+     * @param burst The number of records let through at once after a quiet period.
+     */
+    public static void setRateLimit(@NonNull String tag, float permitsPerSecond, int burst) {
+        synchronized (sLoggers) {
+            LogRateLimiter limiter = sLimiters.get(tag);
+            putLimiter(tag, new LogRateLimiter(permitsPerSecond, burst,
+                    limiter != null ? limiter.getSampleRate() : 1));
+        }
+    }
+
+    /**
+     * Sample a tag: only one in {@code sampleRate} records is logged, the others are dropped
+     * before they are formatted.
+     * @param tag The log tag, as returned by {@link #makeLogTag(String)} or
+     *            {@link Logger#getTag()}.
+     * @param sampleRate Log one in this many records, 1 for no sampling.
+     */
+    public static void setSampling(@NonNull String tag, int sampleRate) {
+        synchronized (sLoggers) {
+            LogRateLimiter limiter = sLimiters.get(tag);
+            putLimiter(tag, limiter != null
+                    ? new LogRateLimiter(limiter.getPermitsPerSecond(), limiter.getBurst(), sampleRate)
+                    : new LogRateLimiter(0, 1, sampleRate));
+        }
+    }
+
+    /**
+     * Remove the rate limit and the sampling of a tag.
+     * @param tag The log tag.
+     */
+    public static void clearRateLimit(@NonNull String tag) {
+        synchronized (sLoggers) {
+            putLimiter(tag, null);
+        }
+    }
+
+    /**
+     * Call with {@link #sLoggers} held.
+     */
+    private static void putLimiter(@NonNull String tag, @Nullable LogRateLimiter limiter) {
+        if (limiter != null) {
+            sLimiters.put(tag, limiter);
+        } else {
+            sLimiters.remove(tag);
+        }
+        sHasLimiters = !sLimiters.isEmpty();
+        updateLevels();
+    }
+
+    @Nullable
+    private static LogRateLimiter limiterOf(String tag) {
+        return sHasLimiters && tag != null ? sLimiters.get(tag) : null;
+    }
+
+    /**
+     * Recompute the global level and the level and limiter of every logger. Call with
+     * {@link #sLoggers} held.
+     */
+    private static void updateLevels() {
+        final boolean hasOutput = sDebug || sFileSink != null;
+        if (!sLevelExplicit) {
+            sLevel = hasOutput ? Log.VERBOSE : OFF;
+        }
+        if (hasOutput && sAsyncCapacity > 0 && sAsyncWriter == null) {
+            sAsyncWriter = new AsyncLogWriter(sAsyncCapacity, sAsyncOverflowPolicy);
+        }
+        for (Logger logger : sLoggers.values()) {
+            logger.mLevel = levelOf(logger.mTag);
+            logger.mLimiter = sLimiters.get(logger.mTag);
+        }
+    }
+
+    /**
+     * @return The effective level of a tag, the global level unless the tag has its own.
+     */
+    private static int levelOf(String tag) {
+        if (!sHasTagLevels || tag == null) {
+            return sLevel;
+        }
+        Integer level = sTagLevels.get(tag);
+        return level != null ? level : sLevel;
+    }
+
+    /**
+     * Block until every record logged in asynchronous mode before this call has been written.
+     * <p/>Does nothing in synchronous mode.
+     */
+    public static void flush() {
+        AsyncLogWriter writer = sAsyncWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Write the pending records and stop the asynchronous background thread.
+     * <p/>Records logged afterwards are written synchronously.
+     */
+    public static void shutdown() {
+        AsyncLogWriter writer;
+        synchronized (sLoggers) {
+            writer = sAsyncWriter;
+            sAsyncWriter = null;
+            sAsyncCapacity = 0;
+        }
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
     /**
      * Make the log tag
+     * <p/>The prefix is prepended and the result is truncated to the 23 characters logcat allows.
      * @param tag TAG
      * @return The Generated tag.
      */
     public static String makeLogTag(String tag) {
-        if (tag.length() > MAX_LOG_TAG_LENGTH - sTagPrefixLength) {
-            return sTagPrefixLength + tag.substring(0, MAX_LOG_TAG_LENGTH - sTagPrefixLength - 1);
+        String prefix = sTagPrefix;
+        String logTag = prefix != null ? prefix + tag : tag;
+        if (logTag.length() > MAX_LOG_TAG_LENGTH) {
+            return logTag.substring(0, MAX_LOG_TAG_LENGTH);
         }
-
-        return sTagPrefix + tag;
+        return logTag;
     }
 
     /**
@@ -113,77 +467,829 @@ public final class LogUtil {
 
 
     public static void v(String tag, Object... messages) {
-        if (sDebug) {
-            Log.v(tag, makeMessage(messages));
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, null, messages);
         }
     }
 
     public static void v(String tag, Throwable throwable, Object... messages) {
-        if (sDebug) {
-            Log.v(tag, makeMessage(messages), throwable);
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, throwable, messages);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, long arg0) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 1, arg0, 0L, 0L, 0L);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, long arg0, long arg1) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 2, arg0, arg1, 0L, 0L);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, long arg0, long arg1, long arg2) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, 0L);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, Object arg0) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 1, arg0, null, null, null);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, Object arg0, Object arg1) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 2, arg0, arg1, null, null);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, null);
+        }
+    }
+
+    public static void v(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (levelOf(tag) <= Log.VERBOSE) {
+            println(Log.VERBOSE, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
         }
     }
 
     public static void d(String tag, Object... messages) {
-        if (sDebug) {
-            Log.d(tag, makeMessage(messages));
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, null, messages);
         }
     }
 
     public static void d(String tag, Throwable throwable, Object... messages) {
-        if (sDebug) {
-            Log.d(tag, makeMessage(messages), throwable);
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, throwable, messages);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, long arg0) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 1, arg0, 0L, 0L, 0L);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, long arg0, long arg1) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 2, arg0, arg1, 0L, 0L);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, long arg0, long arg1, long arg2) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, 0L);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, Object arg0) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 1, arg0, null, null, null);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, Object arg0, Object arg1) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 2, arg0, arg1, null, null);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, null);
+        }
+    }
+
+    public static void d(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (levelOf(tag) <= Log.DEBUG) {
+            println(Log.DEBUG, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
         }
     }
 
     public static void i(String tag, Object... messages) {
-        if (sDebug) {
-            Log.i(tag, makeMessage(messages));
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, null, messages);
         }
     }
 
     public static void i(String tag, Throwable throwable, Object... messages) {
-        if (sDebug) {
-            Log.i(tag, makeMessage(messages), throwable);
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, throwable, messages);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, long arg0) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 1, arg0, 0L, 0L, 0L);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, long arg0, long arg1) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 2, arg0, arg1, 0L, 0L);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, long arg0, long arg1, long arg2) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, 0L);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, Object arg0) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 1, arg0, null, null, null);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, Object arg0, Object arg1) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 2, arg0, arg1, null, null);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, null);
+        }
+    }
+
+    public static void i(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (levelOf(tag) <= Log.INFO) {
+            println(Log.INFO, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
         }
     }
 
     public static void w(String tag, Object... messages) {
-        if (sDebug) {
-            Log.w(tag, makeMessage(messages));
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, null, messages);
         }
     }
 
     public static void w(String tag, Throwable throwable, Object... messages) {
-        if (sDebug) {
-            Log.w(tag, makeMessage(messages), throwable);
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, throwable, messages);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, long arg0) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 1, arg0, 0L, 0L, 0L);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, long arg0, long arg1) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 2, arg0, arg1, 0L, 0L);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, long arg0, long arg1, long arg2) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, 0L);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, Object arg0) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 1, arg0, null, null, null);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, Object arg0, Object arg1) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 2, arg0, arg1, null, null);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, null);
+        }
+    }
+
+    public static void w(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (levelOf(tag) <= Log.WARN) {
+            println(Log.WARN, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
         }
     }
 
     public static void e(String tag, Object... messages) {
-        if (sDebug) {
-            Log.e(tag, makeMessage(messages));
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, null, messages);
         }
     }
 
     public static void e(String tag, Throwable throwable, Object... messages) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, throwable, messages);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, long arg0) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 1, arg0, 0L, 0L, 0L);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, long arg0, long arg1) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 2, arg0, arg1, 0L, 0L);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, long arg0, long arg1, long arg2) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, 0L);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, Object arg0) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 1, arg0, null, null, null);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, Object arg0, Object arg1) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 2, arg0, arg1, null, null);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 3, arg0, arg1, arg2, null);
+        }
+    }
+
+    public static void e(String tag, LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (levelOf(tag) <= Log.ERROR) {
+            println(Log.ERROR, limiterOf(tag), tag, template, 4, arg0, arg1, arg2, arg3);
+        }
+    }
+
+    /**
+     * Logger handle of one tag, obtained once by {@link #getLogger(String)}.
+     * <p>The log tag is computed once and the level check is a single field read. The level
+     * can be changed at runtime by {@link #setLevel(String, int)} or {@link #setLevel(int)}.</p>
+     * <p>Its {@link LogTemplate} overloads box the same arguments as those of {@link LogUtil}.</p>
+     */
+    public static final class Logger {
+
+        final String mSourceTag;
+        volatile String mTag;
+        volatile int mLevel;
+        volatile LogRateLimiter mLimiter;
+
+        Logger(@NonNull String sourceTag) {
+            mSourceTag = sourceTag;
+            mTag = makeLogTag(sourceTag);
+        }
+
+        /**
+         * @return The log tag, with the prefix and truncated.
+         */
+        @NonNull
+        public String getTag() {
+            return mTag;
+        }
+
+        /**
+         * @return The effective minimum level of this logger.
+         */
+        @Level
+        public int getLevel() {
+            return mLevel;
+        }
+
+        /**
+         * Set the minimum level of this logger's tag.
+         * @see LogUtil#setLevel(String, int)
+         */
+        public void setLevel(@Level int level) {
+            LogUtil.setLevel(mTag, level);
+        }
+
+        /**
+         * @param priority The level of a record.
+         * @return Whether a record of that level would be logged.
+         */
+        public boolean isLoggable(int priority) {
+            return mLevel <= priority;
+        }
+
+        public void v(Object... messages) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, null, messages);
+            }
+        }
+
+        public void v(Throwable throwable, Object... messages) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, throwable, messages);
+            }
+        }
+
+        public void v(LogTemplate template, long arg0) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 1, arg0, 0L, 0L, 0L);
+            }
+        }
+
+        public void v(LogTemplate template, long arg0, long arg1) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 2, arg0, arg1, 0L, 0L);
+            }
+        }
+
+        public void v(LogTemplate template, long arg0, long arg1, long arg2) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 3, arg0, arg1, arg2, 0L);
+            }
+        }
+
+        public void v(LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void v(LogTemplate template, Object arg0) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 1, arg0, null, null, null);
+            }
+        }
+
+        public void v(LogTemplate template, Object arg0, Object arg1) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 2, arg0, arg1, null, null);
+            }
+        }
+
+        public void v(LogTemplate template, Object arg0, Object arg1, Object arg2) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 3, arg0, arg1, arg2, null);
+            }
+        }
+
+        public void v(LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+            if (mLevel <= Log.VERBOSE) {
+                println(Log.VERBOSE, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void d(Object... messages) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, null, messages);
+            }
+        }
+
+        public void d(Throwable throwable, Object... messages) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, throwable, messages);
+            }
+        }
+
+        public void d(LogTemplate template, long arg0) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 1, arg0, 0L, 0L, 0L);
+            }
+        }
+
+        public void d(LogTemplate template, long arg0, long arg1) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 2, arg0, arg1, 0L, 0L);
+            }
+        }
+
+        public void d(LogTemplate template, long arg0, long arg1, long arg2) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 3, arg0, arg1, arg2, 0L);
+            }
+        }
+
+        public void d(LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void d(LogTemplate template, Object arg0) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 1, arg0, null, null, null);
+            }
+        }
+
+        public void d(LogTemplate template, Object arg0, Object arg1) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 2, arg0, arg1, null, null);
+            }
+        }
+
+        public void d(LogTemplate template, Object arg0, Object arg1, Object arg2) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 3, arg0, arg1, arg2, null);
+            }
+        }
+
+        public void d(LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+            if (mLevel <= Log.DEBUG) {
+                println(Log.DEBUG, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void i(Object... messages) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, null, messages);
+            }
+        }
+
+        public void i(Throwable throwable, Object... messages) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, throwable, messages);
+            }
+        }
+
+        public void i(LogTemplate template, long arg0) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 1, arg0, 0L, 0L, 0L);
+            }
+        }
+
+        public void i(LogTemplate template, long arg0, long arg1) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 2, arg0, arg1, 0L, 0L);
+            }
+        }
+
+        public void i(LogTemplate template, long arg0, long arg1, long arg2) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 3, arg0, arg1, arg2, 0L);
+            }
+        }
+
+        public void i(LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void i(LogTemplate template, Object arg0) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 1, arg0, null, null, null);
+            }
+        }
+
+        public void i(LogTemplate template, Object arg0, Object arg1) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 2, arg0, arg1, null, null);
+            }
+        }
+
+        public void i(LogTemplate template, Object arg0, Object arg1, Object arg2) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 3, arg0, arg1, arg2, null);
+            }
+        }
+
+        public void i(LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+            if (mLevel <= Log.INFO) {
+                println(Log.INFO, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void w(Object... messages) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, null, messages);
+            }
+        }
+
+        public void w(Throwable throwable, Object... messages) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, throwable, messages);
+            }
+        }
+
+        public void w(LogTemplate template, long arg0) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 1, arg0, 0L, 0L, 0L);
+            }
+        }
+
+        public void w(LogTemplate template, long arg0, long arg1) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 2, arg0, arg1, 0L, 0L);
+            }
+        }
+
+        public void w(LogTemplate template, long arg0, long arg1, long arg2) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 3, arg0, arg1, arg2, 0L);
+            }
+        }
+
+        public void w(LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void w(LogTemplate template, Object arg0) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 1, arg0, null, null, null);
+            }
+        }
+
+        public void w(LogTemplate template, Object arg0, Object arg1) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 2, arg0, arg1, null, null);
+            }
+        }
+
+        public void w(LogTemplate template, Object arg0, Object arg1, Object arg2) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 3, arg0, arg1, arg2, null);
+            }
+        }
+
+        public void w(LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+            if (mLevel <= Log.WARN) {
+                println(Log.WARN, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void e(Object... messages) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, null, messages);
+            }
+        }
+
+        public void e(Throwable throwable, Object... messages) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, throwable, messages);
+            }
+        }
+
+        public void e(LogTemplate template, long arg0) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 1, arg0, 0L, 0L, 0L);
+            }
+        }
+
+        public void e(LogTemplate template, long arg0, long arg1) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 2, arg0, arg1, 0L, 0L);
+            }
+        }
+
+        public void e(LogTemplate template, long arg0, long arg1, long arg2) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 3, arg0, arg1, arg2, 0L);
+            }
+        }
+
+        public void e(LogTemplate template, long arg0, long arg1, long arg2, long arg3) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        public void e(LogTemplate template, Object arg0) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 1, arg0, null, null, null);
+            }
+        }
+
+        public void e(LogTemplate template, Object arg0, Object arg1) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 2, arg0, arg1, null, null);
+            }
+        }
+
+        public void e(LogTemplate template, Object arg0, Object arg1, Object arg2) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 3, arg0, arg1, arg2, null);
+            }
+        }
+
+        public void e(LogTemplate template, Object arg0, Object arg1, Object arg2, Object arg3) {
+            if (mLevel <= Log.ERROR) {
+                println(Log.ERROR, mLimiter, mTag, template, 4, arg0, arg1, arg2, arg3);
+            }
+        }
+    }
+
+    private static void println(int priority, @Nullable LogRateLimiter limiter, String tag,
+                                @Nullable Throwable throwable, @Nullable Object[] messages) {
+        if (limiter != null && !admit(priority, limiter, tag)) {
+            return;
+        }
+        sRecordCounters[priority].increment();
+        AsyncLogWriter writer = sAsyncWriter;
+        if (writer == null || !writer.offer(priority, tag, throwable, messages)) {
+            write(CoarseClock.currentTimeMillis(), priority, tag, throwable, messages);
+        }
+    }
+
+    private static void println(int priority, @Nullable LogRateLimiter limiter, String tag,
+                                LogTemplate template, int argCount,
+                                long arg0, long arg1, long arg2, long arg3) {
+        if (limiter != null && !admit(priority, limiter, tag)) {
+            return;
+        }
+        sRecordCounters[priority].increment();
+        AsyncLogWriter writer = sAsyncWriter;
+        if (writer == null || !writer.offer(priority, tag, null, template, argCount,
+                arg0, arg1, arg2, arg3)) {
+            write(CoarseClock.currentTimeMillis(), priority, tag, template, argCount,
+                    arg0, arg1, arg2, arg3);
+        }
+    }
+
+    private static void println(int priority, @Nullable LogRateLimiter limiter, String tag,
+                                LogTemplate template, int argCount,
+                                Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (limiter != null && !admit(priority, limiter, tag)) {
+            return;
+        }
+        sRecordCounters[priority].increment();
+        AsyncLogWriter writer = sAsyncWriter;
+        if (writer == null || !writer.offer(priority, tag, null, template, argCount,
+                arg0, arg1, arg2, arg3)) {
+            write(CoarseClock.currentTimeMillis(), priority, tag, template, argCount,
+                    arg0, arg1, arg2, arg3);
+        }
+    }
+
+    /**
+     * Ask the limiter of the tag whether a record may be logged. When it may and records were
+     * suppressed since the last one, log a summary record first.
+     */
+    private static boolean admit(int priority, @NonNull LogRateLimiter limiter, String tag) {
+        if (!limiter.tryAcquire()) {
+            return false;
+        }
+        int suppressed = limiter.takeSuppressedCount();
+        if (suppressed > 0) {
+            println(priority, null, tag, SUPPRESSED_TEMPLATE, 1, suppressed, 0L, 0L, 0L);
+        }
+        return true;
+    }
+
+    /**
+     * Write a multi-part record to logcat and the file sink.
+     */
+    static void write(long timeMillis, int priority, String tag, @Nullable Throwable throwable,
+                      @Nullable Object[] messages) {
+        LogFileSink sink = sFileSink;
+        if (sink != null && sink.isBinary()) {
+            // The binary encoding stores the parts as they are, without formatting them.
+            sink.append(timeMillis, priority, tag, stackTraceOf(throwable), messages);
+            if (!sDebug) {
+                return;
+            }
+            sink = null;
+        }
+        writeText(timeMillis, priority, tag, makeMessage(messages), throwable, sink);
+    }
+
+    /**
+     * Write a template record to logcat and the file sink.
+     */
+    static void write(long timeMillis, int priority, String tag, @NonNull LogTemplate template,
+                      int argCount, long arg0, long arg1, long arg2, long arg3) {
+        LogFileSink sink = sFileSink;
+        if (sink != null && sink.isBinary()) {
+            sink.append(timeMillis, priority, tag, template, argCount, arg0, arg1, arg2, arg3);
+            if (!sDebug) {
+                return;
+            }
+            sink = null;
+        }
+        writeText(timeMillis, priority, tag, format(template, argCount, arg0, arg1, arg2, arg3),
+                null, sink);
+    }
+
+    /**
+     * Write a template record to logcat and the file sink.
+     */
+    static void write(long timeMillis, int priority, String tag, @NonNull LogTemplate template,
+                      int argCount, Object arg0, Object arg1, Object arg2, Object arg3) {
+        LogFileSink sink = sFileSink;
+        if (sink != null && sink.isBinary()) {
+            sink.append(timeMillis, priority, tag, template, argCount, arg0, arg1, arg2, arg3);
+            if (!sDebug) {
+                return;
+            }
+            sink = null;
+        }
+        writeText(timeMillis, priority, tag, format(template, argCount, arg0, arg1, arg2, arg3),
+                null, sink);
+    }
+
+    /**
+     * Write a formatted record to logcat and a text file sink.
+     */
+    private static void writeText(long timeMillis, int priority, String tag, String message,
+                                  @Nullable Throwable throwable, @Nullable LogFileSink sink) {
+        if (throwable != null) {
+            message = message + '\n' + Log.getStackTraceString(throwable);
+        }
         if (sDebug) {
-            Log.e(tag, makeMessage(messages), throwable);
+            Log.println(priority, tag, message);
+        }
+        if (sink != null) {
+            sink.append(timeMillis, priority, tag, message);
         }
     }
 
-    private static String makeMessage(Object... messages) {
-        String message;
+    @Nullable
+    private static String stackTraceOf(@Nullable Throwable throwable) {
+        return throwable != null ? Log.getStackTraceString(throwable) : null;
+    }
+
+    static String makeMessage(@Nullable Object[] messages) {
         if (messages != null && messages.length == 1) {
-            // handle this common case without the extra cost of creating a stringbuffer:
-            message = messages[0].toString();
-        } else {
-            StringBuilder sb = new StringBuilder();
-            if (messages != null) for (Object m : messages) {
-                sb.append(m);
-            }
-            message = sb.toString();
+            // handle this common case without the extra cost of using a stringbuilder:
+            return messages[0].toString();
+        }
+        StringBuilder sb = obtainMessageBuilder();
+        if (messages != null) for (Object m : messages) {
+            sb.append(m);
+        }
+        return releaseMessageBuilder(sb);
+    }
+
+    static String format(@NonNull LogTemplate template, int argCount,
+                         long arg0, long arg1, long arg2, long arg3) {
+        StringBuilder sb = obtainMessageBuilder();
+        template.appendTo(sb, argCount, arg0, arg1, arg2, arg3);
+        return releaseMessageBuilder(sb);
+    }
+
+    static String format(@NonNull LogTemplate template, int argCount,
+                         Object arg0, Object arg1, Object arg2, Object arg3) {
+        StringBuilder sb = obtainMessageBuilder();
+        template.appendTo(sb, argCount, arg0, arg1, arg2, arg3);
+        return releaseMessageBuilder(sb);
+    }
+
+    private static StringBuilder obtainMessageBuilder() {
+        StringBuilder sb = sMessageBuilder.get();
+        if (sb == null) {
+            // Re-entered from a toString() while the builder of this thread is in use.
+            return new StringBuilder(MESSAGE_BUILDER_CAPACITY);
+        }
+        sMessageBuilder.set(null);
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static String releaseMessageBuilder(StringBuilder sb) {
+        String message = sb.toString();
+        if (sb.capacity() > MAX_MESSAGE_BUILDER_CAPACITY) {
+            // Don't let one huge message pin a huge buffer for the lifetime of the thread.
+            sb = new StringBuilder(MESSAGE_BUILDER_CAPACITY);
         }
+        sMessageBuilder.set(sb);
         return message;
     }
 
@@ -0,0 +1,521 @@
+package org.ligboy.android.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lightweight metrics of the utils library.
+ * <p>Metrics are registered by name once, usually into a static field, and updated on hot paths.
+ * They are disabled by default: then an update is a single volatile read and the utils pay
+ * nothing else.</p>
+ * <pre>
+ * Metrics.setEnabled(BuildConfig.DEBUG);
+ * ...
+ * Metrics.Snapshot snapshot = Metrics.snapshot();
+ * LogUtil.i(TAG, snapshot);
+ * </pre>
+ * <p>Metrics of the library:</p>
+ * <ul>
+ *     <li>{@code log.records.<level>}: records logged by {@link LogUtil} per level.</li>
+ *     <li>{@code log.dropped}: records dropped because the async buffer of {@link LogUtil} was
+ *     full.</li>
+ *     <li>{@code resources.attribute.lookups}, {@code resources.attribute.misses}: theme
+ *     attribute lookups of {@link ResourcesUtil} and those missing its cache.</li>
+ *     <li>{@code resources.warmup.resolved}, {@code resources.warmup.failures}: resources
+ *     resolved and failed by {@link ResourceWarmUp}.</li>
+ *     <li>{@code network.dns.resolve}, {@code network.dns.failures}: DNS resolution latency and
+ *     failures of {@link NetworkUtil} and {@link DnsResolver}.</li>
+ *     <li>{@code network.dns.cache.hits}: lookups of {@link DnsResolver} served from its
+ *     cache.</li>
+ *     <li>{@code network.dns.prefetch}: per-host lookup latency of
+ *     {@link DnsResolver#prefetch}.</li>
+ *     <li>{@code network.connect}, {@code network.connect.failures}: connect latency and
+ *     failures of {@link HappyEyeballsConnector}.</li>
+ *     <li>{@code context.tempfile.create}, {@code context.tempfile.failures}: temp file creation
+ *     latency and failures of {@link ContextUtil}.</li>
+ * </ul>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class Metrics {
+
+    private static volatile boolean sEnabled;
+    private static final ConcurrentMap<String, Object> sMetrics = new ConcurrentHashMap<>();
+
+    private Metrics() {
+        throw new IllegalAccessError();
+    }
+
+    /**
+     * Enable or disable recording. Disabled by default.
+     * @param enabled Whether metrics are recorded.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return Whether metrics are recorded.
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Get or register a counter.
+     * @param name The name of the metric.
+     * @return The counter.
+     * @throws IllegalArgumentException if the name is registered with another type.
+     */
+    @NonNull
+    public static Counter counter(@NonNull String name) {
+        return register(name, Counter.class);
+    }
+
+    /**
+     * Get or register a timer.
+     * @param name The name of the metric.
+     * @return The timer.
+     * @throws IllegalArgumentException if the name is registered with another type.
+     */
+    @NonNull
+    public static Timer timer(@NonNull String name) {
+        return register(name, Timer.class);
+    }
+
+    /**
+     * Get or register a histogram.
+     * @param name The name of the metric.
+     * @return The histogram.
+     * @throws IllegalArgumentException if the name is registered with another type.
+     */
+    @NonNull
+    public static Histogram histogram(@NonNull String name) {
+        return register(name, Histogram.class);
+    }
+
+    /**
+     * Take a snapshot of all metrics. Metrics updated concurrently may be seen partially updated.
+     * @return The snapshot.
+     */
+    @NonNull
+    public static Snapshot snapshot() {
+        Map<String, Long> counters = new TreeMap<>();
+        Map<String, HistogramSnapshot> histograms = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : sMetrics.entrySet()) {
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                counters.put(entry.getKey(), ((Counter) metric).get());
+            } else if (metric instanceof Timer) {
+                histograms.put(entry.getKey(), ((Timer) metric).mHistogram.snapshot());
+            } else {
+                histograms.put(entry.getKey(), ((Histogram) metric).snapshot());
+            }
+        }
+        return new Snapshot(counters, histograms);
+    }
+
+    /**
+     * Reset all metrics to zero.
+     */
+    public static void reset() {
+        for (Object metric : sMetrics.values()) {
+            if (metric instanceof Counter) {
+                ((Counter) metric).mCells.reset();
+            } else if (metric instanceof Timer) {
+                ((Timer) metric).mHistogram.reset();
+            } else {
+                ((Histogram) metric).reset();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private static <T> T register(@NonNull String name, @NonNull Class<T> type) {
+        Object metric = sMetrics.get(name);
+        if (metric == null) {
+            Object created;
+            if (type == Counter.class) {
+                created = new Counter();
+            } else if (type == Timer.class) {
+                created = new Timer();
+            } else {
+                created = new Histogram(true);
+            }
+            metric = sMetrics.putIfAbsent(name, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is not a " + type.getSimpleName());
+        }
+        return (T) metric;
+    }
+
+    /**
+     * A monotonic counter.
+     * <p>The value is striped over padded cells picked by the calling thread, like
+     * {@code java.util.concurrent.atomic.LongAdder}, so threads incrementing the same counter
+     * don't contend on one cache line.</p>
+     */
+    public static final class Counter {
+
+        final Cells mCells = new Cells();
+
+        Counter() {
+        }
+
+        public void increment() {
+            if (sEnabled) {
+                mCells.add(1);
+            }
+        }
+
+        public void add(long delta) {
+            if (sEnabled) {
+                mCells.add(delta);
+            }
+        }
+
+        /**
+         * @return The current value.
+         */
+        public long get() {
+            return mCells.sum();
+        }
+    }
+
+    /**
+     * Records the latency of a section into a histogram of nanoseconds.
+     * <pre>
+     * long start = TIMER.start();
+     * ...
+     * TIMER.stop(start);
+     * </pre>
+     */
+    public static final class Timer {
+
+        final Histogram mHistogram = new Histogram(true);
+
+        Timer() {
+        }
+
+        /**
+         * @return The start time to pass to {@link #stop(long)}, 0 when metrics are disabled.
+         */
+        public long start() {
+            return sEnabled ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Record the time elapsed since {@link #start()}.
+         * @param startNanos The value returned by {@link #start()}.
+         */
+        public void stop(long startNanos) {
+            if (startNanos != 0 && sEnabled) {
+                mHistogram.recordValue(System.nanoTime() - startNanos);
+            }
+        }
+
+        /**
+         * Record a duration.
+         * @param nanos The duration in nanoseconds.
+         */
+        public void record(long nanos) {
+            mHistogram.record(nanos);
+        }
+    }
+
+    /**
+     * A histogram of non-negative values in fixed log-linear buckets.
+     * <p>Each power of two is split into {@value #SUB_BUCKET_COUNT} linear buckets, so a
+     * percentile is accurate to 12.5% over the whole range of {@code long}. Recording is one
+     * atomic increment of a bucket plus a striped update of the sum.</p>
+     */
+    public static final class Histogram {
+
+        static final int SUB_BUCKET_BITS = 3;
+        static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+        static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+        private final boolean mGated;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final Cells mSum = new Cells();
+        private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * @param gated Whether recording follows {@link Metrics#isEnabled()}.
+         */
+        Histogram(boolean gated) {
+            mGated = gated;
+        }
+
+        /**
+         * Record a value, negative values are recorded as 0.
+         */
+        public void record(long value) {
+            if (!mGated || sEnabled) {
+                recordValue(value);
+            }
+        }
+
+        void recordValue(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(bucketIndex(value));
+            mSum.add(value);
+            long min;
+            while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {
+                // Retry.
+            }
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // Retry.
+            }
+        }
+
+        /**
+         * @return A snapshot of the recorded values.
+         */
+        @NonNull
+        public HistogramSnapshot snapshot() {
+            long[] buckets = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            return new HistogramSnapshot(buckets, count, mSum.sum(), mMin.get(), mMax.get());
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mSum.reset();
+            mMin.set(Long.MAX_VALUE);
+            mMax.set(Long.MIN_VALUE);
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKET_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+        }
+
+        /**
+         * @return The smallest value of a bucket.
+         */
+        static long bucketLowerBound(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+            long subBucket = index % SUB_BUCKET_COUNT;
+            return (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+        }
+
+        /**
+         * @return The largest value of a bucket.
+         */
+        static long bucketUpperBound(int index) {
+            return index + 1 < BUCKET_COUNT ? bucketLowerBound(index + 1) - 1 : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * An immutable snapshot of a {@link Histogram}.
+     */
+    public static final class HistogramSnapshot {
+
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMin;
+        private final long mMax;
+
+        HistogramSnapshot(@NonNull long[] buckets, long count, long sum, long min, long max) {
+            mBuckets = buckets;
+            mCount = count;
+            mSum = sum;
+            mMin = count > 0 ? min : 0;
+            mMax = count > 0 ? max : 0;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMin() {
+            return mMin;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount > 0 ? (double) mSum / mCount : 0;
+        }
+
+        /**
+         * @param percentile The percentile, from 0 to 100.
+         * @return The upper bound of the bucket holding the percentile, within the recorded
+         * minimum and maximum. 0 if nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * mCount);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.max(mMin, Math.min(mMax, Histogram.bucketUpperBound(i)));
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + " min=" + mMin + " mean=" + (long) getMean()
+                    + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+                    + " p99=" + getPercentile(99) + " max=" + mMax;
+        }
+    }
+
+    /**
+     * An immutable snapshot of all metrics.
+     */
+    public static final class Snapshot {
+
+        private final Map<String, Long> mCounters;
+        private final Map<String, HistogramSnapshot> mHistograms;
+
+        Snapshot(@NonNull Map<String, Long> counters,
+                 @NonNull Map<String, HistogramSnapshot> histograms) {
+            mCounters = Collections.unmodifiableMap(counters);
+            mHistograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /**
+         * @return The values of the counters by name, sorted.
+         */
+        @NonNull
+        public Map<String, Long> getCounters() {
+            return mCounters;
+        }
+
+        /**
+         * @return The histograms and timers by name, sorted. Timers are in nanoseconds.
+         */
+        @NonNull
+        public Map<String, HistogramSnapshot> getHistograms() {
+            return mHistograms;
+        }
+
+        /**
+         * @return The value of a counter, 0 if it isn't registered.
+         */
+        public long getCounter(@NonNull String name) {
+            Long value = mCounters.get(name);
+            return value != null ? value : 0;
+        }
+
+        @Nullable
+        public HistogramSnapshot getHistogram(@NonNull String name) {
+            return mHistograms.get(name);
+        }
+
+        /**
+         * Write the metrics as text, one {@code name value} line per metric.
+         * @param out The destination.
+         * @throws IOException if the destination can't be written.
+         */
+        public void writeTo(@NonNull Appendable out) throws IOException {
+            for (Map.Entry<String, Long> entry : mCounters.entrySet()) {
+                out.append(entry.getKey()).append(' ')
+                        .append(String.valueOf(entry.getValue())).append('\n');
+            }
+            for (Map.Entry<String, HistogramSnapshot> entry : mHistograms.entrySet()) {
+                out.append(entry.getKey()).append(' ')
+                        .append(entry.getValue().toString()).append('\n');
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            try {
+                writeTo(sb);
+            } catch (IOException ignored) {
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A long striped over cache-line padded cells.
+     */
+    static final class Cells {
+
+        /** 8 longs, one cache line between two used cells. */
+        private static final int PADDING_SHIFT = 3;
+        private static final int STRIPES;
+
+        static {
+            int processors = Runtime.getRuntime().availableProcessors();
+            int stripes = Integer.highestOneBit(Math.max(processors, 1));
+            if (stripes < processors) {
+                stripes <<= 1;
+            }
+            STRIPES = Math.min(stripes, 16);
+        }
+
+        private final AtomicLongArray mCells = new AtomicLongArray(STRIPES << PADDING_SHIFT);
+
+        void add(long delta) {
+            long id = Thread.currentThread().getId();
+            int stripe = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+            mCells.addAndGet(stripe << PADDING_SHIFT, delta);
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += mCells.get(i << PADDING_SHIFT);
+            }
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++) {
+                mCells.set(i << PADDING_SHIFT, 0);
+            }
+        }
+    }
+}
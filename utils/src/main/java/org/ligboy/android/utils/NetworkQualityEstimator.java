@@ -0,0 +1,271 @@
+package org.ligboy.android.utils;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estimates throughput and round-trip time from the transfers an HTTP layer observes.
+ * <pre>
+ * NetworkQualityEstimator estimator = NetworkUtil.getNetworkQualityEstimator();
+ * // After every response
+ * estimator.recordTransfer(bytes, durationMillis, timeToFirstByteMillis);
+ * // When choosing an image size
+ * if (estimator.getQuality() &lt;= NetworkQualityEstimator.QUALITY_POOR) {...}
+ * </pre>
+ * <p>Each metric keeps an exponentially weighted moving average and a window of the latest
+ * samples for percentiles. Recording is lock-free and doesn't allocate. The quality bucket is
+ * derived from the throughput average with hysteresis: it only moves up once the average
+ * exceeds the threshold by {@code HYSTERESIS}, and down once it falls below by as much.</p>
+ * <p>The estimates reset when the connectivity type changes, as reported to
+ * {@link #onConnectivityChanged(ConnectivityMonitor.State)}.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class NetworkQualityEstimator implements ConnectivityMonitor.Listener {
+
+    public static final int QUALITY_UNKNOWN = 0;
+    /**
+     * Below 150 kbit/s.
+     */
+    public static final int QUALITY_POOR = 1;
+    /**
+     * 150 to 550 kbit/s.
+     */
+    public static final int QUALITY_MODERATE = 2;
+    /**
+     * 550 to 2000 kbit/s.
+     */
+    public static final int QUALITY_GOOD = 3;
+    /**
+     * Above 2000 kbit/s.
+     */
+    public static final int QUALITY_EXCELLENT = 4;
+
+    @IntDef({QUALITY_UNKNOWN, QUALITY_POOR, QUALITY_MODERATE, QUALITY_GOOD, QUALITY_EXCELLENT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Quality {}
+
+    /**
+     * Upper throughput bounds in kbit/s of the buckets below {@link #QUALITY_EXCELLENT}.
+     */
+    private static final double[] THRESHOLDS_KBPS = {150, 550, 2000};
+    private static final double HYSTERESIS = 0.2;
+    private static final double EWMA_WEIGHT = 0.2;
+    /**
+     * Smaller transfers are dominated by latency and only count towards the RTT.
+     */
+    private static final long MIN_THROUGHPUT_BYTES = 16 * 1024;
+    private static final long MIN_THROUGHPUT_MILLIS = 20;
+    /**
+     * Throughput samples needed before leaving {@link #QUALITY_UNKNOWN}.
+     */
+    private static final int MIN_SAMPLES = 3;
+    private static final int WINDOW_SIZE = 64;
+
+    private final Estimate mThroughput = new Estimate();
+    private final Estimate mRtt = new Estimate();
+    private final AtomicInteger mQuality = new AtomicInteger(QUALITY_UNKNOWN);
+    private volatile ConnectivityMonitor.State mConnectivity;
+
+    /**
+     * Record an observed transfer.
+     * @param bytes The bytes received.
+     * @param durationMillis The time from sending the request to the last byte.
+     * @param timeToFirstByteMillis The time from sending the request to the first byte, used as
+     *                              the RTT. Negative if unknown.
+     */
+    public void recordTransfer(long bytes, long durationMillis, long timeToFirstByteMillis) {
+        if (timeToFirstByteMillis >= 0) {
+            mRtt.add(timeToFirstByteMillis);
+        }
+        if (bytes < MIN_THROUGHPUT_BYTES) {
+            return;
+        }
+        // Exclude the latency before the first byte when it's known
+        long transferMillis = timeToFirstByteMillis >= 0
+                ? durationMillis - timeToFirstByteMillis : durationMillis;
+        if (transferMillis < MIN_THROUGHPUT_MILLIS) {
+            transferMillis = MIN_THROUGHPUT_MILLIS;
+        }
+        final double kbps = bytes * 8.0 / transferMillis;
+        final double average = mThroughput.add(kbps);
+        if (mThroughput.getCount() >= MIN_SAMPLES) {
+            updateQuality(average);
+        }
+    }
+
+    private void updateQuality(double kbps) {
+        while (true) {
+            final int current = mQuality.get();
+            final int next = classify(current, kbps);
+            if (next == current || mQuality.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The bucket of the throughput, staying in the current bucket within the
+     * hysteresis margins of its bounds.
+     */
+    static int classify(int current, double kbps) {
+        int bucket = QUALITY_EXCELLENT;
+        for (int i = 0; i < THRESHOLDS_KBPS.length; i++) {
+            if (kbps < THRESHOLDS_KBPS[i]) {
+                bucket = QUALITY_POOR + i;
+                break;
+            }
+        }
+        if (current == QUALITY_UNKNOWN || bucket == current) {
+            return bucket;
+        }
+        if (bucket > current) {
+            // Upper bound of the current bucket
+            final double bound = THRESHOLDS_KBPS[current - QUALITY_POOR];
+            return kbps >= bound * (1 + HYSTERESIS) ? bucket : current;
+        }
+        // Lower bound of the current bucket
+        final double bound = THRESHOLDS_KBPS[current - QUALITY_POOR - 1];
+        return kbps < bound * (1 - HYSTERESIS) ? bucket : current;
+    }
+
+    /**
+     * @return The quality bucket, one of the {@code QUALITY_*} constants.
+     */
+    @Quality
+    public int getQuality() {
+        return mQuality.get();
+    }
+
+    /**
+     * @return The moving average of the throughput in kbit/s, or -1 without samples.
+     */
+    public double getThroughputKbps() {
+        return mThroughput.getAverage();
+    }
+
+    /**
+     * @param percentile The percentile, in [0, 100].
+     * @return The percentile of the latest throughput samples in kbit/s, or -1 without
+     * samples.
+     */
+    public double getThroughputKbps(double percentile) {
+        return mThroughput.getPercentile(percentile);
+    }
+
+    /**
+     * @return The moving average of the RTT in milliseconds, or -1 without samples.
+     */
+    public double getRttMillis() {
+        return mRtt.getAverage();
+    }
+
+    /**
+     * @param percentile The percentile, in [0, 100].
+     * @return The percentile of the latest RTT samples in milliseconds, or -1 without samples.
+     */
+    public double getRttMillis(double percentile) {
+        return mRtt.getPercentile(percentile);
+    }
+
+    /**
+     * Drop all samples.
+     */
+    public void reset() {
+        mThroughput.reset();
+        mRtt.reset();
+        mQuality.set(QUALITY_UNKNOWN);
+    }
+
+    /**
+     * Reset the estimates when the network type or subtype changes.
+     */
+    @Override
+    public void onConnectivityChanged(@NonNull ConnectivityMonitor.State state) {
+        final ConnectivityMonitor.State previous = mConnectivity;
+        mConnectivity = state;
+        if (previous != null && (previous.getType() != state.getType()
+                || previous.getSubtype() != state.getSubtype())) {
+            reset();
+        }
+    }
+
+    /**
+     * Take a state as the baseline of the next change, unless a change was already reported.
+     * The monitor doesn't deliver its current state to a new listener.
+     * @param state The current state, null if unknown.
+     */
+    void setInitialConnectivity(@Nullable ConnectivityMonitor.State state) {
+        if (mConnectivity == null) {
+            mConnectivity = state;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkQualityEstimator[quality=" + getQuality() + ",throughputKbps="
+                + getThroughputKbps() + ",rttMillis=" + getRttMillis() + "]";
+    }
+
+    /**
+     * Lock-free moving average and sample window of one metric.
+     */
+    private static final class Estimate {
+
+        private static final long NO_VALUE = Double.doubleToRawLongBits(-1);
+
+        private final AtomicLong mAverage = new AtomicLong(NO_VALUE);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLongArray mWindow = new AtomicLongArray(WINDOW_SIZE);
+
+        /**
+         * @return The new average.
+         */
+        double add(double value) {
+            final long count = mCount.getAndIncrement();
+            mWindow.set((int) (count % WINDOW_SIZE), Double.doubleToRawLongBits(value));
+            while (true) {
+                final long bits = mAverage.get();
+                final double average = bits == NO_VALUE ? value
+                        : Double.longBitsToDouble(bits) * (1 - EWMA_WEIGHT) + value * EWMA_WEIGHT;
+                if (mAverage.compareAndSet(bits, Double.doubleToRawLongBits(average))) {
+                    return average;
+                }
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        double getAverage() {
+            return Double.longBitsToDouble(mAverage.get());
+        }
+
+        double getPercentile(double percentile) {
+            final int size = (int) Math.min(mCount.get(), WINDOW_SIZE);
+            if (size == 0) {
+                return -1;
+            }
+            final double[] values = new double[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = Double.longBitsToDouble(mWindow.get(i));
+            }
+            Arrays.sort(values);
+            final int index = (int) Math.round(percentile / 100 * (size - 1));
+            return values[Math.max(0, Math.min(index, size - 1))];
+        }
+
+        void reset() {
+            mCount.set(0);
+            mAverage.set(NO_VALUE);
+        }
+    }
+}
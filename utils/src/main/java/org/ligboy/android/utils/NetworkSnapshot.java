@@ -0,0 +1,201 @@
+package org.ligboy.android.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the local internet addresses, excluding loopback, link-local and
+ * wildcard addresses.
+ * <p>{@link NetworkUtil#getNetworkSnapshot()} shares one snapshot between all address queries
+ * and refreshes it when connectivity changes or its TTL expires.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class NetworkSnapshot {
+
+    private final List<InetAddress> mAddresses;
+    private final Inet4Address mIpv4Address;
+    private final Inet6Address mIpv6Address;
+    private final long mCaptureTime;
+    private final int mGeneration;
+
+    private NetworkSnapshot(@NonNull List<InetAddress> addresses, long captureTime,
+                            int generation) {
+        mAddresses = Collections.unmodifiableList(addresses);
+        Inet4Address ipv4Address = null;
+        Inet6Address ipv6Address = null;
+        for (InetAddress address : addresses) {
+            if (ipv4Address == null && address instanceof Inet4Address) {
+                ipv4Address = (Inet4Address) address;
+            } else if (ipv6Address == null && address instanceof Inet6Address) {
+                ipv6Address = (Inet6Address) address;
+            }
+        }
+        mIpv4Address = ipv4Address;
+        mIpv6Address = ipv6Address;
+        mCaptureTime = captureTime;
+        mGeneration = generation;
+    }
+
+    /**
+     * Enumerate the network interfaces.
+     * @param generation The connectivity change count of {@link NetworkUtil} before the capture.
+     * @return A new snapshot.
+     */
+    @NonNull
+    static NetworkSnapshot capture(int generation) {
+        final List<InetAddress> addresses = new ArrayList<>();
+        try {
+            final Enumeration<NetworkInterface> networkInterfaces
+                    = NetworkInterface.getNetworkInterfaces();
+            while (networkInterfaces != null && networkInterfaces.hasMoreElements()) {
+                final Enumeration<InetAddress> inetAddresses
+                        = networkInterfaces.nextElement().getInetAddresses();
+                while (inetAddresses.hasMoreElements()) {
+                    final InetAddress address = inetAddresses.nextElement();
+                    if (!address.isLoopbackAddress() && !address.isLinkLocalAddress()
+                            && !address.isAnyLocalAddress()) {
+                        addresses.add(address);
+                    }
+                }
+            }
+        } catch (SocketException ignored) {
+        }
+        return new NetworkSnapshot(addresses, System.nanoTime(), generation);
+    }
+
+    /**
+     * @return The addresses, in interface order. Unmodifiable.
+     */
+    @NonNull
+    public List<InetAddress> getAddresses() {
+        return mAddresses;
+    }
+
+    /**
+     * @return The first IPv4 address, or null if there is none.
+     */
+    @Nullable
+    public Inet4Address getIpv4Address() {
+        return mIpv4Address;
+    }
+
+    /**
+     * @return The first IPv6 address, or null if there is none.
+     */
+    @Nullable
+    public Inet6Address getIpv6Address() {
+        return mIpv6Address;
+    }
+
+    /**
+     * @return Whether an IPv6 address is configured.
+     */
+    public boolean hasIpv6() {
+        return mIpv6Address != null;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} of the capture.
+     */
+    public long getCaptureTime() {
+        return mCaptureTime;
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkSnapshot" + mAddresses;
+    }
+
+    /**
+     * Receives the changes between snapshots, on the thread that refreshed the snapshot.
+     */
+    public interface Listener {
+
+        void onNetworkSnapshotChanged(@NonNull Diff diff);
+    }
+
+    /**
+     * The addresses added and removed between two snapshots.
+     */
+    public static final class Diff {
+
+        private final NetworkSnapshot mPrevious;
+        private final NetworkSnapshot mCurrent;
+        private final List<InetAddress> mAdded;
+        private final List<InetAddress> mRemoved;
+
+        Diff(@NonNull NetworkSnapshot previous, @NonNull NetworkSnapshot current) {
+            mPrevious = previous;
+            mCurrent = current;
+            mAdded = subtract(current.mAddresses, previous.mAddresses);
+            mRemoved = subtract(previous.mAddresses, current.mAddresses);
+        }
+
+        @NonNull
+        private static List<InetAddress> subtract(@NonNull List<InetAddress> addresses,
+                                                  @NonNull List<InetAddress> others) {
+            final Set<InetAddress> otherSet = new HashSet<>(others);
+            final List<InetAddress> result = new ArrayList<>();
+            for (InetAddress address : addresses) {
+                if (!otherSet.contains(address)) {
+                    result.add(address);
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        @NonNull
+        public NetworkSnapshot getPrevious() {
+            return mPrevious;
+        }
+
+        @NonNull
+        public NetworkSnapshot getCurrent() {
+            return mCurrent;
+        }
+
+        /**
+         * @return The addresses of the current snapshot missing from the previous one.
+         */
+        @NonNull
+        public List<InetAddress> getAdded() {
+            return mAdded;
+        }
+
+        /**
+         * @return The addresses of the previous snapshot missing from the current one.
+         */
+        @NonNull
+        public List<InetAddress> getRemoved() {
+            return mRemoved;
+        }
+
+        /**
+         * @return Whether any address was added or removed.
+         */
+        public boolean isEmpty() {
+            return mAdded.isEmpty() && mRemoved.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Diff[added=" + mAdded + ",removed=" + mRemoved + "]";
+        }
+    }
+}
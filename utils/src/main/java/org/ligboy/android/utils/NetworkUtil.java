@@ -4,20 +4,21 @@ import android.Manifest;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
 import android.support.annotation.WorkerThread;
 
-import java.net.Inet4Address;
-import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Network Util
@@ -25,6 +26,40 @@ import java.util.List;
  */
 public final class NetworkUtil {
 
+    private static final Metrics.Timer DNS_RESOLVE = Metrics.timer("network.dns.resolve");
+    private static final Metrics.Counter DNS_FAILURES = Metrics.counter("network.dns.failures");
+
+    /**
+     * The default time to live of the network snapshot.
+     */
+    public static final long DEFAULT_SNAPSHOT_TTL_MILLIS = 30000;
+
+    private static DnsResolver sDnsResolver;
+    private static NetworkQualityEstimator sQualityEstimator;
+
+    private static final Object sSnapshotLock = new Object();
+    private static volatile NetworkSnapshot sSnapshot;
+    private static volatile long sSnapshotTtlNanos
+            = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SNAPSHOT_TTL_MILLIS);
+    private static final List<NetworkSnapshot.Listener> sSnapshotListeners
+            = new CopyOnWriteArrayList<>();
+    /**
+     * The count of connectivity broadcasts, a snapshot captured before the latest one is stale.
+     */
+    private static volatile int sConnectivityGeneration;
+    private static boolean sSnapshotRefreshPending;
+    private static ThreadPoolExecutor sSnapshotExecutor;
+
+    private static final Runnable sSnapshotRefresher = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (sSnapshotLock) {
+                sSnapshotRefreshPending = false;
+            }
+            refreshNetworkSnapshot();
+        }
+    };
+
     private NetworkUtil() {
         throw new IllegalAccessError();
     }
@@ -33,11 +68,17 @@ public final class NetworkUtil {
      * Check network connectivity.
      * <p>This method requires the caller to hold the permission
      * {@link android.Manifest.permission#ACCESS_NETWORK_STATE}.
+     * <p>While the {@link ConnectivityMonitor} is started, this reads its cached state instead
+     * of querying the system.
      * @param context to use to check for network connectivity.
      * @return true if connected, false otherwise.
      */
     @RequiresPermission(allOf = {Manifest.permission.ACCESS_NETWORK_STATE, Manifest.permission.INTERNET})
     public static boolean isConnected(@NonNull Context context) {
+        final ConnectivityMonitor.State state = ConnectivityMonitor.peekState();
+        if (state != null) {
+            return state.isConnected();
+        }
         ConnectivityManager connectivityManager
                 = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
@@ -49,6 +90,9 @@ public final class NetworkUtil {
      * The host string may be either a machine name or a dotted string IP address.
      * If the latter, the hostName field is determined upon demand.
      * host can be null which means that an address of the loopback interface is returned.
+     * Addresses cached by {@link #getDnsResolver()}, e.g. by
+     * {@link #prefetchDomainNames(String[], long, DnsResolver.PrefetchListener)}, are returned
+     * without a lookup.
      * @param host he hostName to be resolved to an address or null.
      * @return address of the host
      */
@@ -56,27 +100,210 @@ public final class NetworkUtil {
     @WorkerThread
     @RequiresPermission(Manifest.permission.INTERNET)
     public static String resolveDomainName(@Nullable String host) {
+        if (host != null) {
+            final InetAddress[] cached = getDnsResolver().getCached(host);
+            if (cached != null) {
+                return cached[0].getHostAddress();
+            }
+        }
+        long start = DNS_RESOLVE.start();
         try {
             InetAddress inetAddress = InetAddress.getByName(host);
             return inetAddress.getHostAddress();
         } catch (UnknownHostException ignored) {
+            DNS_FAILURES.increment();
+        } finally {
+            DNS_RESOLVE.stop(start);
         }
         return null;
     }
 
+    /**
+     * @return The shared asynchronous resolver, created with the default settings on first use.
+     */
+    @NonNull
+    public static synchronized DnsResolver getDnsResolver() {
+        if (sDnsResolver == null) {
+            sDnsResolver = new DnsResolver();
+        }
+        return sDnsResolver;
+    }
+
+    /**
+     * Resolve hosts into the cache of {@link #getDnsResolver()}, with as many lookups at once as
+     * the resolver has threads.
+     * <p>This method requires the caller to hold the permission
+     * {@link android.Manifest.permission#INTERNET}.
+     * @param hosts The host names.
+     * @param timeoutMillis The deadline of the whole prefetch.
+     * @param listener Receives the per-host latency and failures, may be null.
+     */
+    @RequiresPermission(Manifest.permission.INTERNET)
+    public static void prefetchDomainNames(@NonNull String[] hosts,
+                                           @IntRange(from = 1) long timeoutMillis,
+                                           @Nullable DnsResolver.PrefetchListener listener) {
+        getDnsResolver().prefetch(hosts, DnsResolver.DEFAULT_THREADS, timeoutMillis, listener);
+    }
+
+    /**
+     * @return The shared network quality estimator, reset by the {@link ConnectivityMonitor}
+     * when the network type changes.
+     */
+    @NonNull
+    public static synchronized NetworkQualityEstimator getNetworkQualityEstimator() {
+        if (sQualityEstimator == null) {
+            sQualityEstimator = new NetworkQualityEstimator();
+            ConnectivityMonitor.addListener(sQualityEstimator);
+            // Otherwise the first change after a started monitor is only taken as the baseline
+            sQualityEstimator.setInitialConnectivity(ConnectivityMonitor.peekState());
+        }
+        return sQualityEstimator;
+    }
+
+    /**
+     * Return the shared snapshot of the local addresses, capturing a new one if connectivity
+     * changed or the TTL expired. Listeners are notified of changed addresses.
+     * <p>Connectivity changes are seen while the {@link ConnectivityMonitor} is started, which
+     * {@link #addNetworkSnapshotListener(Context, NetworkSnapshot.Listener)} does. Otherwise
+     * only the TTL applies.</p>
+     * @return The snapshot.
+     */
+    @NonNull
+    public static NetworkSnapshot getNetworkSnapshot() {
+        final NetworkSnapshot snapshot = sSnapshot;
+        if (!isStale(snapshot)) {
+            return snapshot;
+        }
+        final NetworkSnapshot previous;
+        final NetworkSnapshot current;
+        synchronized (sSnapshotLock) {
+            // Another thread may have captured one while this one waited for the lock
+            previous = sSnapshot;
+            if (!isStale(previous)) {
+                return previous;
+            }
+            current = NetworkSnapshot.capture(sConnectivityGeneration);
+            sSnapshot = current;
+        }
+        notifySnapshotListeners(previous, current);
+        return current;
+    }
+
+    /**
+     * Capture a new snapshot of the local addresses now, notifying listeners of changed
+     * addresses.
+     * @return The new snapshot.
+     */
+    @NonNull
+    public static NetworkSnapshot refreshNetworkSnapshot() {
+        final NetworkSnapshot previous;
+        final NetworkSnapshot current;
+        synchronized (sSnapshotLock) {
+            previous = sSnapshot;
+            current = NetworkSnapshot.capture(sConnectivityGeneration);
+            sSnapshot = current;
+        }
+        notifySnapshotListeners(previous, current);
+        return current;
+    }
+
+    private static boolean isStale(@Nullable NetworkSnapshot snapshot) {
+        return snapshot == null || snapshot.getGeneration() != sConnectivityGeneration
+                || System.nanoTime() - snapshot.getCaptureTime() >= sSnapshotTtlNanos;
+    }
+
+    private static void notifySnapshotListeners(@Nullable NetworkSnapshot previous,
+                                                @NonNull NetworkSnapshot current) {
+        if (previous != null && !sSnapshotListeners.isEmpty()) {
+            final NetworkSnapshot.Diff diff = new NetworkSnapshot.Diff(previous, current);
+            if (!diff.isEmpty()) {
+                for (NetworkSnapshot.Listener listener : sSnapshotListeners) {
+                    listener.onNetworkSnapshotChanged(diff);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the {@link ConnectivityMonitor} on every connectivity broadcast. Marks the
+     * snapshot stale and, while listeners are registered, refreshes it on the snapshot thread.
+     */
+    static void onConnectivityBroadcast() {
+        synchronized (sSnapshotLock) {
+            sConnectivityGeneration++;
+            if (sSnapshotListeners.isEmpty() || sSnapshotRefreshPending) {
+                return;
+            }
+            sSnapshotRefreshPending = true;
+        }
+        snapshotExecutor().execute(sSnapshotRefresher);
+    }
+
+    @NonNull
+    private static synchronized ThreadPoolExecutor snapshotExecutor() {
+        if (sSnapshotExecutor == null) {
+            // No core thread, so the single worker exits when idle on every API level
+            sSnapshotExecutor = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "NetworkSnapshot");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return sSnapshotExecutor;
+    }
+
+    /**
+     * Set how long a snapshot is shared before it is captured again.
+     * @param ttlMillis The time to live in milliseconds, 0 to capture on every query.
+     */
+    public static void setNetworkSnapshotTtl(@IntRange(from = 0) long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative");
+        }
+        sSnapshotTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Listen for address changes. While listeners are registered, the snapshot is refreshed in
+     * the background on every connectivity change.
+     * <p>Starts the {@link ConnectivityMonitor}, which keeps running after the last listener is
+     * removed. This method requires the caller to hold the permission
+     * {@link android.Manifest.permission#ACCESS_NETWORK_STATE}.
+     * @param context Context used for receiving connectivity changes.
+     * @param listener The listener, notified on the snapshot thread.
+     */
+    @RequiresPermission(Manifest.permission.ACCESS_NETWORK_STATE)
+    public static void addNetworkSnapshotListener(@NonNull Context context,
+                                                  @NonNull NetworkSnapshot.Listener listener) {
+        ConnectivityMonitor.start(context);
+        synchronized (sSnapshotLock) {
+            if (sSnapshot == null) {
+                sSnapshot = NetworkSnapshot.capture(sConnectivityGeneration);
+            }
+            sSnapshotListeners.add(listener);
+        }
+    }
+
+    /**
+     * Stop listening for address changes.
+     * @param listener The listener.
+     */
+    public static void removeNetworkSnapshotListener(@NonNull NetworkSnapshot.Listener listener) {
+        sSnapshotListeners.remove(listener);
+    }
+
     /**
      * Get local IPv4 internet address
      * @return Local IPv4 internet address
      */
     @Nullable
     public static String getLocalHostIpv4Address() {
-        List<InetAddress> localInetAddress = getLocalHostAddress();
-        for (InetAddress inetAddres : localInetAddress) {
-            if (inetAddres instanceof Inet4Address) {
-                return inetAddres.getHostAddress();
-            }
-        }
-        return null;
+        final InetAddress address = getNetworkSnapshot().getIpv4Address();
+        return address != null ? address.getHostAddress() : null;
     }
 
     /**
@@ -85,13 +312,8 @@ public final class NetworkUtil {
      */
     @Nullable
     public static String getLocalHostIpv6Address() {
-        List<InetAddress> localInetAddress = getLocalHostAddress();
-        for (InetAddress inetAddres : localInetAddress) {
-            if (inetAddres instanceof Inet6Address) {
-                return inetAddres.getHostAddress();
-            }
-        }
-        return null;
+        final InetAddress address = getNetworkSnapshot().getIpv6Address();
+        return address != null ? address.getHostAddress() : null;
     }
 
     /**
@@ -100,22 +322,7 @@ public final class NetworkUtil {
      */
     @NonNull
     public static List<InetAddress> getLocalHostAddress() {
-        List<InetAddress> inetAddressList = new ArrayList<>();
-        try {
-            Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
-            while (networkInterfaces.hasMoreElements()) {
-                NetworkInterface networkInterface = networkInterfaces.nextElement();
-                Enumeration<InetAddress> inetAddresses = networkInterface.getInetAddresses();
-                while (inetAddresses.hasMoreElements()) {
-                    InetAddress inetAddress = inetAddresses.nextElement();
-                    if (!inetAddress.isLoopbackAddress() && !inetAddress.isLinkLocalAddress() && !inetAddress.isAnyLocalAddress()) {
-                        inetAddressList.add(inetAddress);
-                    }
-                }
-            }
-        } catch (SocketException ignored) {
-        }
-        return inetAddressList;
+        return new ArrayList<>(getNetworkSnapshot().getAddresses());
     }
 
     /**
@@ -123,13 +330,7 @@ public final class NetworkUtil {
      * @return true - IPv6 supported
      */
     public static boolean isIpv6Supported() {
-        List<InetAddress> localInetAddress = getLocalHostAddress();
-        for (InetAddress localInetAddres : localInetAddress) {
-            if (localInetAddres instanceof Inet6Address) {
-                return true;
-            }
-        }
-        return false;
+        return getNetworkSnapshot().hasIpv6();
     }
 
 
@@ -0,0 +1,579 @@
+package org.ligboy.android.utils;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.content.res.Resources.NotFoundException;
+import android.content.res.Resources.Theme;
+import android.os.Build.VERSION_CODES;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Warm-up of the resource caches of {@link ResourcesUtil} off the main thread.
+ * <p>Drawables, colors and theme attributes are resolved in parallel on a small pool of
+ * background threads, so the first lookups of a screen hit the caches. The resources to warm up
+ * are either declared, or recorded by a previous run of the app:</p>
+ * <pre>
+ * // In the application
+ * public void onCreate() {
+ *     super.onCreate();
+ *     if (BuildConfig.DEBUG) {
+ *         ResourceWarmUp.startRecording();
+ *     }
+ * }
+ *
+ * // In the first activity
+ * protected void onCreate(Bundle savedInstanceState) {
+ *     super.onCreate(savedInstanceState);
+ *     ResourceWarmUp.warmUpRecorded(this);
+ *     setContentView(R.layout.main);
+ *     ResourceWarmUp.stopRecordingOnFirstDraw(this);
+ * }
+ * </pre>
+ * <p>The caches key by resources and theme identity, and every activity has its own theme, and
+ * from API 24 its own resources. So the warm-up is per activity: it must run with the activity
+ * as the context, and only the lookups made with the resources and the theme of the activity,
+ * or without a theme, are recorded for it. A warm-up from the application fills entries that
+ * the activities never read. Recorded lists are dropped when the app is updated, since resource
+ * IDs change between builds.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class ResourceWarmUp {
+
+    public static final int TYPE_DRAWABLE = 0;
+    public static final int TYPE_COLOR = 1;
+    public static final int TYPE_COLOR_STATE_LIST = 2;
+    public static final int TYPE_ATTRIBUTE_COLOR = 3;
+    public static final int TYPE_ATTRIBUTE_DIMENSION = 4;
+    public static final int TYPE_ATTRIBUTE_DIMENSION_PIXEL_SIZE = 5;
+    public static final int TYPE_ATTRIBUTE_DIMENSION_PIXEL_OFFSET = 6;
+
+    @IntDef({TYPE_DRAWABLE, TYPE_COLOR, TYPE_COLOR_STATE_LIST, TYPE_ATTRIBUTE_COLOR,
+            TYPE_ATTRIBUTE_DIMENSION, TYPE_ATTRIBUTE_DIMENSION_PIXEL_SIZE,
+            TYPE_ATTRIBUTE_DIMENSION_PIXEL_OFFSET})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Type {}
+
+    private static final String TAG = LogUtil.makeLogTag(ResourceWarmUp.class);
+    private static final String RECORD_FILE_NAME = "resource_warmup";
+    /**
+     * Set on the type of a recorded lookup that was made with the theme of the activity, not
+     * without a theme.
+     */
+    private static final int FLAG_THEMED = 1 << 16;
+    private static final String THREAD_NAME = "ResourceWarmUp";
+    private static final int THREAD_COUNT = 2;
+
+    private static final Metrics.Counter RESOLVED = Metrics.counter("resources.warmup.resolved");
+    private static final Metrics.Counter FAILURES = Metrics.counter("resources.warmup.failures");
+
+    private static volatile boolean sRecording;
+    private static final LinkedHashSet<Lookup> sRecorded = new LinkedHashSet<>();
+    private static ThreadPoolExecutor sExecutor;
+    /**
+     * Orders the reads and writes of the record files, which run on the warm-up threads.
+     */
+    private static final Object sFileLock = new Object();
+
+    private ResourceWarmUp() {
+        throw new IllegalAccessError();
+    }
+
+    /**
+     * Resolve resources in the background, filling the caches of {@link ResourcesUtil}. The
+     * context and the theme must be the ones the screen looks the resources up with.
+     * @param context Context used for getting the values, e.g. the activity.
+     * @param theme theme, may be {@code null}: drawables and colors are then resolved without a
+     * theme, and attributes from the context's theme, like the lookups of {@link ResourcesUtil}.
+     * @param types The type of each resource, one of the {@code TYPE_*} constants.
+     * @param ids The resource or attribute IDs.
+     */
+    public static void warmUp(@NonNull Context context, @Nullable Theme theme,
+                              @NonNull @Type int[] types, @NonNull int[] ids) {
+        if (types.length != ids.length) {
+            throw new IllegalArgumentException("types and ids must have the same length");
+        }
+        final int count = ids.length;
+        if (count == 0) {
+            return;
+        }
+        final int[] typesCopy = types.clone();
+        final int[] idsCopy = ids.clone();
+        final ThreadPoolExecutor executor = executor();
+        final int tasks = Math.min(THREAD_COUNT, count);
+        for (int task = 0; task < tasks; task++) {
+            executor.execute(new WarmUpTask(context, theme, typesCopy, idsCopy, task, tasks));
+        }
+    }
+
+    /**
+     * Warm up the resources recorded for the class of the activity by a previous run, if any,
+     * with its resources and theme. Call it after {@code super.onCreate}, which sets the theme.
+     * The list is read in the background too.
+     * @param activity The activity, or another context with its own theme.
+     */
+    public static void warmUpRecorded(@NonNull final Context activity) {
+        final Theme theme = activity.getTheme();
+        final Context context = activity.getApplicationContext();
+        final String fileName = recordFileName(activity);
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final long[] entries;
+                synchronized (sFileLock) {
+                    entries = readRecorded(context, fileName);
+                }
+                if (entries != null) {
+                    warmUpRecorded(activity, theme, entries);
+                }
+            }
+        });
+    }
+
+    private static void warmUpRecorded(@NonNull Context activity, @NonNull Theme theme,
+                                       @NonNull long[] entries) {
+        int themedCount = 0;
+        for (long entry : entries) {
+            if ((type(entry) & FLAG_THEMED) != 0) {
+                themedCount++;
+            }
+        }
+        final int[] themedTypes = new int[themedCount];
+        final int[] themedIds = new int[themedCount];
+        final int[] types = new int[entries.length - themedCount];
+        final int[] ids = new int[entries.length - themedCount];
+        int themed = 0;
+        int unthemed = 0;
+        for (long entry : entries) {
+            final int type = type(entry);
+            if ((type & FLAG_THEMED) != 0) {
+                themedTypes[themed] = type & ~FLAG_THEMED;
+                themedIds[themed++] = id(entry);
+            } else {
+                types[unthemed] = type;
+                ids[unthemed++] = id(entry);
+            }
+        }
+        warmUp(activity, theme, themedTypes, themedIds);
+        warmUp(activity, null, types, ids);
+    }
+
+    /**
+     * Start recording the resources looked up through {@link ResourcesUtil}.
+     */
+    public static void startRecording() {
+        synchronized (sRecorded) {
+            sRecorded.clear();
+        }
+        sRecording = true;
+    }
+
+    /**
+     * @return Whether resources are being recorded.
+     */
+    public static boolean isRecording() {
+        return sRecording;
+    }
+
+    /**
+     * Stop recording, save the resources recorded for the activity for {@link #warmUpRecorded}
+     * of the same activity class, and log them. Lookups made with other resources or themes,
+     * e.g. those of the application, are dropped, a warm-up of the activity can't fill them.
+     * Saving and logging run in the background, this is called during the first frame.
+     * @param activity The activity, or another context with its own theme.
+     * @return The number of saved resources.
+     */
+    public static int stopRecording(@NonNull Context activity) {
+        if (!sRecording) {
+            return 0;
+        }
+        sRecording = false;
+        final Resources res = activity.getResources();
+        final Theme theme = activity.getTheme();
+        final LinkedHashSet<Long> kept = new LinkedHashSet<>();
+        synchronized (sRecorded) {
+            for (Lookup lookup : sRecorded) {
+                if (lookup.mResources != res) {
+                    continue;
+                }
+                if (lookup.mTheme == null) {
+                    kept.add(lookup.mEntry);
+                } else if (lookup.mTheme == theme) {
+                    kept.add(entry(type(lookup.mEntry) | FLAG_THEMED, id(lookup.mEntry)));
+                }
+            }
+            sRecorded.clear();
+        }
+        final long[] entries = new long[kept.size()];
+        final Iterator<Long> iterator = kept.iterator();
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = iterator.next();
+        }
+        final Context context = activity.getApplicationContext();
+        final String fileName = recordFileName(activity);
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sFileLock) {
+                    writeRecorded(context, fileName, entries);
+                }
+                logRecorded(res, entries);
+            }
+        });
+        return entries.length;
+    }
+
+    /**
+     * Stop recording when the activity draws its first frame.
+     * @param activity The activity, after its content view is set.
+     */
+    @MainThread
+    public static void stopRecordingOnFirstDraw(@NonNull final Activity activity) {
+        if (!sRecording) {
+            return;
+        }
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        final ViewTreeObserver observer = decorView.getViewTreeObserver();
+                        if (observer.isAlive()) {
+                            observer.removeOnPreDrawListener(this);
+                        }
+                        stopRecording(activity);
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Delete the resources recorded for all activities.
+     * @param context Context used for deleting.
+     */
+    public static void clearRecorded(@NonNull Context context) {
+        final File[] files = context.getFilesDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(RECORD_FILE_NAME) && !file.delete()) {
+                LogUtil.w(TAG, "Failed to delete ", file);
+            }
+        }
+    }
+
+    /**
+     * Record a lookup of {@link ResourcesUtil}.
+     * @param theme The theme passed to the lookup, null for an unthemed lookup.
+     */
+    static void record(@Type int type, int id, @NonNull Resources res, @Nullable Theme theme) {
+        if (!sRecording || Thread.currentThread() instanceof WarmUpThread) {
+            return;
+        }
+        synchronized (sRecorded) {
+            if (sRecording) {
+                sRecorded.add(new Lookup(entry(type, id), res, theme));
+            }
+        }
+    }
+
+    /**
+     * Record a theme attribute lookup of {@link ResourcesUtil}.
+     * @param kind One of the {@code ThemeAttributeCache.KIND_*} constants, which are in the order
+     * of the {@code TYPE_ATTRIBUTE_*} constants.
+     * @param theme The theme the attribute is resolved from.
+     */
+    static void recordAttribute(int kind, int attrId, @NonNull Resources res,
+                                @NonNull Theme theme) {
+        if (sRecording) {
+            record(TYPE_ATTRIBUTE_COLOR + kind, attrId, res, theme);
+        }
+    }
+
+    /**
+     * Wait for the warm-ups started so far to finish, for tests.
+     * @return Whether they finished in time.
+     */
+    static boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        final ThreadPoolExecutor executor = executor();
+        final long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+        while (executor.getCompletedTaskCount() < executor.getTaskCount()) {
+            if (SystemClock.uptimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static long entry(int type, int id) {
+        return (long) type << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    private static int type(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int id(long entry) {
+        return (int) entry;
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private int mCount;
+
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            final Thread thread
+                                    = new WarmUpThread(runnable, THREAD_NAME + "-" + ++mCount);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            if (SDK_INT >= VERSION_CODES.GINGERBREAD) {
+                // Below API 9 the idle threads stay alive
+                sExecutor.allowCoreThreadTimeOut(true);
+            }
+        }
+        return sExecutor;
+    }
+
+    private static void resolve(@NonNull Context context, @Nullable Theme theme, int type,
+                                int id) {
+        final Resources res = context.getResources();
+        switch (type) {
+            case TYPE_DRAWABLE:
+                ResourcesUtil.getDrawable(res, id, theme);
+                break;
+            case TYPE_COLOR:
+                ResourcesUtil.getColor(res, id, theme);
+                break;
+            case TYPE_COLOR_STATE_LIST:
+                ResourcesUtil.getColorStateList(context, id, theme);
+                break;
+            case TYPE_ATTRIBUTE_COLOR:
+                ResourcesUtil.getAttributeColor(context, id, 0, theme);
+                break;
+            case TYPE_ATTRIBUTE_DIMENSION:
+                ResourcesUtil.getAttributeDimension(context, id, 0, theme);
+                break;
+            case TYPE_ATTRIBUTE_DIMENSION_PIXEL_SIZE:
+                ResourcesUtil.getAttributeDimensionPixelSize(context, id, 0, theme);
+                break;
+            case TYPE_ATTRIBUTE_DIMENSION_PIXEL_OFFSET:
+                ResourcesUtil.getAttributeDimensionPixelOffset(context, id, 0, theme);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    /**
+     * @return The name of the file of the resources recorded for the class of the activity.
+     */
+    @NonNull
+    private static String recordFileName(@NonNull Context activity) {
+        return RECORD_FILE_NAME + "-" + activity.getClass().getName();
+    }
+
+    /**
+     * @return A stamp of the installed build, recorded IDs are only valid for the same stamp.
+     */
+    @NonNull
+    private static String buildStamp(@NonNull Context context) {
+        try {
+            final PackageInfo info = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0);
+            final long updateTime = SDK_INT >= VERSION_CODES.GINGERBREAD ? info.lastUpdateTime : 0;
+            return info.versionCode + ":" + updateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "";
+        }
+    }
+
+    @Nullable
+    private static long[] readRecorded(@NonNull Context context, @NonNull String fileName) {
+        final File file = new File(context.getFilesDir(), fileName);
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            if (!buildStamp(context).equals(reader.readLine())) {
+                return null;
+            }
+            final String countLine = reader.readLine();
+            final int count = countLine != null ? Integer.parseInt(countLine) : 0;
+            final long[] entries = new long[count];
+            for (int i = 0; i < count; i++) {
+                final String line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                final int space = line.indexOf(' ');
+                entries[i] = entry(Integer.parseInt(line.substring(0, space)),
+                        (int) Long.parseLong(line.substring(space + 1), 16));
+            }
+            return entries;
+        } catch (IOException | RuntimeException e) {
+            LogUtil.w(TAG, e, "Failed to read ", file);
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static void writeRecorded(@NonNull Context context, @NonNull String fileName,
+                                      @NonNull long[] entries) {
+        final File file = new File(context.getFilesDir(), fileName);
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.append(buildStamp(context)).append('\n');
+            writer.append(Integer.toString(entries.length)).append('\n');
+            for (long entry : entries) {
+                writer.append(Integer.toString(type(entry))).append(' ')
+                        .append(Integer.toHexString(id(entry))).append('\n');
+            }
+        } catch (IOException e) {
+            LogUtil.w(TAG, e, "Failed to write ", file);
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static void logRecorded(@NonNull Resources res, @NonNull long[] entries) {
+        final StringBuilder builder = new StringBuilder("Recorded ")
+                .append(entries.length).append(" resources before first draw:");
+        for (long entry : entries) {
+            builder.append("\n    ").append(type(entry)).append(" 0x")
+                    .append(Integer.toHexString(id(entry)));
+            try {
+                builder.append(' ').append(res.getResourceName(id(entry)));
+            } catch (NotFoundException ignored) {
+            }
+        }
+        LogUtil.i(TAG, builder);
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class WarmUpTask implements Runnable {
+
+        private final Context mContext;
+        private final Theme mTheme;
+        private final int[] mTypes;
+        private final int[] mIds;
+        private final int mOffset;
+        private final int mStride;
+
+        /**
+         * Resolves every {@code stride}-th resource from {@code offset}, so the tasks split the
+         * work evenly.
+         */
+        WarmUpTask(@NonNull Context context, @Nullable Theme theme, @NonNull int[] types,
+                   @NonNull int[] ids, int offset, int stride) {
+            mContext = context;
+            mTheme = theme;
+            mTypes = types;
+            mIds = ids;
+            mOffset = offset;
+            mStride = stride;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            for (int i = mOffset; i < mIds.length; i += mStride) {
+                try {
+                    resolve(mContext, mTheme, mTypes[i], mIds[i]);
+                    RESOLVED.increment();
+                } catch (RuntimeException e) {
+                    FAILURES.increment();
+                    LogUtil.w(TAG, e, "Failed to warm up 0x", Integer.toHexString(mIds[i]));
+                }
+            }
+        }
+    }
+
+    /**
+     * A recorded lookup, with the resources and the theme it was made with.
+     */
+    private static final class Lookup {
+
+        final long mEntry;
+        final Resources mResources;
+        final Theme mTheme;
+
+        Lookup(long entry, @NonNull Resources res, @Nullable Theme theme) {
+            mEntry = entry;
+            mResources = res;
+            mTheme = theme;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Lookup)) {
+                return false;
+            }
+            final Lookup lookup = (Lookup) o;
+            return mEntry == lookup.mEntry && mResources == lookup.mResources
+                    && mTheme == lookup.mTheme;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (mEntry ^ (mEntry >>> 32));
+            result = 31 * result + System.identityHashCode(mResources);
+            return 31 * result + System.identityHashCode(mTheme);
+        }
+    }
+
+    /**
+     * Lookups of warm-up threads are not recorded.
+     */
+    private static final class WarmUpThread extends Thread {
+
+        WarmUpThread(@NonNull Runnable runnable, @NonNull String name) {
+            super(runnable, name);
+        }
+    }
+}
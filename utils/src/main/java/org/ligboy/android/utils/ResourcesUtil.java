@@ -19,6 +19,10 @@ import android.support.annotation.Nullable;
 import android.util.DisplayMetrics;
 
 import static android.os.Build.VERSION.SDK_INT;
+import static org.ligboy.android.utils.ThemeAttributeCache.KIND_COLOR;
+import static org.ligboy.android.utils.ThemeAttributeCache.KIND_DIMENSION;
+import static org.ligboy.android.utils.ThemeAttributeCache.KIND_PIXEL_OFFSET;
+import static org.ligboy.android.utils.ThemeAttributeCache.KIND_PIXEL_SIZE;
 
 /**
  * Resource Util
@@ -26,6 +30,16 @@ import static android.os.Build.VERSION.SDK_INT;
  */
 public final class ResourcesUtil {
 
+    private static final Metrics.Counter ATTRIBUTE_LOOKUPS
+            = Metrics.counter("resources.attribute.lookups");
+    private static final Metrics.Counter ATTRIBUTE_MISSES
+            = Metrics.counter("resources.attribute.misses");
+
+    private static final ThemeAttributeCache sAttributeCache = new ThemeAttributeCache();
+    private static final DrawableCache sDrawableCache
+            = new DrawableCache(Runtime.getRuntime().maxMemory() / 32);
+    private static final ColorCache sColorCache = new ColorCache();
+
     private ResourcesUtil() {
         throw new IllegalAccessError();
     }
@@ -42,18 +56,12 @@ public final class ResourcesUtil {
     @ColorInt
     public static int getAttributeColor(Context context, @AttrRes int attribute,
                                         @ColorInt int defaultColor, @Nullable Theme theme) {
-        int themeColor;
         if (theme == null) {
             theme = context.getTheme();
         }
         if (theme != null) {
-            try {
-                TypedArray ta = theme.obtainStyledAttributes(new int[]{attribute});
-                themeColor = ta.getColor(0, defaultColor);
-                ta.recycle();
-                return themeColor;
-            } catch (NotFoundException ignored) {
-            }
+            return ThemeAttributeCache.intValue(
+                    resolveAttribute(context, theme, KIND_COLOR, attribute), defaultColor);
         }
         return defaultColor;
     }
@@ -73,19 +81,14 @@ public final class ResourcesUtil {
      */
     public static float getAttributeDimension(final Context context, @AttrRes int attrId,
                                               float defValue, @Nullable Theme theme) {
-        float dimension = defValue;
         if (theme == null) {
             theme = context.getTheme();
         }
         if (theme != null) {
-            try {
-                TypedArray ta = theme.obtainStyledAttributes(new int[]{attrId});
-                dimension = ta.getDimension(0, defValue);
-                ta.recycle();
-            } catch (NotFoundException ignored) {
-            }
+            return ThemeAttributeCache.floatValue(
+                    resolveAttribute(context, theme, KIND_DIMENSION, attrId), defValue);
         }
-        return dimension;
+        return defValue;
     }
 
     /**
@@ -109,19 +112,14 @@ public final class ResourcesUtil {
      */
     public static int getAttributeDimensionPixelSize(final Context context, @AttrRes int attrId,
                                                      int defValue, @Nullable Theme theme) {
-        int dimension = defValue;
         if (theme == null) {
             theme = context.getTheme();
         }
         if (theme != null) {
-            try {
-                TypedArray ta = theme.obtainStyledAttributes(new int[]{attrId});
-                dimension = ta.getDimensionPixelSize(0, defValue);
-                ta.recycle();
-            } catch (NotFoundException ignored) {
-            }
+            return ThemeAttributeCache.intValue(
+                    resolveAttribute(context, theme, KIND_PIXEL_SIZE, attrId), defValue);
         }
-        return dimension;
+        return defValue;
     }
 
     /**
@@ -139,19 +137,248 @@ public final class ResourcesUtil {
      */
     public static int getAttributeDimensionPixelOffset(final Context context, @AttrRes int attrId,
                                                        int defValue, @Nullable Theme theme) {
-        int dimension = defValue;
         if (theme == null) {
             theme = context.getTheme();
         }
         if (theme != null) {
+            return ThemeAttributeCache.intValue(
+                    resolveAttribute(context, theme, KIND_PIXEL_OFFSET, attrId), defValue);
+        }
+        return defValue;
+    }
+
+    /**
+     * Return the color values of several attributes, resolved in one
+     * {@link Theme#obtainStyledAttributes(int[])} pass.
+     *
+     * @param context Context used for getting the colors.
+     * @param attrIds theme attributes.
+     * @param defaultColors Values to use for attributes that are not defined or not a resource.
+     * @param outColors The array receiving the colors, in the order of {@code attrIds}.
+     * @param theme theme
+     */
+    public static void getAttributeColors(@NonNull Context context,
+                                          @NonNull @AttrRes int[] attrIds,
+                                          @NonNull @ColorInt int[] defaultColors,
+                                          @NonNull @ColorInt int[] outColors,
+                                          @Nullable Theme theme) {
+        System.arraycopy(defaultColors, 0, outColors, 0, attrIds.length);
+        TypedArray ta = obtainAttributes(context, attrIds, theme);
+        if (ta != null) {
+            try {
+                for (int i = 0; i < attrIds.length; i++) {
+                    try {
+                        outColors[i] = ta.getColor(i, defaultColors[i]);
+                    } catch (NotFoundException ignored) {
+                    }
+                }
+            } finally {
+                ta.recycle();
+            }
+        }
+    }
+
+    /**
+     * Return several dimensional attributes, resolved in one
+     * {@link Theme#obtainStyledAttributes(int[])} pass.
+     *
+     * @param context Context used for getting the dimensions.
+     * @param attrIds theme attributes.
+     * @param defValues Values to use for attributes that are not defined or not a resource.
+     * @param outDimensions The array receiving the dimensions, in the order of {@code attrIds}.
+     * @param theme theme
+     * @see #getAttributeDimension(Context, int, float, Theme)
+     */
+    public static void getAttributeDimensions(@NonNull Context context,
+                                              @NonNull @AttrRes int[] attrIds,
+                                              @NonNull float[] defValues,
+                                              @NonNull float[] outDimensions,
+                                              @Nullable Theme theme) {
+        System.arraycopy(defValues, 0, outDimensions, 0, attrIds.length);
+        TypedArray ta = obtainAttributes(context, attrIds, theme);
+        if (ta != null) {
+            try {
+                for (int i = 0; i < attrIds.length; i++) {
+                    try {
+                        outDimensions[i] = ta.getDimension(i, defValues[i]);
+                    } catch (NotFoundException ignored) {
+                    }
+                }
+            } finally {
+                ta.recycle();
+            }
+        }
+    }
+
+    /**
+     * Return several dimensional attributes for use as sizes in raw pixels, resolved in one
+     * {@link Theme#obtainStyledAttributes(int[])} pass.
+     *
+     * @param context Context used for getting the dimensions.
+     * @param attrIds theme attributes.
+     * @param defValues Values to use for attributes that are not defined or not a resource.
+     * @param outSizes The array receiving the sizes, in the order of {@code attrIds}.
+     * @param theme theme
+     * @see #getAttributeDimensionPixelSize(Context, int, int, Theme)
+     */
+    public static void getAttributeDimensionPixelSizes(@NonNull Context context,
+                                                       @NonNull @AttrRes int[] attrIds,
+                                                       @NonNull int[] defValues,
+                                                       @NonNull int[] outSizes,
+                                                       @Nullable Theme theme) {
+        System.arraycopy(defValues, 0, outSizes, 0, attrIds.length);
+        TypedArray ta = obtainAttributes(context, attrIds, theme);
+        if (ta != null) {
+            try {
+                for (int i = 0; i < attrIds.length; i++) {
+                    try {
+                        outSizes[i] = ta.getDimensionPixelSize(i, defValues[i]);
+                    } catch (NotFoundException ignored) {
+                    }
+                }
+            } finally {
+                ta.recycle();
+            }
+        }
+    }
+
+    /**
+     * Return several dimensional attributes for use as offsets in raw pixels, resolved in one
+     * {@link Theme#obtainStyledAttributes(int[])} pass.
+     *
+     * @param context Context used for getting the dimensions.
+     * @param attrIds theme attributes.
+     * @param defValues Values to use for attributes that are not defined or not a resource.
+     * @param outOffsets The array receiving the offsets, in the order of {@code attrIds}.
+     * @param theme theme
+     * @see #getAttributeDimensionPixelOffset(Context, int, int, Theme)
+     */
+    public static void getAttributeDimensionPixelOffsets(@NonNull Context context,
+                                                         @NonNull @AttrRes int[] attrIds,
+                                                         @NonNull int[] defValues,
+                                                         @NonNull int[] outOffsets,
+                                                         @Nullable Theme theme) {
+        System.arraycopy(defValues, 0, outOffsets, 0, attrIds.length);
+        TypedArray ta = obtainAttributes(context, attrIds, theme);
+        if (ta != null) {
+            try {
+                for (int i = 0; i < attrIds.length; i++) {
+                    try {
+                        outOffsets[i] = ta.getDimensionPixelOffset(i, defValues[i]);
+                    } catch (NotFoundException ignored) {
+                    }
+                }
+            } finally {
+                ta.recycle();
+            }
+        }
+    }
+
+    /**
+     * Obtain the styled attributes of a batch from a theme, the context's theme if null.
+     * @return The array, to be recycled by the caller, or null if there's no theme.
+     */
+    @Nullable
+    static TypedArray obtainAttributes(@NonNull Context context, @NonNull int[] attrIds,
+                                       @Nullable Theme theme) {
+        if (theme == null) {
+            theme = context.getTheme();
+        }
+        if (theme == null) {
+            return null;
+        }
+        ATTRIBUTE_LOOKUPS.add(attrIds.length);
+        try {
+            return theme.obtainStyledAttributes(attrIds);
+        } catch (NotFoundException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Drop the cached attribute values of a theme. Call it after changing the theme in place,
+     * e.g. with {@link Theme#applyStyle(int, boolean)}. Configuration changes are detected
+     * automatically.
+     * @param theme The theme.
+     */
+    public static void invalidateAttributeCache(@NonNull Theme theme) {
+        sAttributeCache.invalidate(theme);
+    }
+
+    /**
+     * Drop all cached attribute values.
+     */
+    public static void clearAttributeCache() {
+        sAttributeCache.clear();
+    }
+
+    /**
+     * Drop all cached colors and color state lists. They are dropped on configuration changes
+     * automatically.
+     */
+    public static void clearColorCache() {
+        sColorCache.clear();
+    }
+
+    /**
+     * Resolve an attribute of a theme through the cache. A warm lookup doesn't allocate.
+     * @return The encoded value, {@link ThemeAttributeCache#UNDEFINED} if the theme doesn't
+     * define the attribute.
+     */
+    private static long resolveAttribute(@NonNull Context context, @NonNull Theme theme,
+                                         int kind, @AttrRes int attrId) {
+        ATTRIBUTE_LOOKUPS.increment();
+        final Resources res = context.getResources();
+        ResourceWarmUp.recordAttribute(kind, attrId, res, theme);
+        long value = sAttributeCache.get(res, theme, kind, attrId);
+        if (value != ThemeAttributeCache.NOT_CACHED) {
+            return value;
+        }
+        ATTRIBUTE_MISSES.increment();
+        try {
+            TypedArray ta = theme.obtainStyledAttributes(new int[]{attrId});
             try {
-                TypedArray ta = theme.obtainStyledAttributes(new int[]{attrId});
-                dimension = ta.getDimensionPixelOffset(0, defValue);
+                value = ta.hasValue(0) ? getValue(ta, 0, kind) : ThemeAttributeCache.UNDEFINED;
+            } finally {
                 ta.recycle();
-            } catch (NotFoundException ignored) {
             }
+        } catch (NotFoundException ignored) {
+            return ThemeAttributeCache.UNDEFINED;
         }
-        return dimension;
+        sAttributeCache.put(res, theme, kind, attrId, value);
+        return value;
+    }
+
+    private static long getValue(@NonNull TypedArray ta, int index, int kind) {
+        switch (kind) {
+            case KIND_COLOR:
+                return ThemeAttributeCache.encode(ta.getColor(index, 0));
+            case KIND_DIMENSION:
+                return ThemeAttributeCache.encode(ta.getDimension(index, 0));
+            case KIND_PIXEL_SIZE:
+                return ThemeAttributeCache.encode(ta.getDimensionPixelSize(index, 0));
+            default:
+                return ThemeAttributeCache.encode(ta.getDimensionPixelOffset(index, 0));
+        }
+    }
+
+    /**
+     * @return The drawable cache of {@link #getDrawable(Resources, int, Theme)} and
+     * {@link #getDrawableForDensity(Resources, int, int, Theme)}, bounded to 1/32 of the heap by
+     * default.
+     */
+    @NonNull
+    public static DrawableCache getDrawableCache() {
+        return sDrawableCache;
+    }
+
+    /**
+     * Release cached resources in response to
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.
+     * @param level The trim level.
+     */
+    public static void trimMemory(int level) {
+        sDrawableCache.trimMemory(level);
     }
 
     /**
@@ -162,6 +389,9 @@ public final class ResourcesUtil {
      * <p>
      * Prior to API level 21, the theme will not be applied and this method
      * simply calls through to {@link Resources#getDrawable(int)}.
+     * <p>
+     * The constant state of the drawable is kept in the {@link #getDrawableCache() drawable
+     * cache}, later calls return a new drawable from it.
      *
      * @param id The desired resource identifier, as generated by the aapt
      *           tool. This integer encodes the package, type, and resource
@@ -172,17 +402,11 @@ public final class ResourcesUtil {
      * @throws NotFoundException Throws NotFoundException if the given ID does
      *         not exist.
      */
-    @SuppressWarnings("deprecation")
     @Nullable
     public static Drawable getDrawable(@NonNull final Resources resources, @DrawableRes int id,
                                        @Nullable Resources.Theme theme) throws NotFoundException {
-        Drawable drawable;
-        if (SDK_INT >= VERSION_CODES.LOLLIPOP) {
-            drawable = resources.getDrawable(id, theme);
-        } else {
-            drawable = resources.getDrawable(id);
-        }
-        return drawable;
+        ResourceWarmUp.record(ResourceWarmUp.TYPE_DRAWABLE, id, resources, theme);
+        return sDrawableCache.get(resources, id, DrawableCache.DENSITY_DEFAULT, theme);
     }
 
 
@@ -195,6 +419,9 @@ public final class ResourcesUtil {
      * <p>
      * Prior to API level 21, the theme will not be applied and this method
      * calls through to Resources#getDrawableForDensity(int, int).
+     * <p>
+     * The constant state of the drawable is kept in the {@link #getDrawableCache() drawable
+     * cache}, later calls return a new drawable from it.
      *
      * @param id The desired resource identifier, as generated by the aapt
      *           tool. This integer encodes the package, type, and resource
@@ -208,17 +435,11 @@ public final class ResourcesUtil {
      *         not exist.
      */
     @Nullable
-    @SuppressWarnings("deprecation")
     public static Drawable getDrawableForDensity(@NonNull Resources res,
                                                  @DrawableRes int id, int density,
                                                  @Nullable Theme theme) throws NotFoundException {
-        if (SDK_INT >= VERSION_CODES.LOLLIPOP) {
-            return res.getDrawableForDensity(id, density, theme);
-        } else if (SDK_INT >= VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-            return res.getDrawableForDensity(id, density);
-        } else {
-            return res.getDrawable(id);
-        }
+        ResourceWarmUp.record(ResourceWarmUp.TYPE_DRAWABLE, id, res, theme);
+        return sDrawableCache.get(res, id, density, theme);
     }
 
     /**
@@ -228,6 +449,8 @@ public final class ResourcesUtil {
      * <p>
      * Prior to API level 23, the theme will not be applied and this method
      * calls through to {@link Resources#getColor(int)}.
+     * <p>
+     * Colors are cached by ID and theme until the configuration changes.
      *
      * @param id The desired resource identifier, as generated by the aapt
      *           tool. This integer encodes the package, type, and resource
@@ -239,20 +462,19 @@ public final class ResourcesUtil {
      *         not exist.
      */
     @ColorInt
-    @SuppressWarnings("deprecation")
-    public int getColor(@NonNull Resources res, @ColorRes int id, @Nullable Theme theme)
+    public static int getColor(@NonNull Resources res, @ColorRes int id, @Nullable Theme theme)
             throws NotFoundException {
-        if (SDK_INT >= VERSION_CODES.M) {
-            return res.getColor(id, theme);
-        } else {
-            return res.getColor(id);
-        }
+        ResourceWarmUp.record(ResourceWarmUp.TYPE_COLOR, id, res, theme);
+        return sColorCache.getColor(res, id, theme);
     }
 
     /**
      * Returns a themed color state list associated with a particular resource
      * ID. The resource may contain either a single raw color value or a
      * complex {@link ColorStateList} holding multiple possible colors.
+     * <p>
+     * Color state lists are cached by ID and theme until the configuration
+     * changes; the returned instance is shared and must not be mutated.
      *
      * @param id    The desired resource identifier of a {@link ColorStateList},
      *              as generated by the aapt tool. This integer encodes the
@@ -265,14 +487,12 @@ public final class ResourcesUtil {
      * @throws NotFoundException Throws NotFoundException if the given ID does
      *                                     not exist.
      */
-    @SuppressWarnings("deprecation")
     @Nullable
-    public ColorStateList getColorStateList(@NonNull Context context, @ColorRes int id,
-                                            @Nullable Resources.Theme theme) throws NotFoundException {
-        if (SDK_INT < VERSION_CODES.M) {
-            return context.getResources().getColorStateList(id);
-        } else {
-            return context.getResources().getColorStateList(id, theme);
-        }
+    public static ColorStateList getColorStateList(@NonNull Context context, @ColorRes int id,
+                                                   @Nullable Resources.Theme theme)
+            throws NotFoundException {
+        final Resources res = context.getResources();
+        ResourceWarmUp.record(ResourceWarmUp.TYPE_COLOR_STATE_LIST, id, res, theme);
+        return sColorCache.getColorStateList(res, id, theme);
     }
 }
@@ -0,0 +1,172 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.os.Build.VERSION_CODES;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * System service handles of {@link ContextUtil}, by service class.
+ * <p>Classes are mapped to the names of {@link ContextUtil.ServiceName} by class name, so the
+ * mapping works before API 23 and doesn't load classes missing on older devices. Handles are
+ * fetched from the application context and cached in a {@link ConcurrentHashMap}, so a repeated
+ * lookup is a lock-free read. Services bound to the calling context, like the
+ * {@link android.view.LayoutInflater} of an activity, are fetched from it and not cached.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+final class SystemServices {
+
+    private static final Map<String, String> sNames = new HashMap<>();
+    private static final Set<String> sContextBound = new HashSet<>();
+
+    static {
+        put("android.os.PowerManager", Context.POWER_SERVICE);
+        put("android.accounts.AccountManager", Context.ACCOUNT_SERVICE);
+        put("android.app.ActivityManager", Context.ACTIVITY_SERVICE);
+        put("android.app.AlarmManager", Context.ALARM_SERVICE);
+        put("android.app.NotificationManager", Context.NOTIFICATION_SERVICE);
+        put("android.view.accessibility.AccessibilityManager", Context.ACCESSIBILITY_SERVICE);
+        put("android.view.accessibility.CaptioningManager", Context.CAPTIONING_SERVICE);
+        put("android.app.KeyguardManager", Context.KEYGUARD_SERVICE);
+        put("android.location.LocationManager", Context.LOCATION_SERVICE);
+        put("android.hardware.SensorManager", Context.SENSOR_SERVICE);
+        put("android.os.storage.StorageManager", Context.STORAGE_SERVICE);
+        put("android.app.WallpaperManager", Context.WALLPAPER_SERVICE);
+        put("android.os.Vibrator", Context.VIBRATOR_SERVICE);
+        put("android.net.ConnectivityManager", Context.CONNECTIVITY_SERVICE);
+        put("android.app.usage.NetworkStatsManager", Context.NETWORK_STATS_SERVICE);
+        put("android.net.wifi.WifiManager", Context.WIFI_SERVICE);
+        put("android.net.wifi.p2p.WifiP2pManager", Context.WIFI_P2P_SERVICE);
+        put("android.net.nsd.NsdManager", Context.NSD_SERVICE);
+        put("android.media.AudioManager", Context.AUDIO_SERVICE);
+        put("android.hardware.fingerprint.FingerprintManager", Context.FINGERPRINT_SERVICE);
+        put("android.media.MediaRouter", Context.MEDIA_ROUTER_SERVICE);
+        put("android.telephony.TelephonyManager", Context.TELEPHONY_SERVICE);
+        put("android.telephony.SubscriptionManager", Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        put("android.telephony.CarrierConfigManager", Context.CARRIER_CONFIG_SERVICE);
+        put("android.telecom.TelecomManager", Context.TELECOM_SERVICE);
+        put("android.content.ClipboardManager", Context.CLIPBOARD_SERVICE);
+        put("android.view.inputmethod.InputMethodManager", Context.INPUT_METHOD_SERVICE);
+        put("android.view.textservice.TextServicesManager",
+                Context.TEXT_SERVICES_MANAGER_SERVICE);
+        put("android.appwidget.AppWidgetManager", Context.APPWIDGET_SERVICE);
+        put("android.os.DropBoxManager", Context.DROPBOX_SERVICE);
+        put("android.app.admin.DevicePolicyManager", Context.DEVICE_POLICY_SERVICE);
+        put("android.app.UiModeManager", Context.UI_MODE_SERVICE);
+        put("android.app.DownloadManager", Context.DOWNLOAD_SERVICE);
+        put("android.nfc.NfcManager", Context.NFC_SERVICE);
+        put("android.bluetooth.BluetoothManager", Context.BLUETOOTH_SERVICE);
+        put("android.hardware.usb.UsbManager", Context.USB_SERVICE);
+        put("android.content.pm.LauncherApps", Context.LAUNCHER_APPS_SERVICE);
+        put("android.hardware.input.InputManager", Context.INPUT_SERVICE);
+        put("android.hardware.display.DisplayManager", Context.DISPLAY_SERVICE);
+        put("android.os.UserManager", Context.USER_SERVICE);
+        put("android.content.RestrictionsManager", Context.RESTRICTIONS_SERVICE);
+        put("android.app.AppOpsManager", Context.APP_OPS_SERVICE);
+        put("android.hardware.camera2.CameraManager", Context.CAMERA_SERVICE);
+        put("android.hardware.ConsumerIrManager", Context.CONSUMER_IR_SERVICE);
+        put("android.media.tv.TvInputManager", Context.TV_INPUT_SERVICE);
+        put("android.app.usage.UsageStatsManager", Context.USAGE_STATS_SERVICE);
+        put("android.media.session.MediaSessionManager", Context.MEDIA_SESSION_SERVICE);
+        put("android.os.BatteryManager", Context.BATTERY_SERVICE);
+        put("android.app.job.JobScheduler", Context.JOB_SCHEDULER_SERVICE);
+        put("android.media.projection.MediaProjectionManager",
+                Context.MEDIA_PROJECTION_SERVICE);
+        put("android.media.midi.MidiManager", Context.MIDI_SERVICE);
+        // Created for the calling context, e.g. themed or tied to the window of an activity
+        putContextBound("android.view.WindowManager", Context.WINDOW_SERVICE);
+        putContextBound("android.view.LayoutInflater", Context.LAYOUT_INFLATER_SERVICE);
+        putContextBound("android.app.SearchManager", Context.SEARCH_SERVICE);
+        putContextBound("android.print.PrintManager", Context.PRINT_SERVICE);
+    }
+
+    private static volatile Registry sRegistry;
+
+    private SystemServices() {
+        throw new IllegalAccessError();
+    }
+
+    private static void put(@NonNull String className, @NonNull String serviceName) {
+        sNames.put(className, serviceName);
+    }
+
+    private static void putContextBound(@NonNull String className, @NonNull String serviceName) {
+        sNames.put(className, serviceName);
+        sContextBound.add(serviceName);
+    }
+
+    /**
+     * @return The name of the service of the class, or null if it isn't a system service.
+     */
+    @Nullable
+    static String getName(@NonNull Context context, @NonNull Class<?> serviceClass) {
+        final String name = sNames.get(serviceClass.getName());
+        if (name != null || SDK_INT < VERSION_CODES.M) {
+            return name;
+        }
+        return context.getSystemServiceName(serviceClass);
+    }
+
+    @SuppressWarnings({"unchecked", "WrongConstant"})
+    @Nullable
+    static <T> T get(@NonNull Context context, @NonNull Class<T> serviceClass) {
+        final Registry registry = registry(context);
+        final Object cached = registry.mServices.get(serviceClass);
+        if (cached != null) {
+            return (T) cached;
+        }
+        final String name = getName(context, serviceClass);
+        if (name == null) {
+            return null;
+        }
+        if (sContextBound.contains(name)) {
+            return (T) context.getSystemService(name);
+        }
+        final Object service = registry.mContext.getSystemService(name);
+        if (!serviceClass.isInstance(service)) {
+            return null;
+        }
+        // A racing lookup may have cached its handle first, keep one
+        final Object previous = registry.mServices.putIfAbsent(serviceClass, service);
+        return (T) (previous != null ? previous : service);
+    }
+
+    static void clear() {
+        sRegistry = null;
+    }
+
+    /**
+     * @return The registry of the application context, replacing one of another context.
+     */
+    @NonNull
+    private static Registry registry(@NonNull Context context) {
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext == null) {
+            applicationContext = context;
+        }
+        Registry registry = sRegistry;
+        if (registry == null || registry.mContext != applicationContext) {
+            registry = new Registry(applicationContext);
+            sRegistry = registry;
+        }
+        return registry;
+    }
+
+    private static final class Registry {
+
+        final Context mContext;
+        final ConcurrentHashMap<Class<?>, Object> mServices = new ConcurrentHashMap<>();
+
+        Registry(@NonNull Context context) {
+            mContext = context;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.ligboy.android.utils;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.Resources.Theme;
+import android.support.annotation.NonNull;
+
+import org.ligboy.android.utils.collect.IntLongMap;
+
+import java.util.WeakHashMap;
+
+/**
+ * Resolved theme attribute values of {@link ResourcesUtil}, by resources, theme identity and
+ * attribute ID.
+ * <p>Values are stored encoded in primitive maps: {@link #UNDEFINED} for an attribute the theme
+ * doesn't define, {@code 1 << 32 | bits} otherwise. Resources and themes are weakly referenced.
+ * The themes of a resources are dropped when its configuration changes.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+final class ThemeAttributeCache {
+
+    static final int KIND_COLOR = 0;
+    static final int KIND_DIMENSION = 1;
+    static final int KIND_PIXEL_SIZE = 2;
+    static final int KIND_PIXEL_OFFSET = 3;
+    private static final int KIND_COUNT = 4;
+
+    static final long NOT_CACHED = -1L;
+    static final long UNDEFINED = 0L;
+    private static final long DEFINED = 1L << 32;
+
+    private static final int INITIAL_SIZE = 16;
+
+    private final WeakHashMap<Resources, Entry> mResources = new WeakHashMap<>();
+
+    /**
+     * The themes of one resources, valid for one configuration.
+     */
+    private static final class Entry {
+        final WeakHashMap<Theme, IntLongMap[]> mThemes = new WeakHashMap<>();
+        Configuration mConfiguration;
+    }
+
+    /**
+     * @return The encoded value or {@link #NOT_CACHED}.
+     */
+    synchronized long get(@NonNull Resources res, @NonNull Theme theme, int kind, int attrId) {
+        final IntLongMap[] maps = entry(res).mThemes.get(theme);
+        if (maps == null || maps[kind] == null) {
+            return NOT_CACHED;
+        }
+        return maps[kind].get(attrId, NOT_CACHED);
+    }
+
+    synchronized void put(@NonNull Resources res, @NonNull Theme theme, int kind, int attrId,
+                          long value) {
+        final Entry entry = entry(res);
+        IntLongMap[] maps = entry.mThemes.get(theme);
+        if (maps == null) {
+            maps = new IntLongMap[KIND_COUNT];
+            entry.mThemes.put(theme, maps);
+        }
+        if (maps[kind] == null) {
+            maps[kind] = new IntLongMap(INITIAL_SIZE);
+        }
+        maps[kind].put(attrId, value);
+    }
+
+    /**
+     * Drop the values of a theme, e.g. after {@link Theme#applyStyle(int, boolean)}.
+     */
+    synchronized void invalidate(@NonNull Theme theme) {
+        for (Entry entry : mResources.values()) {
+            entry.mThemes.remove(theme);
+        }
+    }
+
+    synchronized void clear() {
+        mResources.clear();
+    }
+
+    /**
+     * @return The entry of the resources, emptied if its configuration changed.
+     */
+    @NonNull
+    private Entry entry(@NonNull Resources res) {
+        final Configuration configuration = res.getConfiguration();
+        Entry entry = mResources.get(res);
+        if (entry == null) {
+            entry = new Entry();
+            entry.mConfiguration = new Configuration(configuration);
+            mResources.put(res, entry);
+        } else if (entry.mConfiguration.diff(configuration) != 0) {
+            entry.mThemes.clear();
+            entry.mConfiguration = new Configuration(configuration);
+        }
+        return entry;
+    }
+
+    static long encode(int value) {
+        return DEFINED | (value & 0xFFFFFFFFL);
+    }
+
+    static long encode(float value) {
+        return encode(Float.floatToRawIntBits(value));
+    }
+
+    static int intValue(long encoded, int defValue) {
+        return encoded != UNDEFINED ? (int) encoded : defValue;
+    }
+
+    static float floatValue(long encoded, float defValue) {
+        return encoded != UNDEFINED ? Float.intBitsToFloat((int) encoded) : defValue;
+    }
+}
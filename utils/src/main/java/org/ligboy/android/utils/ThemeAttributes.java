@@ -0,0 +1,158 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.content.res.Resources.NotFoundException;
+import android.content.res.Resources.Theme;
+import android.content.res.TypedArray;
+import android.support.annotation.AttrRes;
+import android.support.annotation.ColorInt;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * A reusable batch of theme attributes of mixed types, resolved in one
+ * {@link Theme#obtainStyledAttributes(int[])} pass.
+ * <pre>
+ * private static final int[] ATTRS = {R.attr.colorPrimary, R.attr.actionBarSize};
+ * private static final int[] TYPES = {ThemeAttributes.TYPE_COLOR,
+ *         ThemeAttributes.TYPE_DIMENSION_PIXEL_SIZE};
+ * private final ThemeAttributes mAttributes = new ThemeAttributes(ATTRS, TYPES);
+ *
+ * mAttributes.resolve(context, null);
+ * int primary = mAttributes.getColor(0, Color.BLACK);
+ * int actionBarSize = mAttributes.getDimensionPixelSize(1, 0);
+ * </pre>
+ * <p>Resolving again overwrites the values and doesn't allocate besides the {@link TypedArray}
+ * the framework pools. Not thread-safe.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class ThemeAttributes {
+
+    public static final int TYPE_COLOR = 0;
+    public static final int TYPE_DIMENSION = 1;
+    public static final int TYPE_DIMENSION_PIXEL_SIZE = 2;
+    public static final int TYPE_DIMENSION_PIXEL_OFFSET = 3;
+
+    @IntDef({TYPE_COLOR, TYPE_DIMENSION, TYPE_DIMENSION_PIXEL_SIZE, TYPE_DIMENSION_PIXEL_OFFSET})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Type {}
+
+    private final int[] mAttrIds;
+    private final int[] mTypes;
+    private final boolean[] mDefined;
+    private final int[] mIntValues;
+    private final float[] mFloatValues;
+
+    /**
+     * @param attrIds The theme attributes.
+     * @param types The type of each attribute, one of the {@code TYPE_*} constants.
+     */
+    public ThemeAttributes(@NonNull @AttrRes int[] attrIds, @NonNull @Type int[] types) {
+        if (attrIds.length != types.length) {
+            throw new IllegalArgumentException("attrIds and types must have the same length");
+        }
+        mAttrIds = attrIds.clone();
+        mTypes = types.clone();
+        mDefined = new boolean[attrIds.length];
+        mIntValues = new int[attrIds.length];
+        mFloatValues = new float[attrIds.length];
+    }
+
+    /**
+     * Resolve all attributes.
+     * @param context Context used for getting the values.
+     * @param theme theme, the context's theme if null.
+     * @return This batch.
+     */
+    @NonNull
+    public ThemeAttributes resolve(@NonNull Context context, @Nullable Theme theme) {
+        final int count = mAttrIds.length;
+        for (int i = 0; i < count; i++) {
+            mDefined[i] = false;
+        }
+        TypedArray ta = ResourcesUtil.obtainAttributes(context, mAttrIds, theme);
+        if (ta == null) {
+            return this;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                if (!ta.hasValue(i)) {
+                    continue;
+                }
+                try {
+                    switch (mTypes[i]) {
+                        case TYPE_COLOR:
+                            mIntValues[i] = ta.getColor(i, 0);
+                            break;
+                        case TYPE_DIMENSION:
+                            mFloatValues[i] = ta.getDimension(i, 0);
+                            break;
+                        case TYPE_DIMENSION_PIXEL_SIZE:
+                            mIntValues[i] = ta.getDimensionPixelSize(i, 0);
+                            break;
+                        default:
+                            mIntValues[i] = ta.getDimensionPixelOffset(i, 0);
+                            break;
+                    }
+                    mDefined[i] = true;
+                } catch (NotFoundException ignored) {
+                }
+            }
+        } finally {
+            ta.recycle();
+        }
+        return this;
+    }
+
+    /**
+     * @return The number of attributes.
+     */
+    public int size() {
+        return mAttrIds.length;
+    }
+
+    /**
+     * @param index The index of the attribute.
+     * @return Whether the attribute was defined by the theme at the last {@link #resolve}.
+     */
+    public boolean isDefined(int index) {
+        return mDefined[index];
+    }
+
+    /**
+     * @param index The index of a {@link #TYPE_COLOR} attribute.
+     * @param defaultColor Value to return if the attribute is not defined.
+     */
+    @ColorInt
+    public int getColor(int index, @ColorInt int defaultColor) {
+        return mDefined[index] ? mIntValues[index] : defaultColor;
+    }
+
+    /**
+     * @param index The index of a {@link #TYPE_DIMENSION} attribute.
+     * @param defValue Value to return if the attribute is not defined.
+     */
+    public float getDimension(int index, float defValue) {
+        return mDefined[index] ? mFloatValues[index] : defValue;
+    }
+
+    /**
+     * @param index The index of a {@link #TYPE_DIMENSION_PIXEL_SIZE} attribute.
+     * @param defValue Value to return if the attribute is not defined.
+     */
+    public int getDimensionPixelSize(int index, int defValue) {
+        return mDefined[index] ? mIntValues[index] : defValue;
+    }
+
+    /**
+     * @param index The index of a {@link #TYPE_DIMENSION_PIXEL_OFFSET} attribute.
+     * @param defValue Value to return if the attribute is not defined.
+     */
+    public int getDimensionPixelOffset(int index, int defValue) {
+        return mDefined[index] ? mIntValues[index] : defValue;
+    }
+}
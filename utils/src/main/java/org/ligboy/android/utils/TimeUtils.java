@@ -6,7 +6,10 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.format.DateUtils;
 
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * Time Utils
@@ -26,10 +29,70 @@ public final class TimeUtils {
      */
     @Nullable
     public static String formatDuration(@NonNull final Context context, long durationMills) {
-
-        final Resources res = context.getResources();
         final StringBuilder text = new StringBuilder();
+        return formatDuration(context, durationMills, text) != null ? text.toString() : null;
+    }
+
+    /**
+     * Format time duration into a builder.
+     * <p>12 days 12 hours 56 minutes 29 seconds</p>
+     * <p>The plural templates are cached per locale, so a warm call neither looks resources up
+     * nor allocates. Reuse the builder to format repeatedly, e.g. in a list adapter.</p>
+     * @param durationMills The duration of time span.
+     * @param text The builder to append to.
+     * @return The builder, or null if the plurals are not found.
+     */
+    @Nullable
+    public static StringBuilder formatDuration(@NonNull final Context context, long durationMills,
+                                               @NonNull StringBuilder text) {
+        try {
+            return appendDuration(context.getResources(), durationMills, text) ? text : null;
+        } catch (IOException e) {
+            // StringBuilder doesn't throw.
+            throw new AssertionError(e);
+        }
+    }
 
+    /**
+     * Format time duration into an {@link Appendable}.
+     * <p>12 days 12 hours 56 minutes 29 seconds</p>
+     * @param durationMills The duration of time span.
+     * @param text The destination.
+     * @return false if the plurals are not found.
+     * @throws IOException if the destination can't be written.
+     * @see #formatDuration(Context, long, StringBuilder)
+     */
+    public static boolean formatDuration(@NonNull final Context context, long durationMills,
+                                         @NonNull Appendable text) throws IOException {
+        return appendDuration(context.getResources(), durationMills, text);
+    }
+
+    /**
+     * Format time duration.
+     * <p>12 days 12 hours 56 minutes 29 seconds</p>
+     * @param startTime start time
+     * @param endTime end time
+     * @return The formatted time span.
+     */
+    @Nullable
+    public static String formatDuration(@NonNull final Context context, @NonNull Date startTime, @NonNull Date endTime) {
+        return formatDuration(context, endTime.getTime() - startTime.getTime());
+    }
+
+    /**
+     * Format time duration.
+     * <p>12 days 12 hours 56 minutes 29 seconds</p>
+     * @param startTime start time
+     * @param endTime end time
+     * @return The formatted time span.
+     */
+    @Nullable
+    public static String formatDuration(@NonNull final Context context, long startTime, long endTime) {
+        return formatDuration(context, endTime - startTime);
+    }
+
+    private static boolean appendDuration(@NonNull Resources res, long durationMills,
+                                          @NonNull Appendable text) throws IOException {
         if (durationMills < 0) {
             durationMills = -durationMills;
         }
@@ -54,53 +117,170 @@ public final class TimeUtils {
         second = (int) (durationMills / DateUtils.SECOND_IN_MILLIS);
 
         try {
+            final DurationPlurals plurals = DurationPlurals.of(res);
+            boolean separate = false;
             if (day > 0) {
-                text.append(res.getQuantityString(R.plurals.duration_days, day, day));
+                plurals.append(res, DurationPlurals.DAYS, day, text);
+                separate = true;
             }
             if (hour > 0) {
-                if (text.length() > 0) {
+                if (separate) {
                     text.append(' ');
                 }
-                text.append(res.getQuantityString(R.plurals.duration_hours, hour, hour));
+                plurals.append(res, DurationPlurals.HOURS, hour, text);
+                separate = true;
             }
             if (minute > 0) {
-                if (text.length() > 0) {
+                if (separate) {
                     text.append(' ');
                 }
-                text.append(res.getQuantityString(R.plurals.duration_minutes, minute, minute));
+                plurals.append(res, DurationPlurals.MINUTES, minute, text);
+                separate = true;
             }
 
-            if (text.length() > 0) {
+            if (separate) {
                 text.append(' ');
             }
-            text.append(res.getQuantityString(R.plurals.duration_seconds, second, second));
+            plurals.append(res, DurationPlurals.SECONDS, second, text);
         } catch (Resources.NotFoundException e) {
-            return null;
+            return false;
         }
-        return text.toString();
+        return true;
     }
 
     /**
-     * Format time duration.
-     * <p>12 days 12 hours 56 minutes 29 seconds</p>
-     * @param startTime start time
-     * @param endTime end time
-     * @return The formatted time span.
+     * The {@code R.plurals.duration_*} templates of one locale, split around their count
+     * placeholder on first use of each quantity.
+     * <p>Templates are cached per quantity rather than per plural category, which the framework
+     * doesn't expose, so no plural rules are needed. A locale change of the configuration
+     * replaces the whole cache.</p>
      */
-    @Nullable
-    public static String formatDuration(@NonNull final Context context, @NonNull Date startTime, @NonNull Date endTime) {
-        return formatDuration(context, endTime.getTime() - startTime.getTime());
+    private static final class DurationPlurals {
+
+        static final int SECONDS = 0;
+        static final int MINUTES = 1;
+        static final int HOURS = 2;
+        static final int DAYS = 3;
+
+        private static final int[] PLURALS_IDS = {
+                R.plurals.duration_seconds,
+                R.plurals.duration_minutes,
+                R.plurals.duration_hours,
+                R.plurals.duration_days,
+        };
+        /**
+         * The cached quantities of each unit, larger day counts are looked up every time.
+         */
+        private static final int[] CACHE_SIZES = {60, 60, 24, 366};
+
+        private static volatile DurationPlurals sInstance;
+
+        private final Locale mLocale;
+        private final char mZeroDigit;
+        private final Template[][] mTemplates = new Template[PLURALS_IDS.length][];
+
+        private DurationPlurals(@Nullable Locale locale) {
+            mLocale = locale;
+            mZeroDigit = locale != null
+                    ? new DecimalFormatSymbols(locale).getZeroDigit() : '0';
+            for (int i = 0; i < PLURALS_IDS.length; i++) {
+                mTemplates[i] = new Template[CACHE_SIZES[i]];
+            }
+        }
+
+        @NonNull
+        static DurationPlurals of(@NonNull Resources res) {
+            final Locale locale = res.getConfiguration().locale;
+            DurationPlurals plurals = sInstance;
+            if (plurals == null || (plurals.mLocale != locale
+                    && (plurals.mLocale == null || !plurals.mLocale.equals(locale)))) {
+                plurals = new DurationPlurals(locale);
+                sInstance = plurals;
+            }
+            return plurals;
+        }
+
+        void append(@NonNull Resources res, int unit, int quantity, @NonNull Appendable text)
+                throws IOException {
+            final Template[] templates = mTemplates[unit];
+            Template template = null;
+            if (quantity < templates.length) {
+                template = templates[quantity];
+                if (template == null) {
+                    template = Template.parse(
+                            res.getQuantityText(PLURALS_IDS[unit], quantity).toString());
+                    // Racing threads parse the same template, the last one wins.
+                    templates[quantity] = template;
+                }
+            }
+            if (template == null || template.mUnsupported) {
+                text.append(res.getQuantityString(PLURALS_IDS[unit], quantity, quantity));
+                return;
+            }
+            text.append(template.mPrefix);
+            if (template.mSuffix != null) {
+                appendNumber(text, quantity, mZeroDigit);
+                text.append(template.mSuffix);
+            }
+        }
+
+        /**
+         * Append a non-negative number with the digits of the locale, like {@code %d}.
+         */
+        private static void appendNumber(@NonNull Appendable text, int value, char zeroDigit)
+                throws IOException {
+            int divisor = 1;
+            while (value / divisor >= 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                text.append((char) (zeroDigit + value / divisor % 10));
+            }
+        }
     }
 
     /**
-     * Format time duration.
-     * <p>12 days 12 hours 56 minutes 29 seconds</p>
-     * @param startTime start time
-     * @param endTime end time
-     * @return The formatted time span.
+     * A plural template split around its count placeholder.
      */
-    @Nullable
-    public static String formatDuration(@NonNull final Context context, long startTime, long endTime) {
-        return formatDuration(context, endTime - startTime);
+    private static final class Template {
+
+        @NonNull
+        final String mPrefix;
+        /**
+         * The text after the count, null if the template has no count.
+         */
+        @Nullable
+        final String mSuffix;
+        /**
+         * Whether the template has other format specifiers and must go through
+         * {@link Resources#getQuantityString(int, int, Object...)}.
+         */
+        final boolean mUnsupported;
+
+        private Template(@NonNull String prefix, @Nullable String suffix, boolean unsupported) {
+            mPrefix = prefix;
+            mSuffix = suffix;
+            mUnsupported = unsupported;
+        }
+
+        /**
+         * Split a template with at most one {@code %d} or {@code %1$d}.
+         */
+        @NonNull
+        static Template parse(@NonNull String pattern) {
+            final int percent = pattern.indexOf('%');
+            if (percent < 0) {
+                return new Template(pattern, null, false);
+            }
+            int end = percent + 1;
+            if (pattern.startsWith("1$", end)) {
+                end += 2;
+            }
+            if (end >= pattern.length() || pattern.charAt(end) != 'd'
+                    || pattern.indexOf('%', end) >= 0) {
+                return new Template(pattern, null, true);
+            }
+            return new Template(pattern.substring(0, percent), pattern.substring(end + 1), false);
+        }
     }
 }
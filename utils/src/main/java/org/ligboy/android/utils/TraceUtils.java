@@ -0,0 +1,219 @@
+package org.ligboy.android.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trace Utils
+ * <p>Times code sections with {@link System#nanoTime()} and aggregates the durations per section
+ * name into log-linear histograms, so startup or scroll paths can be profiled in the field.</p>
+ * <pre>
+ * TraceUtils.setEnabled(true);
+ * TraceUtils.beginSection("bind");
+ * try {
+ *     ...
+ * } finally {
+ *     TraceUtils.endSection();
+ * }
+ * ...
+ * TraceUtils.dump(context, System.out);
+ * </pre>
+ * <p>Sections nest on a per-thread stack, every {@link #beginSection(String)} must be matched by
+ * an {@link #endSection()} on the same thread. Recording is lock-free.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class TraceUtils {
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile boolean sEnabled;
+    private static final ConcurrentHashMap<String, Metrics.Histogram> sSections
+            = new ConcurrentHashMap<>();
+    private static final ThreadLocal<SectionStack> sStack = new ThreadLocal<SectionStack>() {
+        @Override
+        protected SectionStack initialValue() {
+            return new SectionStack();
+        }
+    };
+
+    private TraceUtils() {
+        throw new IllegalAccessError();
+    }
+
+    /**
+     * Enable or disable tracing. Disabled by default. Toggle it while no section is open.
+     * @param enabled Whether sections are timed.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return Whether sections are timed.
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Begin a section on the current thread.
+     * @param sectionName The name of the section, durations are aggregated by name.
+     */
+    public static void beginSection(@NonNull String sectionName) {
+        if (sEnabled) {
+            sStack.get().push(sectionName, System.nanoTime());
+        }
+    }
+
+    /**
+     * End the innermost section of the current thread and record its duration.
+     */
+    public static void endSection() {
+        if (!sEnabled) {
+            return;
+        }
+        final long end = System.nanoTime();
+        final SectionStack stack = sStack.get();
+        if (stack.mSize == 0) {
+            return;
+        }
+        final String name = stack.peekName();
+        final long duration = end - stack.pop();
+        Metrics.Histogram histogram = sSections.get(name);
+        if (histogram == null) {
+            Metrics.Histogram created = new Metrics.Histogram(false);
+            histogram = sSections.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.recordValue(duration);
+    }
+
+    /**
+     * @return The number of sections open on the current thread.
+     */
+    public static int getDepth() {
+        return sStack.get().mSize;
+    }
+
+    /**
+     * @param sectionName The name of the section.
+     * @return The durations of a section in nanoseconds, null if it was never recorded.
+     */
+    @Nullable
+    public static Metrics.HistogramSnapshot getSnapshot(@NonNull String sectionName) {
+        Metrics.Histogram histogram = sSections.get(sectionName);
+        return histogram != null ? histogram.snapshot() : null;
+    }
+
+    /**
+     * @return The durations of all sections in nanoseconds by name, sorted.
+     */
+    @NonNull
+    public static Map<String, Metrics.HistogramSnapshot> getSnapshots() {
+        Map<String, Metrics.HistogramSnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, Metrics.Histogram> entry : sSections.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forget all recorded durations.
+     */
+    public static void reset() {
+        sSections.clear();
+    }
+
+    /**
+     * Write a summary of all sections, one line per section:
+     * <p>{@code bind: count=120 p50=1.250 ms p90=3.500 ms p99=12.000 ms max=1 second}</p>
+     * <p>Durations of a second or longer are rendered with
+     * {@link TimeUtils#formatDuration(Context, long, Appendable)}, shorter ones in
+     * milliseconds.</p>
+     * @param context Context
+     * @param out The destination.
+     * @throws IOException if the destination can't be written.
+     */
+    public static void dump(@NonNull Context context, @NonNull Appendable out) throws IOException {
+        for (Map.Entry<String, Metrics.HistogramSnapshot> entry : getSnapshots().entrySet()) {
+            Metrics.HistogramSnapshot snapshot = entry.getValue();
+            out.append(entry.getKey()).append(": count=")
+                    .append(String.valueOf(snapshot.getCount()));
+            out.append(" p50=");
+            appendDuration(context, snapshot.getPercentile(50), out);
+            out.append(" p90=");
+            appendDuration(context, snapshot.getPercentile(90), out);
+            out.append(" p99=");
+            appendDuration(context, snapshot.getPercentile(99), out);
+            out.append(" max=");
+            appendDuration(context, snapshot.getMax(), out);
+            out.append('\n');
+        }
+    }
+
+    private static void appendDuration(@NonNull Context context, long nanos,
+                                       @NonNull Appendable out) throws IOException {
+        if (nanos >= NANOS_PER_SECOND
+                && TimeUtils.formatDuration(context, nanos / NANOS_PER_MILLI, out)) {
+            return;
+        }
+        long micros = nanos / 1000;
+        long fraction = micros % 1000;
+        out.append(String.valueOf(micros / 1000)).append('.');
+        if (fraction < 100) {
+            out.append('0');
+        }
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(String.valueOf(fraction)).append(" ms");
+    }
+
+    /**
+     * The open sections of a thread.
+     */
+    private static final class SectionStack {
+
+        private String[] mNames = new String[8];
+        private long[] mStarts = new long[8];
+        int mSize;
+
+        void push(@NonNull String name, long start) {
+            if (mSize == mNames.length) {
+                String[] names = new String[mSize * 2];
+                long[] starts = new long[mSize * 2];
+                System.arraycopy(mNames, 0, names, 0, mSize);
+                System.arraycopy(mStarts, 0, starts, 0, mSize);
+                mNames = names;
+                mStarts = starts;
+            }
+            mNames[mSize] = name;
+            mStarts[mSize] = start;
+            mSize++;
+        }
+
+        @NonNull
+        String peekName() {
+            return mNames[mSize - 1];
+        }
+
+        /**
+         * @return The start time of the innermost section.
+         */
+        long pop() {
+            mSize--;
+            mNames[mSize] = null;
+            return mStarts[mSize];
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.ligboy.android.utils.collect;
+
+/**
+ * Sizing and hashing shared by the open-addressing maps.
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+final class Hashing {
+
+    static final float DEFAULT_LOAD_FACTOR = 0.5f;
+    private static final int MIN_CAPACITY = 4;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private Hashing() {
+        throw new IllegalAccessError();
+    }
+
+    static float checkLoadFactor(float loadFactor) {
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("loadFactor must be in (0, 1): " + loadFactor);
+        }
+        return loadFactor;
+    }
+
+    /**
+     * @return The power of two capacity holding {@code expectedSize} entries below the load
+     * factor.
+     */
+    static int capacityFor(int expectedSize, float loadFactor) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative");
+        }
+        final long capacity = Math.max((long) Math.ceil(expectedSize / loadFactor), MIN_CAPACITY);
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("expectedSize too large: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) capacity - 1) << 1;
+    }
+
+    /**
+     * @return The number of entries before growing, always leaving a free slot so probes end.
+     */
+    static int thresholdFor(int capacity, float loadFactor) {
+        return Math.min((int) (capacity * loadFactor), capacity - 1);
+    }
+
+    static int growCapacity(int capacity) {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Map too large");
+        }
+        return capacity << 1;
+    }
+
+    /**
+     * Spread the bits of keys such as resource IDs, which differ mostly in their low bits.
+     */
+    static int mix(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int mix(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,216 @@
+package org.ligboy.android.utils.collect;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from int to int without boxing.
+ * <p>Linear probing over parallel key and value arrays. The key 0 marks a free slot and is
+ * stored aside. Entries are visited without allocating through cursors:</p>
+ * <pre>
+ * for (int i = map.first(); i >= 0; i = map.next(i)) {
+ *     int key = map.keyAt(i);
+ *     int value = map.valueAt(i);
+ * }
+ * </pre>
+ * <p>Cursors are invalidated by {@link #put} and {@link #remove}. Not thread-safe.</p>
+ * @author Ligboy.Liu ligboy@gmail.com.
+ */
+public final class IntIntMap {
+
+    private static final int FREE_KEY = 0;
+
+    private final float mLoadFactor;
+    private int[] mKeys;
+    private int[] mValues;
+    private int mSize;
+    private int mThreshold;
+    private boolean mHasFreeKey;
+    private int mFreeKeyValue;
+
+    public IntIntMap() {
+        this(0, Hashing.DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntIntMap(int expectedSize) {
+        this(expectedSize, Hashing.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param expectedSize The number of entries to hold without growing.
+     * @param loadFactor The maximum ratio of entries to slots, in (0, 1).
+     */
+    public IntIntMap(int expectedSize, float loadFactor) {
+        mLoadFactor = Hashing.checkLoadFactor(loadFactor);
+        allocate(Hashing.capacityFor(expectedSize, loadFactor));
+    }
+
+    /**
+     * @return The value of the key, or {@code defaultValue} if the key isn't mapped.
+     */
+    public int get(int key, int defaultValue) {
+        if (key == FREE_KEY) {
+            return mHasFreeKey ? mFreeKeyValue : defaultValue;
+        }
+        final int index = indexOf(key);
+        return index >= 0 ? mValues[index] : defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        return key == FREE_KEY ? mHasFreeKey : indexOf(key) >= 0;
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            if (!mHasFreeKey) {
+                mHasFreeKey = true;
+                mSize++;
+            }
+            mFreeKeyValue = value;
+            return;
+        }
+        final int[] keys = mKeys;
+        final int mask = keys.length - 1;
+        int index = Hashing.mix(key) & mask;
+        for (; ; index = (index + 1) & mask) {
+            final int k = keys[index];
+            if (k == key) {
+                mValues[index] = value;
+                return;
+            }
+            if (k == FREE_KEY) {
+                break;
+            }
+        }
+        keys[index] = key;
+        mValues[index] = value;
+        if (++mSize > mThreshold) {
+            rehash(Hashing.growCapacity(keys.length));
+        }
+    }
+
+    /**
+     * @return Whether the key was mapped.
+     */
+    public boolean remove(int key) {
+        if (key == FREE_KEY) {
+            if (!mHasFreeKey) {
+                return false;
+            }
+            mHasFreeKey = false;
+            mFreeKeyValue = 0;
+            mSize--;
+            return true;
+        }
+        final int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        shiftKeys(index);
+        mSize--;
+        return true;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, FREE_KEY);
+        mHasFreeKey = false;
+        mSize = 0;
+    }
+
+    /**
+     * @return The cursor of the first entry, or -1 if the map is empty.
+     */
+    public int first() {
+        return next(-1);
+    }
+
+    /**
+     * @return The cursor of the entry after {@code cursor}, or -1 if there is none.
+     */
+    public int next(int cursor) {
+        final int[] keys = mKeys;
+        for (int i = cursor + 1; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                return i;
+            }
+        }
+        return mHasFreeKey && cursor < keys.length ? keys.length : -1;
+    }
+
+    public int keyAt(int cursor) {
+        return cursor == mKeys.length ? FREE_KEY : mKeys[cursor];
+    }
+
+    public int valueAt(int cursor) {
+        return cursor == mKeys.length ? mFreeKeyValue : mValues[cursor];
+    }
+
+    private int indexOf(int key) {
+        final int[] keys = mKeys;
+        final int mask = keys.length - 1;
+        for (int index = Hashing.mix(key) & mask; ; index = (index + 1) & mask) {
+            final int k = keys[index];
+            if (k == key) {
+                return index;
+            }
+            if (k == FREE_KEY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Free a slot, moving later entries of the probe run back so lookups don't stop early.
+     */
+    private void shiftKeys(int index) {
+        final int[] keys = mKeys;
+        final int[] values = mValues;
+        final int mask = keys.length - 1;
+        int last = index;
+        for (int i = (last + 1) & mask; ; i = (i + 1) & mask) {
+            final int k = keys[i];
+            if (k == FREE_KEY) {
+                keys[last] = FREE_KEY;
+                return;
+            }
+            final int slot = Hashing.mix(k) & mask;
+            if (last <= i ? (last >= slot || slot > i) : (last >= slot && slot > i)) {
+                keys[last] = k;
+                values[last] = values[i];
+                last = i;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        final int[] oldKeys = mKeys;
+        final int[] oldValues = mValues;
+        allocate(capacity);
+        final int[] keys = mKeys;
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            final int key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int index = Hashing.mix(key) & mask;
+                while (keys[index] != FREE_KEY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                mValues[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mThreshold = Hashing.thresholdFor(capacity, mLoadFactor);
+    }
+}
@@ -0,0 +1,141 @@
+package org.ligboy.android.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests of {@link ConnectivityMonitor} against a fake {@link ConnectivityManager}, counting the
+ * calls that would cross into the system.
+ */
+public class ConnectivityMonitorTest {
+
+    private static final int READS = 1000000;
+
+    private Context mContext;
+    private ConnectivityManager mConnectivityManager;
+    private NetworkInfo mWifi;
+
+    @Before
+    public void setUp() {
+        mContext = mock(Context.class);
+        mConnectivityManager = mock(ConnectivityManager.class);
+        mWifi = mock(NetworkInfo.class);
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getSystemService(Context.CONNECTIVITY_SERVICE))
+                .thenReturn(mConnectivityManager);
+        when(mWifi.isConnected()).thenReturn(true);
+        when(mWifi.getType()).thenReturn(ConnectivityManager.TYPE_WIFI);
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(mWifi);
+    }
+
+    @After
+    public void tearDown() {
+        ConnectivityMonitor.stop();
+    }
+
+    @Test
+    public void readsDontQueryTheSystem() {
+        ConnectivityMonitor.start(mContext);
+        verify(mConnectivityManager, times(1)).getActiveNetworkInfo();
+
+        int connected = 0;
+        for (int i = 0; i < READS; i++) {
+            if (ConnectivityMonitor.getState().isConnected()) {
+                connected++;
+            }
+            if (NetworkUtil.isConnected(mContext)) {
+                connected++;
+            }
+        }
+        assertEquals(2 * READS, connected);
+        verify(mConnectivityManager, times(1)).getActiveNetworkInfo();
+        verify(mContext, times(1)).getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Test
+    public void broadcastQueriesOnce() {
+        ConnectivityMonitor.start(mContext);
+        final BroadcastReceiver receiver = registeredReceiver();
+        assertTrue(ConnectivityMonitor.getState().isWifi());
+
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(null);
+        receiver.onReceive(mContext, mock(Intent.class));
+        verify(mConnectivityManager, times(2)).getActiveNetworkInfo();
+
+        for (int i = 0; i < READS; i++) {
+            assertFalse(NetworkUtil.isConnected(mContext));
+        }
+        assertSame(ConnectivityMonitor.DISCONNECTED, ConnectivityMonitor.getState());
+        verify(mConnectivityManager, times(2)).getActiveNetworkInfo();
+    }
+
+    @Test
+    public void stoppedReadsAsDisconnected() {
+        ConnectivityMonitor.start(mContext);
+        final BroadcastReceiver receiver = registeredReceiver();
+        assertTrue(ConnectivityMonitor.isStarted());
+
+        ConnectivityMonitor.stop();
+        verify(mContext).unregisterReceiver(receiver);
+        assertFalse(ConnectivityMonitor.isStarted());
+        assertNull(ConnectivityMonitor.peekState());
+        assertSame(ConnectivityMonitor.DISCONNECTED, ConnectivityMonitor.getState());
+        assertSame(ConnectivityMonitor.DISCONNECTED, ConnectivityMonitor.update());
+        verify(mConnectivityManager, times(1)).getActiveNetworkInfo();
+    }
+
+    @Test
+    public void stoppedFallsBackToTheSystem() {
+        ConnectivityMonitor.start(mContext);
+        ConnectivityMonitor.stop();
+
+        assertTrue(NetworkUtil.isConnected(mContext));
+        verify(mConnectivityManager, times(2)).getActiveNetworkInfo();
+    }
+
+    @Test
+    public void qualityEstimatorResetsOnTheFirstChange() {
+        ConnectivityMonitor.start(mContext);
+        final BroadcastReceiver receiver = registeredReceiver();
+        final NetworkQualityEstimator estimator = NetworkUtil.getNetworkQualityEstimator();
+        estimator.reset();
+        estimator.recordTransfer(64 * 1024, 500, 100);
+        assertTrue(estimator.getRttMillis() > 0);
+
+        final NetworkInfo mobile = mock(NetworkInfo.class);
+        when(mobile.isConnected()).thenReturn(true);
+        when(mobile.getType()).thenReturn(ConnectivityManager.TYPE_MOBILE);
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(mobile);
+        receiver.onReceive(mContext, mock(Intent.class));
+        // Listeners are notified through the main looper, which doesn't run here
+        estimator.onConnectivityChanged(ConnectivityMonitor.getState());
+        assertEquals(-1, estimator.getRttMillis(), 0);
+    }
+
+    private BroadcastReceiver registeredReceiver() {
+        final ArgumentCaptor<BroadcastReceiver> receiver
+                = ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        return receiver.getValue();
+    }
+}
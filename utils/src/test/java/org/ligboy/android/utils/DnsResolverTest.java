@@ -0,0 +1,372 @@
+package org.ligboy.android.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Offline tests of {@link DnsResolver} through a fake {@link DnsResolver.Lookup}.
+ */
+public class DnsResolverTest {
+
+    private static final long WAIT_SECONDS = 5;
+
+    private final List<DnsResolver> mResolvers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (DnsResolver resolver : mResolvers) {
+            resolver.shutdown();
+        }
+    }
+
+    private DnsResolver newResolver(DnsResolver.Lookup lookup, int threads, long timeoutMillis,
+                                    long ttlMillis, long negativeTtlMillis) {
+        final DnsResolver resolver = new DnsResolver(lookup, threads, timeoutMillis, ttlMillis,
+                negativeTtlMillis);
+        mResolvers.add(resolver);
+        return resolver;
+    }
+
+    private static InetAddress[] addressesOf(String host) throws UnknownHostException {
+        final int hash = host.hashCode();
+        return new InetAddress[]{InetAddress.getByAddress(host,
+                new byte[]{10, (byte) (hash >> 16), (byte) (hash >> 8), (byte) hash})};
+    }
+
+    private static UnknownHostException failureOf(Future<InetAddress[]> future)
+            throws Exception {
+        try {
+            future.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return (UnknownHostException) e.getCause();
+        }
+        fail("Expected the lookup to fail");
+        return null;
+    }
+
+    @Test
+    public void resolvesAndCaches() throws Exception {
+        final CountingLookup lookup = new CountingLookup();
+        final DnsResolver resolver = newResolver(lookup, 2, 1000, 60000, 0);
+        final InetAddress[] addresses = resolver.resolve("example.com")
+                .get(WAIT_SECONDS, TimeUnit.SECONDS);
+        assertArrayEquals(addressesOf("example.com"), addresses);
+        assertArrayEquals(addresses, resolver.getCached("example.com"));
+        assertArrayEquals(addresses, resolver.resolve("example.com")
+                .get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, lookup.mCount.get());
+    }
+
+    @Test
+    public void concurrentLookupsShareOneQuery() throws Exception {
+        final BlockingLookup lookup = new BlockingLookup();
+        final DnsResolver resolver = newResolver(lookup, 2, 5000, 60000, 0);
+        final Future<InetAddress[]> first = resolver.resolve("example.com");
+        final Future<InetAddress[]> second = resolver.resolve("example.com");
+        assertSame(first, second);
+        lookup.mRelease.countDown();
+        assertNotNull(first.get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, lookup.mCount.get());
+    }
+
+    @Test
+    public void failuresAreCachedForTheNegativeTtl() throws Exception {
+        final CountingLookup lookup = new CountingLookup();
+        final DnsResolver resolver = newResolver(lookup, 1, 1000, 60000, 60000);
+        assertNotNull(failureOf(resolver.resolve("bad.example.com")));
+        assertNotNull(failureOf(resolver.resolve("bad.example.com")));
+        assertNull(resolver.getCached("bad.example.com"));
+        assertEquals(1, lookup.mCount.get());
+
+        resolver.invalidate("bad.example.com");
+        assertNotNull(failureOf(resolver.resolve("bad.example.com")));
+        assertEquals(2, lookup.mCount.get());
+    }
+
+    @Test
+    public void callbackReceivesTheResult() throws Exception {
+        final DnsResolver resolver = newResolver(new CountingLookup(), 1, 1000, 60000, 0);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<String> results = new ArrayList<>();
+        final DnsResolver.Callback callback = new DnsResolver.Callback() {
+            @Override
+            public void onResolved(String host, InetAddress[] addresses) {
+                synchronized (results) {
+                    results.add("resolved " + host);
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(String host, UnknownHostException e) {
+                synchronized (results) {
+                    results.add("failed " + host);
+                }
+                done.countDown();
+            }
+        };
+        resolver.resolve("example.com", callback);
+        resolver.resolve("bad.example.com", callback);
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(results.contains("resolved example.com"));
+        assertTrue(results.contains("failed bad.example.com"));
+    }
+
+    @Test
+    public void timeoutFailsTheLookupAndTheLateResultFillsTheCache() throws Exception {
+        final BlockingLookup lookup = new BlockingLookup();
+        final DnsResolver resolver = newResolver(lookup, 1, 50, 60000, 0);
+        final UnknownHostException error = failureOf(resolver.resolve("slow.example.com"));
+        assertTrue(error.getMessage(), error.getMessage().contains("timed out"));
+        assertNull(resolver.getCached("slow.example.com"));
+
+        lookup.mRelease.countDown();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (resolver.getCached("slow.example.com") == null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertArrayEquals(addressesOf("slow.example.com"), resolver.getCached("slow.example.com"));
+    }
+
+    @Test
+    public void lookupsBeyondThePendingLimitFailImmediately() throws Exception {
+        final BlockingLookup lookup = new BlockingLookup();
+        final DnsResolver resolver = newResolver(lookup, 1, 60000, 60000, 0);
+        final List<Future<InetAddress[]>> queued = new ArrayList<>();
+        // One lookup running on the only thread, the others waiting for it
+        for (int i = 0; i <= DnsResolver.MAX_PENDING; i++) {
+            queued.add(resolver.resolve("host" + i));
+        }
+        assertTrue(lookup.mStarted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        final Future<InetAddress[]> rejected = resolver.resolve("one-too-many");
+        assertTrue(rejected.isDone());
+        assertTrue(failureOf(rejected).getMessage().contains("Too many pending"));
+
+        lookup.mRelease.countDown();
+        for (Future<InetAddress[]> future : queued) {
+            assertNotNull(future.get(WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+        // The rejected host was not left in flight
+        assertNotNull(resolver.resolve("one-too-many").get(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void lookupsTimedOutWhileQueuedDontRun() throws Exception {
+        final BlockingLookup lookup = new BlockingLookup();
+        final DnsResolver resolver = newResolver(lookup, 1, 50, 60000, 0);
+        final Future<InetAddress[]> running = resolver.resolve("running.example.com");
+        final Future<InetAddress[]> queued = resolver.resolve("queued.example.com");
+        assertNotNull(failureOf(running));
+        assertNotNull(failureOf(queued));
+        lookup.mRelease.countDown();
+        resolver.shutdown();
+        assertTrue(waitForLookups(lookup, 1));
+        Thread.sleep(50);
+        assertEquals(1, lookup.mCount.get());
+    }
+
+    private static boolean waitForLookups(CountingLookup lookup, int count)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (lookup.mCount.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        return lookup.mCount.get() >= count;
+    }
+
+    @Test
+    public void lookupsAfterShutdownFailWithoutBlockingLaterCallers() throws Exception {
+        final CountingLookup lookup = new CountingLookup();
+        final DnsResolver resolver = newResolver(lookup, 1, 1000, 60000, 0);
+        assertNotNull(resolver.resolve("cached.example.com").get(WAIT_SECONDS, TimeUnit.SECONDS));
+        resolver.shutdown();
+
+        final Future<InetAddress[]> first = resolver.resolve("example.com");
+        assertTrue(first.isDone());
+        assertTrue(failureOf(first).getMessage().contains("shut down"));
+        // A later caller of the same host must not wait on a query that never completes
+        assertTrue(resolver.resolve("example.com").isDone());
+        // Cached results are still served
+        assertNotNull(resolver.resolve("cached.example.com").get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, lookup.mCount.get());
+    }
+
+    @Test
+    public void prefetchReportsEveryHostAndFillsTheCache() throws Exception {
+        final ConcurrencyLookup lookup = new ConcurrencyLookup();
+        final DnsResolver resolver = newResolver(lookup, 8, 5000, 60000, 60000);
+        final String[] hosts = new String[40];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = (i % 10 == 0 ? "bad" : "host") + i + ".example.com";
+        }
+        final ReportListener listener = new ReportListener();
+        resolver.prefetch(hosts, 3, 5000, listener);
+        final DnsResolver.PrefetchReport report = listener.await();
+
+        assertEquals(hosts.length, report.size());
+        assertEquals(36, report.getResolvedCount());
+        assertTrue(lookup.mMaxConcurrency.get() <= 3);
+        for (int i = 0; i < hosts.length; i++) {
+            assertEquals(hosts[i], report.getHost(i));
+            assertFalse(report.isTimedOut(i));
+            assertTrue(report.getLatencyMillis(i) >= 0);
+            assertEquals(i % 10 != 0, report.isResolved(i));
+            assertEquals(i % 10 == 0, report.getError(i) != null);
+            assertEquals(i % 10 != 0, resolver.getCached(hosts[i]) != null);
+        }
+    }
+
+    @Test
+    public void prefetchReportsHostsPendingAtTheDeadlineAsTimedOut() throws Exception {
+        final BlockingLookup hanging = new BlockingLookup();
+        final DnsResolver resolver = newResolver(hanging, 2, 60000, 60000, 0);
+        final ReportListener listener = new ReportListener();
+        resolver.prefetch(new String[]{"a.example.com", "b.example.com", "c.example.com"},
+                2, 100, listener);
+        final DnsResolver.PrefetchReport report = listener.await();
+        assertEquals(0, report.getResolvedCount());
+        for (int i = 0; i < report.size(); i++) {
+            assertTrue(report.isTimedOut(i));
+            assertEquals(-1, report.getLatencyMillis(i));
+        }
+        hanging.mRelease.countDown();
+    }
+
+    @Test
+    public void prefetchOfCachedHostsCompletesInline() throws Exception {
+        final CountingLookup lookup = new CountingLookup();
+        final DnsResolver resolver = newResolver(lookup, 1, 1000, 60000, 0);
+        final String[] hosts = new String[5000];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = "host" + (i % 100) + ".example.com";
+        }
+        for (int i = 0; i < 100; i++) {
+            resolver.resolve(hosts[i]).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+        final ReportListener listener = new ReportListener();
+        // Deep recursion through cache-hit callbacks would overflow the stack here
+        resolver.prefetch(hosts, 1, 5000, listener);
+        assertEquals(hosts.length, listener.await().getResolvedCount());
+        assertEquals(100, lookup.mCount.get());
+    }
+
+    @Test
+    public void prefetchAfterShutdownFailsLikeResolve() throws Exception {
+        final CountingLookup lookup = new CountingLookup();
+        final DnsResolver resolver = newResolver(lookup, 1, 1000, 60000, 0);
+        resolver.resolve("cached.example.com").get(WAIT_SECONDS, TimeUnit.SECONDS);
+        resolver.shutdown();
+
+        final ReportListener listener = new ReportListener();
+        resolver.prefetch(new String[]{"a.example.com", "cached.example.com", "b.example.com"},
+                2, 5000, listener);
+        final DnsResolver.PrefetchReport report = listener.await();
+        assertEquals(3, report.size());
+        assertEquals(1, report.getResolvedCount());
+        assertTrue(report.isResolved(1));
+        for (int i : new int[]{0, 2}) {
+            assertFalse(report.isTimedOut(i));
+            assertTrue(report.getError(i).getMessage().contains("shut down"));
+        }
+        assertEquals(1, lookup.mCount.get());
+    }
+
+    /**
+     * Resolves every host to a fake address, except hosts starting with "bad".
+     */
+    private static class CountingLookup implements DnsResolver.Lookup {
+
+        final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public InetAddress[] lookup(String host) throws UnknownHostException {
+            mCount.incrementAndGet();
+            if (host.startsWith("bad")) {
+                throw new UnknownHostException(host);
+            }
+            return addressesOf(host);
+        }
+    }
+
+    /**
+     * Blocks every lookup until released.
+     */
+    private static class BlockingLookup extends CountingLookup {
+
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        @Override
+        public InetAddress[] lookup(String host) throws UnknownHostException {
+            mStarted.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                throw new UnknownHostException(host);
+            }
+            return super.lookup(host);
+        }
+    }
+
+    /**
+     * Records the maximum number of concurrent lookups.
+     */
+    private static class ConcurrencyLookup extends CountingLookup {
+
+        final AtomicInteger mConcurrency = new AtomicInteger();
+        final AtomicInteger mMaxConcurrency = new AtomicInteger();
+
+        @Override
+        public InetAddress[] lookup(String host) throws UnknownHostException {
+            final int concurrency = mConcurrency.incrementAndGet();
+            while (true) {
+                final int max = mMaxConcurrency.get();
+                if (concurrency <= max || mMaxConcurrency.compareAndSet(max, concurrency)) {
+                    break;
+                }
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ignored) {
+            }
+            mConcurrency.decrementAndGet();
+            return super.lookup(host);
+        }
+    }
+
+    private static class ReportListener implements DnsResolver.PrefetchListener {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile DnsResolver.PrefetchReport mReport;
+
+        @Override
+        public void onPrefetchComplete(DnsResolver.PrefetchReport report) {
+            mReport = report;
+            mDone.countDown();
+        }
+
+        DnsResolver.PrefetchReport await() throws InterruptedException {
+            assertTrue(mDone.await(WAIT_SECONDS, TimeUnit.SECONDS));
+            return mReport;
+        }
+    }
+}
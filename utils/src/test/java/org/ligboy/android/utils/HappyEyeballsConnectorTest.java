@@ -0,0 +1,177 @@
+package org.ligboy.android.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Races of {@link HappyEyeballsConnector} against loopback servers.
+ * <p>An unreachable address is simulated by a server on 127.0.0.2 that never accepts: once its
+ * backlog is full, further connects get no answer, like to a black-holed route.</p>
+ */
+public class HappyEyeballsConnectorTest {
+
+    private static final long ATTEMPT_DELAY_MILLIS = 100;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int PROBE_TIMEOUT_MILLIS = 200;
+    private static final int MAX_BACKLOG_FILL = 16;
+
+    private final List<Closeable> mCloseables = new ArrayList<>();
+    private DnsResolver mResolver;
+    private HappyEyeballsConnector mConnector;
+    private InetAddress mIpv4;
+    private InetAddress mIpv6;
+    private InetAddress mBlackHole;
+
+    @Before
+    public void setUp() throws IOException {
+        mResolver = new DnsResolver();
+        mConnector = new HappyEyeballsConnector(mResolver, ATTEMPT_DELAY_MILLIS);
+        mIpv4 = InetAddress.getByName("127.0.0.1");
+        mIpv6 = InetAddress.getByName("::1");
+        mBlackHole = InetAddress.getByName("127.0.0.2");
+    }
+
+    @After
+    public void tearDown() {
+        for (Closeable closeable : mCloseables) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+        mResolver.shutdown();
+    }
+
+    @Test
+    public void interleavesFamilies() throws IOException {
+        final InetAddress v6a = InetAddress.getByName("2001:db8::1");
+        final InetAddress v6b = InetAddress.getByName("2001:db8::2");
+        final InetAddress v4a = InetAddress.getByName("192.0.2.1");
+        final InetAddress v4b = InetAddress.getByName("192.0.2.2");
+        final InetAddress v4c = InetAddress.getByName("192.0.2.3");
+        assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v4c), HappyEyeballsConnector.interleave(
+                new InetAddress[]{v6a, v6b, v4a, v4b, v4c}));
+        assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v4c), HappyEyeballsConnector.interleave(
+                new InetAddress[]{v4a, v4b, v6a, v4c, v6b}));
+    }
+
+    @Test
+    public void refusedAddressFallsBackWithoutDelay() throws IOException {
+        final int port = listen(mIpv4, 0).getLocalPort();
+        // Nothing listens on ::1, so the first attempt is refused or fails at once and the
+        // second starts without waiting for the attempt delay
+        final HappyEyeballsConnector connector
+                = new HappyEyeballsConnector(mResolver, TIMEOUT_MILLIS);
+        final long start = System.nanoTime();
+        final SocketChannel channel
+                = connector.connect(new InetAddress[]{mIpv6, mIpv4}, port, TIMEOUT_MILLIS);
+        mCloseables.add(channel);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(new InetSocketAddress(mIpv4, port), channel.socket().getRemoteSocketAddress());
+        assertTrue(channel.isBlocking());
+        assertTrue(elapsedMillis + " ms", elapsedMillis < TIMEOUT_MILLIS / 5);
+    }
+
+    @Test
+    public void blackHoledAddressCostsTheAttemptDelay() throws IOException {
+        final int port = listen(mIpv4, 0).getLocalPort();
+        blackHole(port);
+        final long start = System.nanoTime();
+        final SocketChannel channel = connect(new InetAddress[]{mBlackHole, mIpv4}, port);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(new InetSocketAddress(mIpv4, port), channel.socket().getRemoteSocketAddress());
+        // A sequential connect would have waited for the whole timeout instead
+        assertTrue(elapsedMillis + " ms", elapsedMillis >= ATTEMPT_DELAY_MILLIS - 10);
+        assertTrue(elapsedMillis + " ms", elapsedMillis < TIMEOUT_MILLIS / 5);
+    }
+
+    @Test
+    public void allBlackHoledTimesOut() throws IOException {
+        final int port = blackHole(0);
+        final long start = System.nanoTime();
+        try {
+            mCloseables.add(mConnector.connect(new InetAddress[]{mBlackHole}, port,
+                    PROBE_TIMEOUT_MILLIS));
+            fail("Connected to a black hole");
+        } catch (SocketTimeoutException expected) {
+        }
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis + " ms", elapsedMillis >= PROBE_TIMEOUT_MILLIS - 10);
+    }
+
+    @Test
+    public void allRefusedThrowsTheLastFailure() throws IOException {
+        final ServerSocket closed = listen(mIpv4, 0);
+        final int port = closed.getLocalPort();
+        closed.close();
+        try {
+            mCloseables.add(connect(new InetAddress[]{mIpv6, mIpv4}, port));
+            fail("Connected to a closed port");
+        } catch (SocketTimeoutException e) {
+            fail("Refused connects timed out");
+        } catch (IOException expected) {
+        }
+    }
+
+    private SocketChannel connect(InetAddress[] addresses, int port) throws IOException {
+        final SocketChannel channel = mConnector.connect(addresses, port, TIMEOUT_MILLIS);
+        mCloseables.add(channel);
+        return channel;
+    }
+
+    private ServerSocket listen(InetAddress address, int port) throws IOException {
+        final ServerSocket server = new ServerSocket();
+        mCloseables.add(server);
+        server.bind(new InetSocketAddress(address, port), 1);
+        return server;
+    }
+
+    /**
+     * Listen on 127.0.0.2 without accepting and fill the backlog, skipping the test where that
+     * address can't be bound or still answers.
+     * @return The port.
+     */
+    private int blackHole(int port) {
+        final ServerSocket server;
+        try {
+            server = listen(mBlackHole, port);
+        } catch (IOException e) {
+            assumeTrue("Can't bind " + mBlackHole + ": " + e, false);
+            return -1;
+        }
+        final InetSocketAddress address
+                = new InetSocketAddress(mBlackHole, server.getLocalPort());
+        for (int i = 0; i < MAX_BACKLOG_FILL; i++) {
+            final Socket socket = new Socket();
+            mCloseables.add(socket);
+            try {
+                socket.connect(address, PROBE_TIMEOUT_MILLIS);
+            } catch (SocketTimeoutException e) {
+                return server.getLocalPort();
+            } catch (IOException e) {
+                break;
+            }
+        }
+        assumeTrue("The full backlog of " + address + " still answers", false);
+        return -1;
+    }
+}
@@ -0,0 +1,399 @@
+package org.ligboy.android.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of records through {@link LogFileSink} and {@link LogFileReader} on a temporary
+ * directory, in both encodings.
+ */
+public class LogFileSinkTest {
+
+    private static final int SEGMENT_SIZE = 16 * 1024;
+    private static final int MAX_SEGMENTS = 64;
+    private static final String TAG = "Tag";
+    private static final long TIME = 1500000000000L;
+    private static final int PRIORITY = 3;
+    /** A tag and message as LogUtil writes them for a typical template record. */
+    private static final String TYPICAL_TAG = "MainActivity";
+    private static final LogTemplate TYPICAL = LogTemplate.compile("Loaded {} items in {} ms");
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+    private LogFileSink mSink;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder("logs");
+    }
+
+    @After
+    public void tearDown() {
+        if (mSink != null) {
+            mSink.close();
+        }
+    }
+
+    @Test
+    public void textRoundTrip() throws IOException {
+        mSink = LogFileSink.open(mDirectory, SEGMENT_SIZE, MAX_SEGMENTS);
+        mSink.append(TIME, PRIORITY, TAG, "ascii");
+        mSink.append(TIME + 1, PRIORITY + 1, "T\u00e4g", "\u00e9\u4e2d\uD83D\uDE00");
+        mSink.append(TIME - 5, PRIORITY, null, null);
+        mSink.close();
+
+        final List<LogFileReader.Record> records = readRecords();
+        assertEquals(3, records.size());
+        assertRecord(records.get(0), TIME, PRIORITY, TAG, "ascii");
+        assertRecord(records.get(1), TIME + 1, PRIORITY + 1, "T\u00e4g",
+                "\u00e9\u4e2d\uD83D\uDE00");
+        assertRecord(records.get(2), TIME - 5, PRIORITY, "", "null");
+    }
+
+    @Test
+    public void unpairedSurrogatesRoundTrip() throws IOException {
+        mSink = LogFileSink.open(mDirectory, SEGMENT_SIZE, MAX_SEGMENTS);
+        mSink.append(TIME, PRIORITY, TAG, "a\uD83Db\uDE00c\uDE00\uD83D");
+        mSink.close();
+
+        assertEquals(Collections.singletonList("a\uD83Db\uDE00c\uDE00\uD83D"), readMessages());
+    }
+
+    @Test
+    public void binaryLongArguments() throws IOException {
+        mSink = openBinary(MAX_SEGMENTS);
+        final LogTemplate template = LogTemplate.compile("{} {} {} {}");
+        mSink.append(TIME, PRIORITY, TAG, template, 4, 0, -1, 1, 63);
+        mSink.append(TIME + 1000, PRIORITY, TAG, template, 4, -64, 64, 8191, -8192);
+        mSink.append(TIME - 60000, PRIORITY, TAG, template, 4,
+                Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        // Fewer arguments than placeholders
+        mSink.append(TIME, PRIORITY, TAG, template, 1, 5, 0, 0, 0);
+        mSink.close();
+
+        final List<LogFileReader.Record> records = readRecords();
+        assertEquals(4, records.size());
+        assertRecord(records.get(0), TIME, PRIORITY, TAG, "0 -1 1 63");
+        assertRecord(records.get(1), TIME + 1000, PRIORITY, TAG, "-64 64 8191 -8192");
+        assertRecord(records.get(2), TIME - 60000, PRIORITY, TAG, Long.MIN_VALUE + " "
+                + Long.MAX_VALUE + " " + Integer.MIN_VALUE + " " + Integer.MAX_VALUE);
+        assertRecord(records.get(3), TIME, PRIORITY, TAG, "5 {} {} {}");
+    }
+
+    @Test
+    public void binaryObjectArguments() throws IOException {
+        mSink = openBinary(MAX_SEGMENTS);
+        final LogTemplate template = LogTemplate.compile("[{}|{}|{}|{}]");
+        mSink.append(TIME, PRIORITY, TAG, template, 4, null, (byte) -3, (short) 300, -7);
+        mSink.append(TIME, PRIORITY, TAG, template, 4, -0.25, 1e300, 3.5f, Float.NaN);
+        mSink.append(TIME, PRIORITY, TAG, template, 4, true, false,
+                "\u00e9\uD83D\uDE00", Arrays.asList(1, 2));
+        mSink.append(TIME, PRIORITY, TAG, null, new Object[]{"a", 1, null, 2.5});
+        mSink.append(TIME, PRIORITY, TAG, "Trace\n\tat X", new Object[]{"failed"});
+        mSink.append(TIME, PRIORITY, TAG, "plain");
+        mSink.close();
+
+        final List<String> messages = readMessages();
+        assertEquals(Arrays.asList(
+                "[null|-3|300|-7]",
+                "[-0.25|1.0E300|3.5|NaN]",
+                "[true|false|\u00e9\uD83D\uDE00|[1, 2]]",
+                "a1null2.5",
+                "failed\nTrace\n\tat X",
+                "plain"), messages);
+    }
+
+    @Test
+    public void dictionaryIsRewrittenAfterRotation() throws IOException {
+        final String[] tags = {"A", "B", "C", "D", "E"};
+        final LogTemplate[] templates = new LogTemplate[tags.length];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = LogTemplate.compile("template " + i + " {} {}");
+        }
+        mSink = openBinary(MAX_SEGMENTS);
+        final int count = 20000;
+        for (int i = 0; i < count; i++) {
+            mSink.append(TIME + i, PRIORITY, tags[i % tags.length],
+                    templates[(i / tags.length) % templates.length], 2, i, -i, 0, 0);
+        }
+        mSink.close();
+
+        assertTrue(LogFileReader.listSegmentIndexes(mDirectory).length > 3);
+        final List<LogFileReader.Record> records = readRecords();
+        assertEquals(count, records.size());
+        for (int i = 0; i < count; i++) {
+            assertRecord(records.get(i), TIME + i, PRIORITY, tags[i % tags.length],
+                    "template " + (i / tags.length) % templates.length + " " + i + " " + -i);
+        }
+    }
+
+    @Test
+    public void oldSegmentsDecodeOnTheirOwn() throws IOException {
+        mSink = openBinary(2);
+        final int count = 20000;
+        for (int i = 0; i < count; i++) {
+            mSink.append(TIME + i, PRIORITY, TAG, TYPICAL, 2, i, i % 100, 0, 0);
+        }
+        mSink.close();
+
+        assertEquals(2, LogFileReader.listSegmentIndexes(mDirectory).length);
+        final List<LogFileReader.Record> records = readRecords();
+        assertFalse(records.isEmpty());
+        assertTrue(records.size() < count);
+        // The segments of the first records were deleted, the rest is contiguous
+        final int first = count - records.size();
+        for (int i = 0; i < records.size(); i++) {
+            final int index = first + i;
+            assertRecord(records.get(i), TIME + index, PRIORITY, TAG,
+                    "Loaded " + index + " items in " + index % 100 + " ms");
+        }
+    }
+
+    @Test
+    public void stringBudgetTruncatesLongArguments() throws IOException {
+        mSink = openBinary(MAX_SEGMENTS);
+        final String ascii = repeat("x", 100000);
+        final String emoji = repeat("\uD83D\uDE00", 20000);
+        final String longPattern = repeat("p", 5000) + " {}";
+        mSink.append(TIME, PRIORITY, TAG, LogTemplate.compile("{} {}"), 2, ascii, emoji, 0, 0);
+        mSink.append(TIME, PRIORITY, TAG, LogTemplate.compile(longPattern), 1, 1L, 0L, 0L, 0L);
+        // Shift the end of the budget over all positions of a pair
+        for (int i = 1; i <= 4; i++) {
+            mSink.append(TIME, PRIORITY, TAG, null, new Object[]{repeat("x", i), emoji});
+        }
+        mSink.append(TIME, PRIORITY, TAG, "after");
+        mSink.close();
+
+        final List<String> messages = readMessages();
+        assertEquals(7, messages.size());
+        final String first = messages.get(0);
+        assertTrue(first.length() < SEGMENT_SIZE);
+        // The first string took the whole budget, the second one is empty
+        assertEquals(ascii.substring(0, first.length() - 1) + " ", first);
+        // A dictionary string is cut to 3 KiB, its placeholder is lost
+        final String second = messages.get(1);
+        assertEquals(3 * 1024, second.length());
+        assertTrue(longPattern.startsWith(second));
+        // A surrogate pair is never split
+        for (int i = 1; i <= 4; i++) {
+            final String message = messages.get(1 + i);
+            assertTrue(message.length() > SEGMENT_SIZE / 4);
+            assertEquals(repeat("x", i) + emoji.substring(0, message.length() - i), message);
+        }
+        assertEquals("after", messages.get(6));
+    }
+
+    @Test
+    public void tornBinaryRecordEndsTheSegment() throws IOException {
+        mSink = openBinary(MAX_SEGMENTS);
+        mSink.append(TIME, PRIORITY, TAG, "first");
+        mSink.append(TIME, PRIORITY, TAG, "second");
+        mSink.append(TIME, PRIORITY, TAG, "torn-marker");
+        mSink.close();
+        final File torn = tornCopy("torn-marker");
+
+        assertEquals(Arrays.asList("first", "second"), readMessages(torn));
+    }
+
+    @Test
+    public void tornTextRecordEndsTheSegment() throws IOException {
+        mSink = LogFileSink.open(mDirectory, SEGMENT_SIZE, MAX_SEGMENTS);
+        mSink.append(TIME, PRIORITY, TAG, "first");
+        mSink.append(TIME, PRIORITY, TAG, "second");
+        mSink.append(TIME, PRIORITY, TAG, "torn-marker");
+        mSink.close();
+        final File torn = tornCopy("torn-marker");
+
+        assertEquals(Arrays.asList("first", "second"), readMessages(torn));
+    }
+
+    /**
+     * A typical template record must take at most a fifth of its text form.
+     */
+    @Test
+    public void binaryRecordIsAFifthOfText() throws IOException {
+        final int count = 100;
+        final File textDirectory = mFolder.newFolder("text");
+        final LogFileSink text = LogFileSink.open(textDirectory, SEGMENT_SIZE, MAX_SEGMENTS);
+        mSink = openBinary(MAX_SEGMENTS);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            final long items = 100 + i;
+            final long millis = 10 + i % 50;
+            builder.setLength(0);
+            TYPICAL.appendTo(builder, 2, items, millis, 0, 0);
+            text.append(TIME + i * 40, PRIORITY, TYPICAL_TAG, builder.toString());
+            mSink.append(TIME + i * 40, PRIORITY, TYPICAL_TAG, TYPICAL, 2, items, millis, 0, 0);
+        }
+        text.close();
+        mSink.close();
+
+        final int textBytes = writtenBytes(textDirectory, LogFileReader.TEXT_HEADER_SIZE, 4);
+        final int binaryBytes = writtenBytes(mDirectory, LogFileReader.BINARY_HEADER_SIZE, 2);
+        assertTrue(textBytes + " text bytes, " + binaryBytes + " binary bytes",
+                binaryBytes * 5 <= textBytes);
+    }
+
+    @Test
+    public void nestedAppendFromToString() throws IOException {
+        mSink = LogFileSink.open(mDirectory, SEGMENT_SIZE, MAX_SEGMENTS,
+                LogFileSink.ENCODING_BINARY);
+        final LogTemplate outer = LogTemplate.compile("outer {} {} {}");
+        final LogTemplate inner = LogTemplate.compile("inner {} {}");
+        // Logs again in sync mode while the outer record is being encoded
+        final Object reentrant = new Object() {
+            @Override
+            public String toString() {
+                mSink.append(TIME, PRIORITY, TAG, inner, 2, "a", 1.5, null, null);
+                mSink.append(TIME, PRIORITY, TAG, "plain");
+                return "nested";
+            }
+        };
+        mSink.append(TIME, PRIORITY, TAG, outer, 3, 7, reentrant, true, null);
+        mSink.append(TIME, PRIORITY, TAG, outer, 3, -1, "after", 2.5f, null);
+        mSink.close();
+
+        final List<String> messages = readMessages();
+        assertEquals(4, messages.size());
+        assertEquals("inner a 1.5", messages.get(0));
+        assertEquals("plain", messages.get(1));
+        assertEquals("outer 7 nested true", messages.get(2));
+        assertEquals("outer -1 after 2.5", messages.get(3));
+    }
+
+    private LogFileSink openBinary(int maxSegments) throws IOException {
+        return LogFileSink.open(mDirectory, SEGMENT_SIZE, maxSegments,
+                LogFileSink.ENCODING_BINARY);
+    }
+
+    private static void assertRecord(LogFileReader.Record record, long timeMillis, int priority,
+                                     String tag, String message) {
+        assertEquals(timeMillis, record.timeMillis);
+        assertEquals(priority, record.priority);
+        assertEquals(tag, record.tag);
+        assertEquals(message, record.message);
+    }
+
+    private static String repeat(String s, int count) {
+        final StringBuilder builder = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return The contents of the only segment, as if the process died while writing the record
+     * containing {@code marker}.
+     */
+    private File tornCopy(String marker) throws IOException {
+        final int[] indexes = LogFileReader.listSegmentIndexes(mDirectory);
+        assertEquals(1, indexes.length);
+        final byte[] bytes = readSegment(new File(mDirectory,
+                LogFileReader.segmentName(indexes[0])));
+        final int markerIndex = indexOf(bytes, marker.getBytes("UTF-8"));
+        assertTrue(markerIndex > 0);
+        final File directory = mFolder.newFolder("torn");
+        final FileOutputStream out = new FileOutputStream(new File(directory,
+                LogFileReader.segmentName(indexes[0])));
+        try {
+            out.write(bytes, 0, markerIndex + 2);
+        } finally {
+            out.close();
+        }
+        return directory;
+    }
+
+    private static byte[] readSegment(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        outer:
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (bytes[i + j] != part[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The bytes of the headers and records of the only segment, following the length
+     * prefixes to the first zero one.
+     */
+    private static int writtenBytes(File directory, int headerSize, int lengthSize)
+            throws IOException {
+        final int[] indexes = LogFileReader.listSegmentIndexes(directory);
+        assertEquals(1, indexes.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(readSegment(new File(directory,
+                LogFileReader.segmentName(indexes[0]))));
+        buffer.position(headerSize);
+        for (; ; ) {
+            final int length = lengthSize == 2 ? buffer.getShort() & 0xFFFF : buffer.getInt();
+            if (length == 0) {
+                return buffer.position() - lengthSize;
+            }
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private List<LogFileReader.Record> readRecords() throws IOException {
+        return readRecords(mDirectory);
+    }
+
+    private static List<LogFileReader.Record> readRecords(File directory) throws IOException {
+        final LogFileReader reader = new LogFileReader(directory);
+        final List<LogFileReader.Record> records = new ArrayList<>();
+        try {
+            LogFileReader.Record record;
+            while ((record = reader.read()) != null) {
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    private List<String> readMessages() throws IOException {
+        return readMessages(mDirectory);
+    }
+
+    private static List<String> readMessages(File directory) throws IOException {
+        final List<String> messages = new ArrayList<>();
+        for (LogFileReader.Record record : readRecords(directory)) {
+            messages.add(record.message);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,116 @@
+package org.ligboy.android.utils;
+
+import android.util.Log;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Counts the bytes the calling thread allocates in the template overloads of {@link LogUtil},
+ * using the per-thread allocation counter of HotSpot.
+ */
+public class LogUtilAllocationTest {
+
+    private static final String TAG = "Allocation";
+    private static final LogTemplate TEMPLATE = LogTemplate.compile("{} of {} in {} ms, {}");
+    private static final Object ARG = "arg";
+    private static final int WARM_UP_CALLS = 20000;
+    private static final int CALLS = 100000;
+    /**
+     * Slack for the counter reads themselves, far below one byte per call.
+     */
+    private static final long MAX_BYTES = 4096;
+    /**
+     * Callers wait for the background thread instead of dropping, so every call is a record.
+     */
+    private static final int CAPACITY = 1024;
+    private static final int RECORDS_PER_ROUND = 7;
+
+    private static com.sun.management.ThreadMXBean sThreadBean;
+
+    @BeforeClass
+    public static void setUpClass() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        sThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(sThreadBean.isThreadAllocatedMemorySupported());
+        sThreadBean.setThreadAllocatedMemoryEnabled(true);
+        LogUtil.initialize(true, null, CAPACITY, LogUtil.OVERFLOW_BLOCK);
+        Metrics.setEnabled(true);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        LogUtil.setLevel(LogUtil.OFF);
+        LogUtil.shutdown();
+        Metrics.setEnabled(false);
+    }
+
+    @Before
+    public void setUp() {
+        LogUtil.resetLevel(TAG);
+    }
+
+    @Test
+    public void disabledCallsDontAllocate() {
+        LogUtil.setLevel(LogUtil.OFF);
+        assertAllocationFree(LogUtil.getLogger(TAG));
+    }
+
+    @Test
+    public void filteredCallsDontAllocate() {
+        LogUtil.setLevel(Log.VERBOSE);
+        LogUtil.setLevel(TAG, LogUtil.OFF);
+        assertAllocationFree(LogUtil.getLogger(TAG));
+    }
+
+    @Test
+    public void asyncCallsDontAllocate() {
+        LogUtil.setLevel(Log.VERBOSE);
+        final long dropped = Metrics.counter("log.dropped").get();
+        final long records = recordCount();
+        assertAllocationFree(LogUtil.getLogger(TAG));
+        LogUtil.flush();
+        assertEquals(0, Metrics.counter("log.dropped").get() - dropped);
+        assertEquals((long) (WARM_UP_CALLS + CALLS) * RECORDS_PER_ROUND,
+                recordCount() - records);
+    }
+
+    private static long recordCount() {
+        long count = 0;
+        for (String level : new String[]{"verbose", "debug", "info", "warn", "error"}) {
+            count += Metrics.counter("log.records." + level).get();
+        }
+        return count;
+    }
+
+    private static void assertAllocationFree(LogUtil.Logger logger) {
+        log(logger, WARM_UP_CALLS);
+        final long threadId = Thread.currentThread().getId();
+        final long start = sThreadBean.getThreadAllocatedBytes(threadId);
+        log(logger, CALLS);
+        final long bytes = sThreadBean.getThreadAllocatedBytes(threadId) - start;
+        assertTrue(bytes + " bytes allocated by " + CALLS + " calls", bytes < MAX_BYTES);
+    }
+
+    private static void log(LogUtil.Logger logger, int calls) {
+        for (int i = 0; i < calls; i++) {
+            LogUtil.v(TAG, TEMPLATE, i);
+            LogUtil.d(TAG, TEMPLATE, i, calls);
+            LogUtil.i(TAG, TEMPLATE, i, calls, 3L);
+            LogUtil.w(TAG, TEMPLATE, i, calls, 3L, 4L);
+            LogUtil.e(TAG, TEMPLATE, ARG, ARG, ARG, ARG);
+            logger.d(TEMPLATE, i, calls);
+            logger.e(TEMPLATE, ARG, ARG);
+        }
+    }
+}
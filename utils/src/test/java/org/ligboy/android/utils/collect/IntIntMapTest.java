@@ -0,0 +1,99 @@
+package org.ligboy.android.utils.collect;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized comparison of {@link IntIntMap} with {@link HashMap}.
+ */
+public class IntIntMapTest {
+
+    private static final float[] LOAD_FACTORS = {0.25f, 0.5f, 0.75f, 0.9f};
+    private static final int OPERATIONS = 200000;
+
+    @Test
+    public void matchesHashMap() {
+        for (float loadFactor : LOAD_FACTORS) {
+            // A small range forces overwrites and removals, spread keys force long probe runs
+            check(new IntIntMap(0, loadFactor), new Random(1), 512, 1);
+            check(new IntIntMap(16, loadFactor), new Random(2), 4096, 1 << 16);
+        }
+    }
+
+    @Test
+    public void freeKeyIsAnEntry() {
+        final IntIntMap map = new IntIntMap();
+        assertEquals(-1, map.get(0, -1));
+        map.put(0, 7);
+        assertTrue(map.containsKey(0));
+        assertEquals(7, map.get(0, -1));
+        assertEquals(1, map.size());
+        final int cursor = map.first();
+        assertEquals(0, map.keyAt(cursor));
+        assertEquals(7, map.valueAt(cursor));
+        assertEquals(-1, map.next(cursor));
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.first());
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        final IntIntMap map = new IntIntMap();
+        for (int i = -100; i <= 100; i++) {
+            map.put(i, i);
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.first());
+        assertFalse(map.containsKey(0));
+        assertFalse(map.containsKey(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFullLoadFactor() {
+        new IntIntMap(0, 1f);
+    }
+
+    private static void check(IntIntMap map, Random random, int range, int stride) {
+        final Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            final int key = (random.nextInt(range) - range / 2) * stride;
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    final int value = random.nextInt();
+                    map.put(key, value);
+                    expected.put(key, value);
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key) != null, map.remove(key));
+                    break;
+                default:
+                    final Integer mapped = expected.get(key);
+                    assertEquals(mapped != null ? mapped : -1, map.get(key, -1));
+                    assertEquals(mapped != null, map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertSameEntries(expected, map);
+    }
+
+    private static void assertSameEntries(Map<Integer, Integer> expected, IntIntMap map) {
+        final Map<Integer, Integer> visited = new HashMap<>();
+        for (int i = map.first(); i >= 0; i = map.next(i)) {
+            assertNull(visited.put(map.keyAt(i), map.valueAt(i)));
+        }
+        assertEquals(expected, visited);
+    }
+}
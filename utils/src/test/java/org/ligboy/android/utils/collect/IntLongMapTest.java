@@ -0,0 +1,99 @@
+package org.ligboy.android.utils.collect;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized comparison of {@link IntLongMap} with {@link HashMap}.
+ */
+public class IntLongMapTest {
+
+    private static final float[] LOAD_FACTORS = {0.25f, 0.5f, 0.75f, 0.9f};
+    private static final int OPERATIONS = 200000;
+
+    @Test
+    public void matchesHashMap() {
+        for (float loadFactor : LOAD_FACTORS) {
+            // A small range forces overwrites and removals, spread keys force long probe runs
+            check(new IntLongMap(0, loadFactor), new Random(1), 512, 1);
+            check(new IntLongMap(16, loadFactor), new Random(2), 4096, 1 << 16);
+        }
+    }
+
+    @Test
+    public void freeKeyIsAnEntry() {
+        final IntLongMap map = new IntLongMap();
+        assertEquals(-1L, map.get(0, -1L));
+        map.put(0, Long.MAX_VALUE);
+        assertTrue(map.containsKey(0));
+        assertEquals(Long.MAX_VALUE, map.get(0, -1L));
+        assertEquals(1, map.size());
+        final int cursor = map.first();
+        assertEquals(0, map.keyAt(cursor));
+        assertEquals(Long.MAX_VALUE, map.valueAt(cursor));
+        assertEquals(-1, map.next(cursor));
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.first());
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        final IntLongMap map = new IntLongMap();
+        for (int i = -100; i <= 100; i++) {
+            map.put(i, i);
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.first());
+        assertFalse(map.containsKey(0));
+        assertFalse(map.containsKey(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFullLoadFactor() {
+        new IntLongMap(0, 1f);
+    }
+
+    private static void check(IntLongMap map, Random random, int range, int stride) {
+        final Map<Integer, Long> expected = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            final int key = (random.nextInt(range) - range / 2) * stride;
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    final long value = random.nextLong();
+                    map.put(key, value);
+                    expected.put(key, value);
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key) != null, map.remove(key));
+                    break;
+                default:
+                    final Long mapped = expected.get(key);
+                    assertEquals(mapped != null ? mapped : -1L, map.get(key, -1L));
+                    assertEquals(mapped != null, map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertSameEntries(expected, map);
+    }
+
+    private static void assertSameEntries(Map<Integer, Long> expected, IntLongMap map) {
+        final Map<Integer, Long> visited = new HashMap<>();
+        for (int i = map.first(); i >= 0; i = map.next(i)) {
+            assertNull(visited.put(map.keyAt(i), map.valueAt(i)));
+        }
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,102 @@
+package org.ligboy.android.utils.collect;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized comparison of {@link IntObjectMap} with {@link HashMap}.
+ */
+public class IntObjectMapTest {
+
+    private static final float[] LOAD_FACTORS = {0.25f, 0.5f, 0.75f, 0.9f};
+    private static final int OPERATIONS = 200000;
+
+    @Test
+    public void matchesHashMap() {
+        for (float loadFactor : LOAD_FACTORS) {
+            // A small range forces overwrites and removals, spread keys force long probe runs
+            check(new IntObjectMap<String>(0, loadFactor), new Random(1), 512, 1);
+            check(new IntObjectMap<String>(16, loadFactor), new Random(2), 4096, 1 << 16);
+        }
+    }
+
+    @Test
+    public void freeKeyIsAnEntry() {
+        final IntObjectMap<String> map = new IntObjectMap<>();
+        assertNull(map.get(0));
+        assertNull(map.put(0, "zero"));
+        assertEquals("zero", map.put(0, "0"));
+        assertTrue(map.containsKey(0));
+        assertEquals(1, map.size());
+        final int cursor = map.first();
+        assertEquals(0, map.keyAt(cursor));
+        assertEquals("0", map.valueAt(cursor));
+        assertEquals(-1, map.next(cursor));
+        assertEquals("0", map.remove(0));
+        assertNull(map.remove(0));
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.first());
+    }
+
+    @Test
+    public void clearReleasesValues() {
+        final IntObjectMap<Object> map = new IntObjectMap<>();
+        final Object value = new Object();
+        for (int i = -100; i <= 100; i++) {
+            map.put(i, value);
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.first());
+        assertFalse(map.containsKey(0));
+        assertNull(map.get(50));
+        map.put(50, value);
+        assertSame(value, map.get(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFullLoadFactor() {
+        new IntObjectMap<String>(0, 1f);
+    }
+
+    private static void check(IntObjectMap<String> map, Random random, int range, int stride) {
+        final Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            final int key = (random.nextInt(range) - range / 2) * stride;
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    final String value = Integer.toString(random.nextInt());
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertSameEntries(expected, map);
+    }
+
+    private static void assertSameEntries(Map<Integer, String> expected,
+                                          IntObjectMap<String> map) {
+        final Map<Integer, String> visited = new HashMap<>();
+        for (int i = map.first(); i >= 0; i = map.next(i)) {
+            assertNull(visited.put(map.keyAt(i), map.valueAt(i)));
+        }
+        assertEquals(expected, visited);
+    }
+}